@@ -0,0 +1,57 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms;
+
+import java.util.List;
+
+/**
+ * The VO membership information found in a VOMS attribute certificate: the VO
+ * name, the VOMS Attribute Authority (AA) endpoint and the FQANs. This is a
+ * subset of the information available through {@link VOMSAttribute}, and can
+ * be extracted much faster.
+ * 
+ */
+public interface VOMSFQANInfo {
+
+  /**
+   * This method returns the name of the VO
+   * 
+   * @return The name of the VO
+   */
+  public String getVO();
+
+  /**
+   * This method returns the host where the VOMS AA that signed the attributes
+   * lives
+   * 
+   * @return The name of the host where the VOMS AA lives
+   */
+  public String getHost();
+
+  /**
+   * This method returns the port on which the VOMS AA that signed the
+   * attributes listens for requests
+   * 
+   * @return The port on which the VOMS AA listens for requests
+   */
+  public int getPort();
+
+  /**
+   * This method returns the list of VOMS fully qualified attribute names
+   * (FQANs), in the order they appear in the attribute certificate
+   * 
+   * @return The list of FQANs
+   */
+  public List<String> getFQANs();
+
+  /**
+   * This method returns the primary FQAN, i.e. the first FQAN in the list
+   * returned by {@link #getFQANs()}
+   * 
+   * @return The primary FQAN
+   */
+  public String getPrimaryFQAN();
+
+}
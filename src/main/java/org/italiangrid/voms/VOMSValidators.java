@@ -66,4 +66,22 @@ public class VOMSValidators {
     return new DefaultVOMSACParser();
   }
 
+  /**
+   * Builds a parser that caches the parsed attributes, keyed by the VOMS
+   * extension they were parsed from, until the first of the parsed ACs
+   * expires. The attributes returned by the parser are shared by all the
+   * callers that parse the same VOMS extension, and cannot be modified.
+   * 
+   * @param maxCachedEntries
+   *          the maximum number of cached entries, least recently used
+   *          entries being evicted first
+   * @return a caching {@link VOMSACParser}
+   * @throws IllegalArgumentException
+   *           if the maximum number of cached entries is not positive
+   */
+  public static VOMSACParser newParser(int maxCachedEntries) {
+
+    return new DefaultVOMSACParser(maxCachedEntries);
+  }
+
 }
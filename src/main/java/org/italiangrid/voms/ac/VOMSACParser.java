@@ -5,9 +5,13 @@
 package org.italiangrid.voms.ac;
 
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSFQANInfo;
+import org.italiangrid.voms.ac.impl.VOMSFQANInfoImpl;
 
 /**
  * This interface defines the behavior of a VOMS Attribute Certificate parser.
@@ -29,4 +33,40 @@ public interface VOMSACParser {
    */
   public List<VOMSAttribute> parse(X509Certificate[] validatedChain);
 
+  /**
+   * Looks for VOMS attributes in the certificate chain passed as argument
+   * (which is assumed to be already validated), and extracts only the VO
+   * membership information from them.
+   * 
+   * This method is much cheaper than {@link #parse(X509Certificate[])}, and is
+   * meant for callers that only need the VO and FQANs, e.g. for accounting or
+   * logging purposes. The attributes are not validated in any way.
+   * 
+   * The default implementation extracts the information from the attributes
+   * returned by {@link #parse(X509Certificate[])}, so it is only as fast as
+   * that method.
+   * 
+   * @param validatedChain
+   *          a validated X.509 certificate chain
+   * @return a possibly empty list of {@link VOMSFQANInfo} objects, one for
+   *         each VOMS attribute certificate found
+   */
+  public default List<VOMSFQANInfo> parseFQANs(X509Certificate[] validatedChain) {
+
+    List<VOMSFQANInfo> infos = new ArrayList<VOMSFQANInfo>();
+
+    for (VOMSAttribute a : parse(validatedChain)) {
+
+      List<String> fqans = a.getFQANs();
+
+      if (fqans == null)
+        fqans = Collections.emptyList();
+
+      infos.add(new VOMSFQANInfoImpl(a.getVO(), a.getHost(), a.getPort(),
+        fqans));
+    }
+
+    return infos;
+  }
+
 }
@@ -5,10 +5,19 @@
 package org.italiangrid.voms.ac;
 
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 import org.bouncycastle.asn1.x509.AttributeCertificate;
 import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
 
 /**
  * This interface extends the {@link VOMSACParser} interface and provides
@@ -60,6 +69,131 @@ public interface VOMSACValidator extends VOMSACParser {
   public List<VOMSValidationResult> validateWithResult(
     X509Certificate[] validatedChain);
 
+  /**
+   * Asynchronously parses and validates the VOMS attributes found in the
+   * certificate chain passed as argument (which is assumed to be validated
+   * already).
+   * 
+   * This method does not block: when the validator cannot accept more work,
+   * the returned future is completed exceptionally with a
+   * {@link java.util.concurrent.RejectedExecutionException}.
+   * 
+   * The default implementation calls
+   * {@link #validateWithResult(X509Certificate[])} on the common fork-join
+   * pool.
+   * 
+   * @param validatedChain
+   *          a chain of X.509 certificates
+   * @return a future completed with the possibly empty list of
+   *         {@link VOMSValidationResult} objects, as returned by
+   *         {@link #validateWithResult(X509Certificate[])}
+   */
+  public default CompletableFuture<List<VOMSValidationResult>> validateWithResultAsync(
+    final X509Certificate[] validatedChain) {
+
+    return CompletableFuture.supplyAsync(
+      new Supplier<List<VOMSValidationResult>>() {
+
+        public List<VOMSValidationResult> get() {
+
+          return validateWithResult(validatedChain);
+        }
+      });
+  }
+
+  /**
+   * Parses and validates the VOMS attributes found in each of the certificate
+   * chains passed as argument (which are assumed to be validated already),
+   * using the common fork-join pool.
+   * 
+   * This method is equivalent to calling
+   * {@link #validateAllWithResult(List, ExecutorService)} with
+   * {@link ForkJoinPool#commonPool()} as executor.
+   * 
+   * @param validatedChains
+   *          a list of X.509 certificate chains
+   * @return a list holding, for each chain and in the same order, the possibly
+   *         empty list of {@link VOMSValidationResult} objects for the VOMS ACs
+   *         found in the chain
+   */
+  public default List<List<VOMSValidationResult>> validateAllWithResult(
+    List<X509Certificate[]> validatedChains) {
+
+    return validateAllWithResult(validatedChains, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parses and validates the VOMS attributes found in each of the certificate
+   * chains passed as argument (which are assumed to be validated already).
+   * 
+   * The chains are validated in parallel on the given executor, and identical
+   * chains are validated only once. Implementations may share work across the
+   * batch, e.g. by checking all ACs at the same time or by resolving the local
+   * hostname once. This method blocks until all the chains are validated.
+   * 
+   * The default implementation calls
+   * {@link #validateWithResult(X509Certificate[])} for each chain on the given
+   * executor.
+   * 
+   * @param validatedChains
+   *          a list of X.509 certificate chains
+   * @param executor
+   *          the executor that runs the validations
+   * @return a list holding, for each chain and in the same order, the possibly
+   *         empty list of {@link VOMSValidationResult} objects for the VOMS ACs
+   *         found in the chain
+   */
+  public default List<List<VOMSValidationResult>> validateAllWithResult(
+    List<X509Certificate[]> validatedChains, ExecutorService executor) {
+
+    if (validatedChains == null)
+      throw new IllegalArgumentException(
+        "Please provide a non-null list of certificate chains.");
+
+    if (executor == null)
+      throw new IllegalArgumentException("Please provide a non-null executor.");
+
+    List<Callable<List<VOMSValidationResult>>> validations = new ArrayList<Callable<List<VOMSValidationResult>>>();
+
+    for (final X509Certificate[] chain : validatedChains) {
+
+      validations.add(new Callable<List<VOMSValidationResult>>() {
+
+        public List<VOMSValidationResult> call() {
+
+          return validateWithResult(chain);
+        }
+      });
+    }
+
+    List<List<VOMSValidationResult>> results = new ArrayList<List<VOMSValidationResult>>();
+
+    try {
+
+      for (Future<List<VOMSValidationResult>> f : executor
+        .invokeAll(validations))
+        results.add(f.get());
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VOMSError("Interrupted while validating certificate chains.",
+        e);
+
+    } catch (ExecutionException e) {
+
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+
+      throw new VOMSError("Error validating certificate chain: "
+        + e.getCause().getMessage(), e.getCause());
+    }
+
+    return results;
+  }
+
   /**
    * Validates the VOMS attributes found in the attribute certificate list
    * passed as argument.
@@ -81,8 +215,9 @@ public interface VOMSACValidator extends VOMSACParser {
   public void setValidationResultListener(ValidationResultListener listener);
 
   /**
-   * Shutdown the VOMS validator. This method should be called to perform final
-   * cleanup operations.
+   * Shutdown the VOMS validator. This method must be called to perform final
+   * cleanup operations, e.g. to stop the threads that run asynchronous
+   * validations, once the validator is no longer needed.
    */
   public void shutdown();
 }
@@ -0,0 +1,150 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.italiangrid.voms.store.impl.VOMSNamedThreadFactory;
+import org.italiangrid.voms.util.NullListener;
+
+/**
+ * A {@link LocalHostnameResolver} that caches the hostname resolved by another
+ * resolver for a configurable amount of time.
+ *
+ * Only the first resolution is done in the calling thread. Once the cached
+ * hostname is older than the configured time to live, it is still returned
+ * while a background thread resolves the hostname again. If the background
+ * resolution fails, the previously resolved hostname keeps being used until
+ * the next refresh attempt, one time to live later.
+ *
+ */
+public class CachingLocalHostnameResolver implements LocalHostnameResolver {
+
+  /**
+   * The default time to live of the cached hostname (5 minutes).
+   */
+  public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+  private static final VOMSNamedThreadFactory THREAD_FACTORY = new VOMSNamedThreadFactory(
+    NullListener.INSTANCE);
+
+  private final LocalHostnameResolver resolver;
+
+  private final long ttlMsec;
+
+  private final AtomicBoolean refreshInProgress = new AtomicBoolean(false);
+
+  private volatile CachedHostname cachedHostname;
+
+  /**
+   * Builds a caching resolver.
+   *
+   * @param resolver
+   *          the resolver used to resolve the hostname
+   * @param ttlMsec
+   *          the time to live of the cached hostname, in milliseconds
+   */
+  public CachingLocalHostnameResolver(LocalHostnameResolver resolver,
+    long ttlMsec) {
+
+    if (resolver == null)
+      throw new IllegalArgumentException("Please provide a non-null resolver.");
+
+    if (ttlMsec <= 0)
+      throw new IllegalArgumentException(
+        "Please provide a positive time to live.");
+
+    this.resolver = resolver;
+    this.ttlMsec = ttlMsec;
+  }
+
+  /**
+   * Builds a caching resolver that caches the hostname for {@link #DEFAULT_TTL}
+   * milliseconds.
+   *
+   * @param resolver
+   *          the resolver used to resolve the hostname
+   */
+  public CachingLocalHostnameResolver(LocalHostnameResolver resolver) {
+
+    this(resolver, DEFAULT_TTL);
+  }
+
+  /**
+   * Builds a caching resolver on top of a {@link DefaultLocalHostnameResolver}
+   * that caches the hostname for {@link #DEFAULT_TTL} milliseconds.
+   */
+  public CachingLocalHostnameResolver() {
+
+    this(new DefaultLocalHostnameResolver());
+  }
+
+  public String resolveLocalHostname() throws UnknownHostException {
+
+    CachedHostname cached = cachedHostname;
+
+    if (cached == null) {
+
+      String hostname = resolver.resolveLocalHostname();
+      cachedHostname = new CachedHostname(hostname,
+        System.currentTimeMillis() + ttlMsec);
+
+      return hostname;
+    }
+
+    if (System.currentTimeMillis() >= cached.refreshTime) {
+      scheduleRefresh(cached);
+    }
+
+    return cached.hostname;
+  }
+
+  private void scheduleRefresh(final CachedHostname cached) {
+
+    if (!refreshInProgress.compareAndSet(false, true))
+      return;
+
+    Thread refresher = THREAD_FACTORY.newThread(new Runnable() {
+
+      public void run() {
+
+        try {
+
+          String hostname = cached.hostname;
+
+          try {
+            hostname = resolver.resolveLocalHostname();
+          } catch (UnknownHostException e) {
+            // Keep using the stale hostname until the next refresh attempt
+          }
+
+          cachedHostname = new CachedHostname(hostname,
+            System.currentTimeMillis() + ttlMsec);
+
+        } finally {
+          refreshInProgress.set(false);
+        }
+      }
+    });
+
+    refresher.setDaemon(true);
+    refresher.start();
+  }
+
+  private static class CachedHostname {
+
+    private final String hostname;
+
+    private final long refreshTime;
+
+    CachedHostname(String hostname, long refreshTime) {
+
+      this.hostname = hostname;
+      this.refreshTime = refreshTime;
+    }
+  }
+}
@@ -4,15 +4,24 @@
 
 package org.italiangrid.voms.ac.impl;
 
+import java.io.IOException;
 import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.util.Collections;
 import java.util.List;
 
+import org.bouncycastle.asn1.x509.AttributeCertificate;
 import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.VOMSFQANInfo;
 import org.italiangrid.voms.ac.ACParsingContext;
 import org.italiangrid.voms.ac.VOMSACLookupStrategy;
 import org.italiangrid.voms.ac.VOMSACParser;
 import org.italiangrid.voms.ac.VOMSAttributesNormalizationStrategy;
+import org.italiangrid.voms.asn1.VOMSACUtils;
+import org.italiangrid.voms.util.Fingerprint;
 import org.italiangrid.voms.util.NullListener;
+import org.italiangrid.voms.util.StringPool;
 
 /**
  * Default implementation of the VOMS attribute certificate parsing logic.
@@ -30,7 +39,9 @@ import org.italiangrid.voms.util.NullListener;
 public class DefaultVOMSACParser implements VOMSACParser {
 
   private final VOMSACLookupStrategy acLookupStrategy;
-  private final VOMSAttributesNormalizationStrategy acNormalizationStrategy = new LeafVOMSExtensionNormalizationStrategy();
+  private final VOMSAttributesNormalizationStrategy acNormalizationStrategy;
+  private final VOMSAttributesCache attributesCache;
+  private final StringPool stringPool;
 
   /**
    * Creates a new {@code DefaultVOMSACParser} with the default lookup strategy.
@@ -50,7 +61,89 @@ public class DefaultVOMSACParser implements VOMSACParser {
    */
   public DefaultVOMSACParser(VOMSACLookupStrategy strategy) {
 
+    this(strategy, null);
+  }
+
+  /**
+   * Creates a new {@code DefaultVOMSACParser} with a specified lookup strategy
+   * that canonicalizes the VO names, AA hostnames and FQANs decoded from the
+   * ACs with the given pool, so that ACs parsed at different times share the
+   * same string instances.
+   *
+   * @param strategy the lookup strategy to use for locating attribute certificates
+   * @param stringPool the string pool, or {@code null} if strings are not pooled
+   */
+  public DefaultVOMSACParser(VOMSACLookupStrategy strategy,
+    StringPool stringPool) {
+
     this.acLookupStrategy = strategy;
+    this.acNormalizationStrategy = new LeafVOMSExtensionNormalizationStrategy(
+      stringPool);
+    this.attributesCache = null;
+    this.stringPool = stringPool;
+  }
+
+  /**
+   * Creates a new {@code DefaultVOMSACParser} with the default lookup strategy
+   * that caches the parsed attributes.
+   *
+   * @param maxCachedEntries the maximum number of cached entries
+   * @see #DefaultVOMSACParser(int, Clock)
+   */
+  public DefaultVOMSACParser(int maxCachedEntries) {
+
+    this(maxCachedEntries, Clock.systemUTC());
+  }
+
+  /**
+   * Creates a new {@code DefaultVOMSACParser} with the default lookup strategy
+   * that caches the parsed attributes.
+   *
+   * <p>The attributes are cached by the digest of the VOMS extension found in the
+   * leaf-most proxy that carries one, until the first of the parsed ACs expires
+   * or the entry is evicted to make room for more recently used ones. Chains
+   * carrying the same VOMS extension get the same unmodifiable list of
+   * unmodifiable attributes.</p>
+   *
+   * @param maxCachedEntries the maximum number of cached entries
+   * @param clock the clock used to expire cached entries
+   * @throws IllegalArgumentException if the maximum number of cached entries is not
+   *         positive, or the clock is {@code null}
+   */
+  public DefaultVOMSACParser(int maxCachedEntries, Clock clock) {
+
+    this(maxCachedEntries, clock, null);
+  }
+
+  /**
+   * Creates a new {@code DefaultVOMSACParser} with the default lookup strategy
+   * that caches the parsed attributes, like
+   * {@link #DefaultVOMSACParser(int, Clock)} does, and canonicalizes the VO
+   * names, AA hostnames and FQANs decoded from the ACs with the given pool.
+   *
+   * @param maxCachedEntries the maximum number of cached entries
+   * @param clock the clock used to expire cached entries
+   * @param stringPool the string pool, or {@code null} if strings are not pooled
+   * @throws IllegalArgumentException if the maximum number of cached entries is not
+   *         positive, or the clock is {@code null}
+   */
+  public DefaultVOMSACParser(int maxCachedEntries, Clock clock,
+    StringPool stringPool) {
+
+    this.acLookupStrategy = new LeafACLookupStrategy(NullListener.INSTANCE);
+    this.acNormalizationStrategy = new LeafVOMSExtensionNormalizationStrategy(
+      stringPool);
+    this.attributesCache = new VOMSAttributesCache(maxCachedEntries, clock);
+    this.stringPool = stringPool;
+  }
+
+  /**
+   * @return the pool used to canonicalize the strings decoded from the ACs, or
+   *         {@code null} if strings are not pooled
+   */
+  protected StringPool getStringPool() {
+
+    return stringPool;
   }
 
   /**
@@ -65,8 +158,98 @@ public class DefaultVOMSACParser implements VOMSACParser {
 
     if (validatedChain == null)
       throw new NullPointerException("Cannot parse a null certchain!");
+
+    if (attributesCache != null)
+      return parseWithCache(validatedChain);
+
     List<ACParsingContext> parsedACs = acLookupStrategy
       .lookupVOMSAttributeCertificates(validatedChain);
     return acNormalizationStrategy.normalizeAttributes(parsedACs);
   }
+
+  /**
+   * Looks up the attributes in the leaf-most proxy carrying VOMS ACs, like the
+   * {@link LeafACLookupStrategy} does, and parses them only if they are not
+   * found in the cache.
+   *
+   * @param validatedChain the certificate chain to analyze
+   * @return the possibly cached attributes
+   */
+  private List<VOMSAttribute> parseWithCache(X509Certificate[] validatedChain) {
+
+    List<VOMSAttribute> attributes = LeafACLookupStrategy
+      .lookupLeafVOMSExtension(validatedChain, NullListener.INSTANCE,
+        new LeafACLookupStrategy.VOMSExtensionVisitor<List<VOMSAttribute>>() {
+
+          public List<VOMSAttribute> visit(X509Certificate[] chain, int index,
+            byte[] vomsExtension) {
+
+            Fingerprint key = attributesCache.getKey(vomsExtension);
+            List<VOMSAttribute> cachedAttributes = attributesCache
+              .getAttributes(key);
+
+            if (cachedAttributes != null)
+              return cachedAttributes;
+
+            List<AttributeCertificate> acs;
+
+            try {
+              acs = VOMSACUtils.getACsFromVOMSExtension(vomsExtension);
+            } catch (IOException e) {
+              throw new VOMSError(e.getMessage(), e);
+            }
+
+            if (acs.isEmpty())
+              return null;
+
+            return attributesCache.cacheAttributes(key, acNormalizationStrategy
+              .normalizeAttributes(Collections.singletonList(new ACParsingContext(
+                acs, index, chain))));
+          }
+        });
+
+    if (attributes == null)
+      return Collections.emptyList();
+
+    return attributes;
+  }
+
+  /**
+   * Extracts the VO membership information from the VOMS attribute
+   * certificates found in the leaf-most proxy carrying a VOMS extension in a
+   * validated X.509 certificate chain, like the {@link LeafACLookupStrategy}
+   * does. The DER encoding of the VOMS extension is walked directly, and the
+   * configured lookup strategy is not used.
+   *
+   * @param validatedChain the certificate chain to analyze
+   * @return a possibly empty list of {@link VOMSFQANInfo} objects
+   * @throws NullPointerException if the provided certificate chain is {@code null}
+   * @throws VOMSError if the provided certificate chain is empty, or a VOMS attribute certificate
+   *         is not well formed
+   */
+  @Override
+  public List<VOMSFQANInfo> parseFQANs(X509Certificate[] validatedChain) {
+
+    if (validatedChain == null)
+      throw new NullPointerException("Cannot parse a null certchain!");
+
+    List<VOMSFQANInfo> infos = LeafACLookupStrategy.lookupLeafVOMSExtension(
+      validatedChain, NullListener.INSTANCE,
+      new LeafACLookupStrategy.VOMSExtensionVisitor<List<VOMSFQANInfo>>() {
+
+        public List<VOMSFQANInfo> visit(X509Certificate[] chain, int index,
+          byte[] vomsExtension) {
+
+          List<VOMSFQANInfo> extensionInfos = VOMSACUtils
+            .getFQANInfoFromVOMSExtension(vomsExtension, stringPool);
+
+          return extensionInfos.isEmpty() ? null : extensionInfos;
+        }
+      });
+
+    if (infos == null)
+      return Collections.emptyList();
+
+    return infos;
+  }
 }
@@ -20,19 +20,23 @@ import static org.italiangrid.voms.error.VOMSValidationErrorCode.other;
 import static org.italiangrid.voms.error.VOMSValidationErrorMessage.newErrorMessage;
 
 import java.net.UnknownHostException;
-import java.security.cert.CertificateEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.x500.X500Principal;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.Extension;
-import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.operator.ContentVerifierProvider;
@@ -46,11 +50,15 @@ import org.italiangrid.voms.asn1.VOMSConstants;
 import org.italiangrid.voms.error.VOMSValidationErrorMessage;
 import org.italiangrid.voms.store.LSCInfo;
 import org.italiangrid.voms.store.VOMSTrustStore;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.util.ClockCache;
+import org.italiangrid.voms.util.Fingerprint;
+import org.italiangrid.voms.util.IdentityWeakCache;
+import org.italiangrid.voms.util.KeyIdentifierHelper;
 
 import eu.emi.security.authn.x509.ValidationError;
 import eu.emi.security.authn.x509.ValidationResult;
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
-import eu.emi.security.authn.x509.impl.X500NameUtils;
 import eu.emi.security.authn.x509.proxy.ProxyUtils;
 
 /**
@@ -64,19 +72,110 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
   private final VOMSTrustStore store;
   private final X509CertChainValidatorExt certChainValidator;
   private final LocalHostnameResolver hostnameResolver;
-
+  private final List<VOMSACValidationStage> validationStages;
+  private final Clock clock;
+
+  /**
+   * The default validation stages. Cheap structural checks come first, so that malformed or
+   * mis-targeted ACs are rejected before the signature and AA certificate checks run.
+   */
+  public static final List<VOMSACValidationStage> DEFAULT_VALIDATION_STAGES =
+      Collections.unmodifiableList(Arrays.asList(VOMSACValidationStage.TIME_VALIDITY,
+          VOMSACValidationStage.HOLDER, VOMSACValidationStage.AUTHORITY_KEY_IDENTIFIER_EXTENSION,
+          VOMSACValidationStage.NO_REV_AVAIL_EXTENSION,
+          VOMSACValidationStage.UNHANDLED_CRITICAL_EXTENSIONS, VOMSACValidationStage.TARGETS,
+          VOMSACValidationStage.SIGNATURE));
+
+  /**
+   * The signature verifier providers built so far for the AA certificates that are not held by a
+   * {@link DefaultVOMSTrustStore}, i.e. the ones embedded in ACs, keyed by AA certificate instance.
+   * Entries go away when the parsed ACs no longer reference the certificate.
+   */
+  private final IdentityWeakCache<X509Certificate, ContentVerifierProvider> verifierProviders =
+      new IdentityWeakCache<X509Certificate, ContentVerifierProvider>();
+
+  /**
+   * Tells, for a given VO and AA host, whether the last successful AC signature verification used
+   * the local AA certificate (<code>true</code>) or the LSC information (<code>false</code>).
+   * Only successful verifications are recorded, so the keys come from authenticated ACs.
+   */
+  private final ConcurrentMap<String, Boolean> localAAVerificationPaths =
+      new ConcurrentHashMap<String, Boolean>();
+
+  private static final DefaultDigestAlgorithmIdentifierFinder DIGEST_ALGORITHM_FINDER =
+      new DefaultDigestAlgorithmIdentifierFinder();
+
+  /** The maximum number of memoized AC signature verification outcomes **/
+  public static final int MAX_MEMOIZED_SIGNATURE_VERIFICATIONS = 1000;
+
+  /** The digest algorithm used to build AC signature verification memo keys **/
+  private static final String AC_DIGEST_ALGORITHM = "SHA-256";
+
+  /** The per-thread message digests used to build AC signature verification memo keys **/
+  private static final ThreadLocal<MessageDigest> AC_DIGESTS = new ThreadLocal<MessageDigest>();
+
+  /**
+   * The AC signature verification outcomes, keyed by the AA public key and the digest of the
+   * encoded AC. Outcomes are evicted following a CLOCK policy, so lookups take no lock. Since an
+   * outcome only depends on its key, outcomes are not affected by trust store updates.
+   */
+  private final ClockCache<Fingerprint, Boolean> signatureVerifications =
+      new ClockCache<Fingerprint, Boolean>(MAX_MEMOIZED_SIGNATURE_VERIFICATIONS);
+
+  /**
+   * Builds a strategy that runs the given validation stages, in order, and reads the current time
+   * from the given clock. Stages that are not in the list are not run: leaving out the
+   * {@link VOMSACValidationStage#SIGNATURE} stage, for instance, means that AC signatures are not
+   * checked at all.
+   * 
+   * @param store the VOMS trust store
+   * @param validator the validator used to validate AA certificate chains
+   * @param resolver the resolver for the local hostname, used to check AC targets
+   * @param stages the validation stages to run
+   * @param clock the clock used to check the AC time validity
+   */
   public DefaultVOMSValidationStrategy(VOMSTrustStore store, X509CertChainValidatorExt validator,
-      LocalHostnameResolver resolver) {
+      LocalHostnameResolver resolver, List<VOMSACValidationStage> stages, Clock clock) {
+
+    if (stages == null)
+      throw new IllegalArgumentException("Please provide a non-null list of validation stages.");
+
+    if (clock == null)
+      throw new IllegalArgumentException("Please provide a non-null clock.");
 
+    this.clock = clock;
     this.store = store;
     this.certChainValidator = validator;
     this.hostnameResolver = resolver;
+    this.validationStages =
+        Collections.unmodifiableList(new ArrayList<VOMSACValidationStage>(stages));
+  }
+
+  /**
+   * Builds a strategy that runs the given validation stages, in order. Stages that are not in
+   * the list are not run: leaving out the {@link VOMSACValidationStage#SIGNATURE} stage, for
+   * instance, means that AC signatures are not checked at all.
+   * 
+   * @param store the VOMS trust store
+   * @param validator the validator used to validate AA certificate chains
+   * @param resolver the resolver for the local hostname, used to check AC targets
+   * @param stages the validation stages to run
+   */
+  public DefaultVOMSValidationStrategy(VOMSTrustStore store, X509CertChainValidatorExt validator,
+      LocalHostnameResolver resolver, List<VOMSACValidationStage> stages) {
+
+    this(store, validator, resolver, stages, Clock.systemUTC());
+  }
+
+  public DefaultVOMSValidationStrategy(VOMSTrustStore store, X509CertChainValidatorExt validator,
+      LocalHostnameResolver resolver) {
 
+    this(store, validator, resolver, DEFAULT_VALIDATION_STAGES);
   }
 
   public DefaultVOMSValidationStrategy(VOMSTrustStore store, X509CertChainValidatorExt validator) {
 
-    this(store, validator, new DefaultLocalHostnameResolver());
+    this(store, validator, new CachingLocalHostnameResolver());
   }
 
   private boolean checkACHolder(VOMSAttribute attributes, X509Certificate[] chain,
@@ -88,26 +187,29 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
 
     if (!holderDoesMatch) {
 
-      String acHolderSubject = X500NameUtils.getReadableForm(attributes.getHolder());
-      String certChainSubject = X500NameUtils.getReadableForm(chainHolder);
-
       validationErrors.add(VOMSValidationErrorMessage.newErrorMessage(acHolderDoesntMatchCertChain,
-          acHolderSubject, certChainSubject));
+          attributes.getHolder(), chainHolder));
     }
 
     return holderDoesMatch;
   }
 
-  private boolean checkACValidity(VOMSAttribute attributes,
+  private boolean checkACValidity(VOMSAttribute attributes, VOMSValidationContext context,
       List<VOMSValidationErrorMessage> validationErrors) {
 
-    Date now = new Date();
+    long now = context.getNow();
+
+    boolean valid;
 
-    boolean valid = attributes.validAt(now);
+    if (attributes instanceof VOMSAttributesImpl)
+      valid = ((VOMSAttributesImpl) attributes).validAt(now);
+    else
+      valid = attributes.validAt(new Date(now));
 
     if (!valid) {
       VOMSValidationErrorMessage m = VOMSValidationErrorMessage.newErrorMessage(
-          acNotValidAtCurrentTime, attributes.getNotBefore(), attributes.getNotAfter(), now);
+          acNotValidAtCurrentTime, attributes.getNotBefore(), attributes.getNotAfter(),
+          new Date(now));
 
       validationErrors.add(m);
     }
@@ -116,15 +218,15 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
   }
 
   private boolean checkLocalAACertSignature(VOMSAttribute attributes,
-      List<VOMSValidationErrorMessage> validationErrors) {
+      VOMSValidationContext context, List<VOMSValidationErrorMessage> validationErrors) {
 
-    X509Certificate localAACert = store.getAACertificateBySubject(attributes.getIssuer());
+    X509Certificate localAACert = getLocalAACertificate(attributes, context.getTrustStore());
     if (localAACert == null) {
       validationErrors.add(VOMSValidationErrorMessage.newErrorMessage(aaCertNotFound));
       return false;
     }
 
-    if (!validateCertificate(localAACert, validationErrors)) {
+    if (!validateLocalAACertificate(localAACert, context, validationErrors)) {
       validationErrors.add(VOMSValidationErrorMessage.newErrorMessage(invalidAaCert));
       return false;
     }
@@ -133,22 +235,22 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
       return false;
     }
 
-    boolean signatureValid = verifyACSignature(attributes, localAACert);
+    boolean signatureValid =
+        verifyACSignature(attributes, localAACert, context.getTrustStore());
 
     if (!signatureValid) {
-      String readableSubject = X500NameUtils.getReadableForm(localAACert.getSubjectX500Principal());
-      validationErrors.add(VOMSValidationErrorMessage
-        .newErrorMessage(aaCertFailsSignatureVerification, readableSubject));
+      validationErrors.add(VOMSValidationErrorMessage.newErrorMessage(
+          aaCertFailsSignatureVerification, localAACert.getSubjectX500Principal()));
     }
 
     return signatureValid;
 
   }
 
-  private boolean checkLSCSignature(VOMSAttribute attributes,
+  private boolean checkLSCSignature(VOMSAttribute attributes, VOMSValidationContext context,
       List<VOMSValidationErrorMessage> validationErrors) {
 
-    LSCInfo lsc = store.getLSC(attributes.getVO(), attributes.getHost());
+    LSCInfo lsc = context.getTrustStore().getLSC(attributes.getVO(), attributes.getHost());
     X509Certificate[] aaCerts = attributes.getAACertificates();
 
     if (lsc == null) {
@@ -177,30 +279,48 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
       return false;
     }
 
-    boolean signatureValid = verifyACSignature(attributes, aaCerts[0]);
+    boolean signatureValid = verifyACSignature(attributes, aaCerts[0], null);
 
     if (!signatureValid) {
-      String readableSubject = X500NameUtils.getReadableForm(aaCerts[0].getSubjectX500Principal());
-      validationErrors.add(VOMSValidationErrorMessage
-        .newErrorMessage(acCertFailsSignatureVerification, readableSubject));
+      validationErrors.add(VOMSValidationErrorMessage.newErrorMessage(
+          acCertFailsSignatureVerification, aaCerts[0].getSubjectX500Principal()));
     }
 
     return signatureValid;
   }
 
-  private boolean checkSignature(VOMSAttribute attributes,
+  private boolean checkSignature(VOMSAttribute attributes, VOMSValidationContext context,
       List<VOMSValidationErrorMessage> validationErrors) {
 
-    boolean valid = checkLSCSignature(attributes, validationErrors);
+    String verificationPathKey = attributes.getVO() + "/" + attributes.getHost();
+    boolean localAAFirst = Boolean.TRUE.equals(localAAVerificationPaths.get(verificationPathKey));
 
-    if (!valid)
-      valid = checkLocalAACertSignature(attributes, validationErrors);
+    List<VOMSValidationErrorMessage> lscErrors = new ArrayList<VOMSValidationErrorMessage>();
+    List<VOMSValidationErrorMessage> localAAErrors = new ArrayList<VOMSValidationErrorMessage>();
 
-    return valid;
+    if (localAAFirst && checkLocalAACertSignature(attributes, context, localAAErrors))
+      return true;
+
+    if (checkLSCSignature(attributes, context, lscErrors)) {
+      if (localAAFirst)
+        localAAVerificationPaths.put(verificationPathKey, Boolean.FALSE);
+      return true;
+    }
+
+    // The LSC path was tried, so its errors are reported as they always were
+    validationErrors.addAll(lscErrors);
+
+    if (!localAAFirst && checkLocalAACertSignature(attributes, context, localAAErrors)) {
+      localAAVerificationPaths.put(verificationPathKey, Boolean.TRUE);
+      return true;
+    }
+
+    validationErrors.addAll(localAAErrors);
+    return false;
 
   }
 
-  private boolean checkTargets(VOMSAttribute attributes,
+  private boolean checkTargets(VOMSAttribute attributes, VOMSValidationContext context,
       List<VOMSValidationErrorMessage> validationErrors) {
 
     if (attributes.getTargets() == null || attributes.getTargets().size() == 0)
@@ -209,7 +329,7 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
     String localhostName;
 
     try {
-      localhostName = hostnameResolver.resolveLocalHostname();
+      localhostName = context.getLocalHostname();
 
     } catch (UnknownHostException e) {
       validationErrors
@@ -217,15 +337,23 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
       return false;
     }
 
-    if (!attributes.getTargets().contains(localhostName)) {
+    if (!targetsContain(attributes, localhostName)) {
       validationErrors.add(newErrorMessage(localhostDoesntMatchAcTarget, localhostName,
-          attributes.getTargets().toString()));
+          attributes.getTargets()));
       return false;
     }
 
     return true;
   }
 
+  private boolean targetsContain(VOMSAttribute attributes, String target) {
+
+    if (attributes instanceof VOMSAttributesImpl)
+      return ((VOMSAttributesImpl) attributes).getTargetSet().contains(target);
+
+    return attributes.getTargets().contains(target);
+  }
+
   private boolean checkNoRevAvailExtension(VOMSAttribute attributes,
       List<VOMSValidationErrorMessage> validationErrors) {
 
@@ -241,15 +369,14 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
   private boolean checkAuthorityKeyIdentifier(X509Certificate aaCert, VOMSAttribute attributes,
       List<VOMSValidationErrorMessage> validationErrors) {
 
-    AuthorityKeyIdentifier akid =
-        AuthorityKeyIdentifier.fromExtensions(attributes.getVOMSAC().getExtensions());
+    byte[] akid = getAuthorityKeyIdentifier(attributes);
 
     try {
 
-      X509CertificateHolder aaCertHolder = new JcaX509CertificateHolder(aaCert);
+      Fingerprint skid = KeyIdentifierHelper.getSubjectKeyIdentifier(aaCert);
 
-      SubjectKeyIdentifier skid = SubjectKeyIdentifier.fromExtensions(aaCertHolder.getExtensions());
-      boolean authKeyIdMatches = Arrays.equals(skid.getKeyIdentifier(), akid.getKeyIdentifier());
+      boolean authKeyIdMatches =
+          skid != null && akid != null && skid.equals(new Fingerprint(akid));
 
       if (!authKeyIdMatches) {
         validationErrors.add(newErrorMessage(other,
@@ -259,14 +386,50 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
 
       return true;
 
-    } catch (CertificateEncodingException e) {
+    } catch (IllegalArgumentException e) {
       validationErrors.add(newErrorMessage(other,
-          String.format("VOMS AA certificate parse error: %s", e.getMessage())));
+          "VOMS AA certificate parse error: " + e.getMessage()));
       return false;
     }
 
   }
 
+  private byte[] getAuthorityKeyIdentifier(VOMSAttribute attributes) {
+
+    AuthorityKeyIdentifier akid =
+        AuthorityKeyIdentifier.fromExtensions(attributes.getVOMSAC().getExtensions());
+
+    if (akid == null)
+      return null;
+
+    return akid.getKeyIdentifier();
+  }
+
+  /**
+   * Looks up the local AA certificate for a VOMS AC. When the trust store indexes certificates by
+   * key identifier, the AC authority key identifier selects the right certificate among the ones
+   * sharing the AC issuer subject (e.g., during an AA key rollover).
+   */
+  private X509Certificate getLocalAACertificate(VOMSAttribute attributes, VOMSTrustStore store) {
+
+    if (store instanceof DefaultVOMSTrustStore) {
+
+      byte[] akid = getAuthorityKeyIdentifier(attributes);
+
+      if (akid != null) {
+
+        for (X509Certificate c : ((DefaultVOMSTrustStore) store)
+          .getAACertificatesByKeyIdentifier(akid)) {
+
+          if (c.getSubjectX500Principal().equals(attributes.getIssuer()))
+            return c;
+        }
+      }
+    }
+
+    return store.getAACertificateBySubject(attributes.getIssuer());
+  }
+
   private boolean checkAuthorityKeyIdentifierExtension(VOMSAttribute attributes,
       List<VOMSValidationErrorMessage> validationErrors) {
 
@@ -299,66 +462,151 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
     return true;
   }
 
-  public VOMSValidationResult validateAC(VOMSAttribute attributes) {
+  /**
+   * Runs a validation stage.
+   * 
+   * @return <code>true</code> if the stage succeeded or was skipped, <code>false</code> otherwise
+   */
+  private boolean runStage(VOMSACValidationStage stage, VOMSAttribute attributes,
+      X509Certificate[] chain, VOMSValidationContext context,
+      List<VOMSValidationErrorMessage> validationErrors) {
+
+    switch (stage) {
+
+      case TIME_VALIDITY:
+        return checkACValidity(attributes, context, validationErrors);
+
+      case HOLDER:
+        return chain == null || checkACHolder(attributes, chain, validationErrors);
+
+      // AC extension checking to be compliant with rfc 3281
+      case AUTHORITY_KEY_IDENTIFIER_EXTENSION:
+        return checkAuthorityKeyIdentifierExtension(attributes, validationErrors);
+
+      case NO_REV_AVAIL_EXTENSION:
+        return checkNoRevAvailExtension(attributes, validationErrors);
+
+      case UNHANDLED_CRITICAL_EXTENSIONS:
+        return checkUnhandledCriticalExtensions(attributes, validationErrors);
+
+      case TARGETS:
+        return checkTargets(attributes, context, validationErrors);
+
+      case SIGNATURE:
+        // Verify signature on AC checking LSC file or local AA certificate
+        return checkSignature(attributes, context, validationErrors);
+
+      default:
+        throw new IllegalArgumentException("Unknown validation stage: " + stage);
+    }
+  }
+
+  private VOMSValidationResult runStages(VOMSAttribute attributes, X509Certificate[] chain,
+      VOMSValidationContext context) {
 
     boolean valid = true;
     List<VOMSValidationErrorMessage> validationErrors = new ArrayList<VOMSValidationErrorMessage>();
 
-    // Check temporal validity
-    valid = checkACValidity(attributes, validationErrors);
+    for (VOMSACValidationStage stage : validationStages) {
 
-    if (valid)
-      // Verify signature on AC checking LSC file or local AA certificate
-      valid = checkSignature(attributes, validationErrors);
+      valid = runStage(stage, attributes, chain, context, validationErrors);
 
-    if (valid)
-      // Check targets
-      valid = checkTargets(attributes, validationErrors);
+      if (!valid)
+        break;
+    }
+
+    return new VOMSValidationResult(attributes, valid, validationErrors);
+  }
 
-    // AC extension checking to be compliant with rfc 3281
-    if (valid)
-      valid = checkAuthorityKeyIdentifierExtension(attributes, validationErrors);
+  /**
+   * Builds the context for a single validation, which looks up trust information in the live
+   * trust store.
+   */
+  private VOMSValidationContext newValidationContext() {
 
-    if (valid)
-      valid = checkNoRevAvailExtension(attributes, validationErrors);
+    return new VOMSValidationContext(store, clock.millis(), hostnameResolver);
+  }
 
-    if (valid)
-      valid = checkUnhandledCriticalExtensions(attributes, validationErrors);
+  /**
+   * Builds a context to be shared by a batch of validations. All the validations in the batch
+   * check the ACs at the same time, share a single local hostname resolution and, when the trust
+   * store is a {@link DefaultVOMSTrustStore}, look up trust information in a snapshot of the
+   * store taken when the batch starts.
+   * 
+   * @return the validation context
+   */
+  VOMSValidationContext newBatchValidationContext() {
 
-    return new VOMSValidationResult(attributes, valid, validationErrors);
+    VOMSTrustStore batchStore = store;
+
+    if (store instanceof DefaultVOMSTrustStore)
+      batchStore = ((DefaultVOMSTrustStore) store).getSnapshot();
+
+    return new VOMSValidationContext(batchStore, clock.millis(), hostnameResolver);
   }
 
-  public VOMSValidationResult validateAC(VOMSAttribute attributes, X509Certificate[] chain) {
+  /**
+   * Validates a VOMS AC in a given validation context.
+   * 
+   * @param attributes the parsed VOMS attributes
+   * @param chain the certificate chain from which the attributes were parsed
+   * @param context the validation context
+   * @return the outcome of the validation
+   */
+  VOMSValidationResult validateAC(VOMSAttribute attributes, X509Certificate[] chain,
+      VOMSValidationContext context) {
+
+    if (chain == null)
+      throw new NullPointerException("Please provide a non-null certificate chain.");
+
+    return runStages(attributes, chain, context);
+  }
+
+  /**
+   * Checks the time validity of a VOMS AC ahead of the other validation stages, when the
+   * {@link VOMSACValidationStage#TIME_VALIDITY} stage is the first one run by this strategy.
+   * 
+   * @param attributes the parsed VOMS attributes
+   * @param context the validation context, or <code>null</code> to check the AC at the current
+   *        time
+   * @return the failed validation result that {@link #validateAC(VOMSAttribute, X509Certificate[])}
+   *         would return for an AC that is not valid at the time of the check, or
+   *         <code>null</code> if the AC needs a full validation
+   */
+  VOMSValidationResult precheckACValidity(VOMSAttribute attributes,
+      VOMSValidationContext context) {
+
+    if (validationStages.isEmpty()
+        || validationStages.get(0) != VOMSACValidationStage.TIME_VALIDITY)
+      return null;
+
+    if (context == null)
+      context = newValidationContext();
 
-    boolean valid = true;
     List<VOMSValidationErrorMessage> validationErrors = new ArrayList<VOMSValidationErrorMessage>();
 
-    // Check temporal validity
-    valid = checkACValidity(attributes, validationErrors);
+    if (checkACValidity(attributes, context, validationErrors))
+      return null;
 
-    if (valid)
-      // Verify signature on AC checking LSC file or local AA certificate
-      valid = checkSignature(attributes, validationErrors);
+    return new VOMSValidationResult(attributes, false, validationErrors);
+  }
 
-    if (valid)
-      // Check AC holder
-      valid = checkACHolder(attributes, chain, validationErrors);
+  public VOMSValidationResult validateAC(VOMSAttribute attributes) {
 
-    if (valid)
-      // Check targets
-      valid = checkTargets(attributes, validationErrors);
+    return runStages(attributes, null, newValidationContext());
+  }
 
-    // AC extension checking to be compliant with rfc 3281
-    if (valid)
-      valid = checkAuthorityKeyIdentifierExtension(attributes, validationErrors);
+  public VOMSValidationResult validateAC(VOMSAttribute attributes, X509Certificate[] chain) {
 
-    if (valid)
-      valid = checkNoRevAvailExtension(attributes, validationErrors);
+    return validateAC(attributes, chain, newValidationContext());
+  }
 
-    if (valid)
-      valid = checkUnhandledCriticalExtensions(attributes, validationErrors);
+  /**
+   * @return the validation stages run by this strategy, in order
+   */
+  public List<VOMSACValidationStage> getValidationStages() {
 
-    return new VOMSValidationResult(attributes, valid, validationErrors);
+    return validationStages;
   }
 
   private boolean validateCertificate(X509Certificate c,
@@ -367,6 +615,48 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
     return validateCertificateChain(new X509Certificate[] {c}, validationErrors);
   }
 
+  /**
+   * Validates a local AA certificate, reusing the successful validation run by the trust store
+   * when the store validates its AA certificates with the validator of this strategy, as long as
+   * the certificates in the validated chain are valid at the time of the check.
+   */
+  private boolean validateLocalAACertificate(X509Certificate aaCert,
+      VOMSValidationContext context, List<VOMSValidationErrorMessage> validationErrors) {
+
+    VOMSTrustStore contextStore = context.getTrustStore();
+    long now = context.getNow();
+
+    if (contextStore instanceof DefaultVOMSTrustStore
+        && ((DefaultVOMSTrustStore) contextStore).getAACertificateValidator() == certChainValidator
+        && validAt(aaCert, now)) {
+
+      ValidationResult result =
+          ((DefaultVOMSTrustStore) contextStore).getAACertificateValidationResult(aaCert);
+
+      if (result != null && result.isValid() && validChainAt(result, now))
+        return true;
+    }
+
+    return validateCertificate(aaCert, validationErrors);
+  }
+
+  private static boolean validAt(X509Certificate c, long now) {
+
+    return now >= c.getNotBefore().getTime() && now <= c.getNotAfter().getTime();
+  }
+
+  private static boolean validChainAt(ValidationResult result, long now) {
+
+    if (result.getValidChain() != null) {
+      for (X509Certificate c : result.getValidChain()) {
+        if (!validAt(c, now))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
   private boolean validateCertificateChain(X509Certificate[] chain,
       List<VOMSValidationErrorMessage> validationErrors) {
 
@@ -378,15 +668,76 @@ public class DefaultVOMSValidationStrategy implements VOMSACValidationStrategy {
     return result.isValid();
   }
 
-  private boolean verifyACSignature(VOMSAttribute attributes, X509Certificate cert) {
+  /**
+   * Returns the signature verifier provider for an AA certificate. The provider of a local AA
+   * certificate is the one held by the trust store the certificate was looked up in.
+   */
+  private ContentVerifierProvider getVerifierProvider(X509Certificate cert, VOMSTrustStore store)
+      throws Exception {
 
-    try {
+    ContentVerifierProvider cvp = null;
 
+    if (store instanceof DefaultVOMSTrustStore) {
+      cvp = ((DefaultVOMSTrustStore) store).getAAVerifierProvider(cert);
+
+      if (cvp != null)
+        return cvp;
+    }
+
+    cvp = verifierProviders.get(cert);
+
+    if (cvp == null) {
       X509CertificateHolder certHolder = new JcaX509CertificateHolder(cert);
-      ContentVerifierProvider cvp =
-          new BcRSAContentVerifierProviderBuilder(new DefaultDigestAlgorithmIdentifierFinder())
-            .build(certHolder);
-      return attributes.getVOMSAC().isSignatureValid(cvp);
+      cvp = new BcRSAContentVerifierProviderBuilder(DIGEST_ALGORITHM_FINDER).build(certHolder);
+      verifierProviders.putIfAbsent(cert, cvp);
+    }
+
+    return cvp;
+  }
+
+  private static MessageDigest getACDigest() throws NoSuchAlgorithmException {
+
+    MessageDigest md = AC_DIGESTS.get();
+
+    if (md == null) {
+      md = MessageDigest.getInstance(AC_DIGEST_ALGORITHM);
+      AC_DIGESTS.set(md);
+    } else {
+      md.reset();
+    }
+
+    return md;
+  }
+
+  /**
+   * Builds the memo key for the verification of an AC signature with a given AA certificate. The
+   * key holds the AA public key and the digest of the whole encoded AC, which covers the signed
+   * portion, the signature algorithm and the signature value.
+   */
+  private Fingerprint getSignatureVerificationKey(VOMSAttribute attributes, X509Certificate cert)
+      throws Exception {
+
+    byte[] acDigest = getACDigest().digest(attributes.getVOMSAC().getEncoded());
+
+    return new Fingerprint(acDigest).append(new Fingerprint(cert.getPublicKey().getEncoded()));
+  }
+
+  private boolean verifyACSignature(VOMSAttribute attributes, X509Certificate cert,
+      VOMSTrustStore store) {
+
+    try {
+
+      Fingerprint key = getSignatureVerificationKey(attributes, cert);
+      Boolean memoizedOutcome = signatureVerifications.get(key);
+
+      if (memoizedOutcome != null)
+        return memoizedOutcome;
+
+      ContentVerifierProvider cvp = getVerifierProvider(cert, store);
+      boolean signatureValid = attributes.getVOMSAC().isSignatureValid(cvp);
+
+      signatureVerifications.put(key, signatureValid);
+      return signatureValid;
 
     } catch (Exception e) {
       throw new VOMSError("Error verifying AC signature: " + e.getMessage(), e);
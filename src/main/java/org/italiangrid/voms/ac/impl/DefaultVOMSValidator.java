@@ -5,11 +5,28 @@
 package org.italiangrid.voms.ac.impl;
 
 import java.security.cert.X509Certificate;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.bouncycastle.asn1.x509.AttributeCertificate;
 import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
 import org.italiangrid.voms.ac.VOMSACLookupStrategy;
 import org.italiangrid.voms.ac.VOMSACValidationStrategy;
 import org.italiangrid.voms.ac.VOMSACValidator;
@@ -19,14 +36,25 @@ import org.italiangrid.voms.asn1.VOMSACUtils;
 import org.italiangrid.voms.store.UpdatingVOMSTrustStore;
 import org.italiangrid.voms.store.VOMSTrustStore;
 import org.italiangrid.voms.store.VOMSTrustStores;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.store.impl.VOMSNamedThreadFactory;
 import org.italiangrid.voms.util.CertificateValidatorBuilder;
+import org.italiangrid.voms.util.Fingerprint;
+import org.italiangrid.voms.util.FingerprintHelper;
 import org.italiangrid.voms.util.NullListener;
+import org.italiangrid.voms.util.StoreUpdateChangeDetector;
+import org.italiangrid.voms.util.StringPool;
 
+import eu.emi.security.authn.x509.StoreUpdateListener;
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 
 /**
  * The default implementation of the VOMS validator.
  * 
+ * Validators must be released with {@link #shutdown()} when no longer needed:
+ * this stops the thread pool created by the first asynchronous validation (if
+ * any) and unregisters the validator from the trust stores it listens to.
+ * 
  * @author andreaceccanti
  *
  */
@@ -35,11 +63,62 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
 
   public static final String DEFAULT_TRUST_ANCHORS_DIR = "/etc/grid-security/certificates";
 
+  /**
+   * The default number of threads used for asynchronous validation
+   */
+  public static final int DEFAULT_ASYNC_VALIDATION_THREADS = Runtime
+    .getRuntime().availableProcessors();
+
+  /**
+   * The default maximum number of asynchronous validations waiting for a
+   * thread
+   */
+  public static final int DEFAULT_ASYNC_VALIDATION_QUEUE_CAPACITY = 1000;
+
+  /**
+   * How long idle asynchronous validation threads are kept around, in seconds
+   */
+  private static final long ASYNC_VALIDATION_THREAD_KEEPALIVE = 60;
+
   private final VOMSACValidationStrategy validationStrategy;
   private final VOMSTrustStore trustStore;
   private ValidationResultListener validationResultListener;
   private final Object listenerLock = new Object();
 
+  private final X509CertChainValidatorExt certChainValidator;
+
+  /**
+   * Whether this validator set the certificate chain validator as the AA
+   * certificate validator of the trust store
+   */
+  private final boolean ownsAACertificateValidator;
+
+  private final VOMSValidationResultCache validationResultCache;
+  private final StoreUpdateListener certChainValidatorUpdateListener;
+
+  /**
+   * The executor set on the builder, or <code>null</code> if the validator
+   * owns the thread pool that runs asynchronous validations
+   */
+  private final Executor asyncExecutor;
+
+  private final int asyncValidationThreads;
+  private final int asyncValidationQueueCapacity;
+
+  /**
+   * The thread pool owned by this validator, created by the first asynchronous
+   * validation
+   */
+  private ExecutorService ownedAsyncExecutor;
+  private boolean shutdown;
+  private final Object asyncExecutorLock = new Object();
+
+  /**
+   * Whether ACs out of their validity period are rejected before being fully
+   * decoded
+   */
+  private final boolean precheckACValidity;
+
   public static class Builder {
 
     private VOMSACValidationStrategy validationStrategy;
@@ -48,6 +127,18 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
 
     private X509CertChainValidatorExt certChainValidator;
     private VOMSACLookupStrategy acLookupStrategy;
+    private boolean defaultACLookupStrategy;
+
+    private long validationResultCacheLifetime;
+    private int validationResultCacheSize;
+
+    private Clock clock;
+
+    private StringPool stringPool;
+
+    private Executor asyncExecutor;
+    private int asyncValidationThreads = DEFAULT_ASYNC_VALIDATION_THREADS;
+    private int asyncValidationQueueCapacity = DEFAULT_ASYNC_VALIDATION_QUEUE_CAPACITY;
 
     public Builder() {
 
@@ -83,8 +174,109 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
       return this;
     }
 
+    /**
+     * Enables caching of successful AC validation results. Cached results are
+     * dropped when the AC expires, when the given lifetime elapses, and when
+     * the trust store or the certificate chain validator set on this builder
+     * reload changed trust information. The AC time validity and holder checks
+     * are run on every validation.
+     * 
+     * @param lifetimeMsec
+     *          the maximum lifetime of a cached result, in milliseconds
+     * @param maxEntries
+     *          the maximum number of cached results
+     * @return this builder
+     */
+    public Builder validationResultCache(long lifetimeMsec, int maxEntries) {
+
+      this.validationResultCacheLifetime = lifetimeMsec;
+      this.validationResultCacheSize = maxEntries;
+      return this;
+    }
+
+    /**
+     * Sets the clock used to check the time validity of ACs. A fixed clock
+     * can be used to validate ACs as of a given time, and a clock that caches
+     * the current time can be used to save on system time lookups. When a
+     * validation strategy is set on this builder, the clock is only used by
+     * the validation result cache.
+     * 
+     * @param c
+     *          the clock
+     * @return this builder
+     */
+    public Builder clock(Clock c) {
+
+      this.clock = c;
+      return this;
+    }
+
+    /**
+     * Sets the pool used to canonicalize the VO names, AA hostnames and FQANs
+     * decoded from ACs, so that ACs parsed at different times share the same
+     * string instances. Strings are not pooled by default.
+     * 
+     * @param pool
+     *          the string pool
+     * @return this builder
+     */
+    public Builder stringPool(StringPool pool) {
+
+      this.stringPool = pool;
+      return this;
+    }
+
+    /**
+     * Sets the executor that runs asynchronous validations. The executor
+     * queueing and rejection policies apply, and the executor is not shut down
+     * by the validator.
+     * 
+     * @param e
+     *          the executor
+     * @return this builder
+     */
+    public Builder asyncExecutor(Executor e) {
+
+      this.asyncExecutor = e;
+      return this;
+    }
+
+    /**
+     * Configures the thread pool that runs asynchronous validations when no
+     * executor is set with {@link #asyncExecutor(Executor)}. Validations
+     * submitted when all threads are busy and the queue is full are rejected,
+     * i.e. the future returned to the caller fails with a
+     * {@link RejectedExecutionException}.
+     * 
+     * The thread pool is created by the first asynchronous validation, and is
+     * stopped by {@link DefaultVOMSValidator#shutdown()}.
+     * 
+     * @param threads
+     *          the number of validation threads
+     * @param queueCapacity
+     *          the maximum number of validations waiting for a thread
+     * @return this builder
+     */
+    public Builder asyncValidation(int threads, int queueCapacity) {
+
+      if (threads <= 0)
+        throw new IllegalArgumentException(
+          "Please provide a positive number of threads.");
+
+      if (queueCapacity <= 0)
+        throw new IllegalArgumentException(
+          "Please provide a positive queue capacity.");
+
+      this.asyncValidationThreads = threads;
+      this.asyncValidationQueueCapacity = queueCapacity;
+      return this;
+    }
+
     private void sanityChecks() {
 
+      if (clock == null)
+        clock = Clock.systemUTC();
+
       if (validationStrategy == null) {
         if (trustStore == null)
           trustStore = VOMSTrustStores.newTrustStore();
@@ -94,7 +286,8 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
             .trustAnchorsDir(DEFAULT_TRUST_ANCHORS_DIR).build();
 
         validationStrategy = new DefaultVOMSValidationStrategy(trustStore,
-          certChainValidator);
+          certChainValidator, new CachingLocalHostnameResolver(),
+          DefaultVOMSValidationStrategy.DEFAULT_VALIDATION_STAGES, clock);
       }
 
       if (validationResultListener == null) {
@@ -106,6 +299,7 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
       if (acLookupStrategy == null){
         
         acLookupStrategy = new LeafACLookupStrategy();
+        defaultACLookupStrategy = true;
       
       }
         
@@ -120,11 +314,117 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
 
   private DefaultVOMSValidator(Builder b) {
 
-    super(b.acLookupStrategy);
+    super(b.acLookupStrategy, b.stringPool);
 
     this.validationStrategy = b.validationStrategy;
     this.trustStore = b.trustStore;
     this.validationResultListener = b.validationResultListener;
+    this.certChainValidator = b.certChainValidator;
+
+    // The pre-check walks the chain like the default lookup strategy does, and
+    // rejects ACs like the default validation strategy does
+    this.precheckACValidity = b.defaultACLookupStrategy
+      && (validationStrategy instanceof DefaultVOMSValidationStrategy);
+
+    // Lets the trust store validate the local AA certificates, so that the
+    // default strategy reuses the results instead of validating them on each
+    // AC. A store shared by several validators keeps the first validator set.
+    boolean aaCertificateValidatorSet = false;
+
+    if (certChainValidator != null
+      && validationStrategy instanceof DefaultVOMSValidationStrategy
+      && trustStore instanceof DefaultVOMSTrustStore) {
+
+      DefaultVOMSTrustStore store = (DefaultVOMSTrustStore) trustStore;
+
+      if (store.getAACertificateValidator() == null) {
+        store.setAACertificateValidator(certChainValidator);
+        aaCertificateValidatorSet = true;
+      }
+    }
+
+    this.ownsAACertificateValidator = aaCertificateValidatorSet;
+
+    if (b.validationResultCacheSize > 0) {
+
+      validationResultCache = new VOMSValidationResultCache(
+        b.validationResultCacheLifetime, b.validationResultCacheSize, b.clock);
+
+      if (trustStore instanceof DefaultVOMSTrustStore) {
+        ((DefaultVOMSTrustStore) trustStore)
+          .addUpdateListener(validationResultCache);
+      }
+
+      certChainValidatorUpdateListener = new StoreUpdateListener() {
+
+        private final StoreUpdateChangeDetector changeDetector = new StoreUpdateChangeDetector();
+
+        public void loadingNotification(String location, String type,
+          Severity level, Exception cause) {
+
+          if (changeDetector.isChange(location, type, level)) {
+            validationResultCache.clear();
+          }
+        }
+      };
+
+      if (certChainValidator != null) {
+        certChainValidator.addUpdateListener(certChainValidatorUpdateListener);
+      }
+
+    } else {
+      validationResultCache = null;
+      certChainValidatorUpdateListener = null;
+    }
+
+    this.asyncExecutor = b.asyncExecutor;
+    this.asyncValidationThreads = b.asyncValidationThreads;
+    this.asyncValidationQueueCapacity = b.asyncValidationQueueCapacity;
+  }
+
+  private Executor getAsyncExecutor() {
+
+    if (asyncExecutor != null)
+      return asyncExecutor;
+
+    synchronized (asyncExecutorLock) {
+
+      if (shutdown)
+        throw new RejectedExecutionException("The validator has been shut down.");
+
+      if (ownedAsyncExecutor == null) {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          asyncValidationThreads, asyncValidationThreads,
+          ASYNC_VALIDATION_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(asyncValidationQueueCapacity),
+          newAsyncValidationThreadFactory(),
+          new ThreadPoolExecutor.AbortPolicy());
+
+        // No threads are kept around by validators that are idle
+        executor.allowCoreThreadTimeOut(true);
+
+        ownedAsyncExecutor = executor;
+      }
+
+      return ownedAsyncExecutor;
+    }
+  }
+
+  private static ThreadFactory newAsyncValidationThreadFactory() {
+
+    final ThreadFactory factory = new VOMSNamedThreadFactory(
+      NullListener.INSTANCE);
+
+    return new ThreadFactory() {
+
+      public Thread newThread(Runnable r) {
+
+        Thread t = factory.newThread(r);
+        t.setDaemon(true);
+        return t;
+      }
+    };
   }
 
   public List<VOMSValidationResult> validateWithResult(
@@ -136,13 +436,74 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
   protected List<VOMSValidationResult> internalValidate(
     X509Certificate[] validatedChain) {
 
-    List<VOMSAttribute> parsedAttrs = parse(validatedChain);
+    return internalValidate(validatedChain, null);
+  }
+
+  private VOMSValidationResult validateAC(VOMSAttribute attributes,
+    X509Certificate[] validatedChain, VOMSValidationContext context) {
+
+    if (context != null)
+      return ((DefaultVOMSValidationStrategy) validationStrategy).validateAC(
+        attributes, validatedChain, context);
+
+    return validationStrategy.validateAC(attributes, validatedChain);
+  }
+
+  /**
+   * Validates the ACs found in a certificate chain.
+   * 
+   * @param validatedChain
+   *          the certificate chain
+   * @param context
+   *          the validation context, or <code>null</code> if the validation
+   *          strategy is not a {@link DefaultVOMSValidationStrategy}
+   * @return the validation results
+   */
+  private List<VOMSValidationResult> internalValidate(
+    X509Certificate[] validatedChain, VOMSValidationContext context) {
+
+    List<VOMSAttribute> parsedAttrs = null;
+
+    if (precheckACValidity) {
+
+      List<VOMSAttribute> lazyAttrs = lookupLazyAttributes(validatedChain);
+
+      if (lazyAttrs != null) {
+
+        List<VOMSValidationResult> rejections = rejectACsOutOfValidity(
+          lazyAttrs, context);
+
+        if (rejections != null)
+          return rejections;
+
+        parsedAttrs = new ArrayList<VOMSAttribute>(lazyAttrs.size());
+
+        for (VOMSAttribute a : lazyAttrs)
+          parsedAttrs.add(VOMSACUtils.decodeLazyVOMSAttributes(a));
+      }
+    }
+
+    if (parsedAttrs == null)
+      parsedAttrs = parse(validatedChain);
     List<VOMSValidationResult> results = new ArrayList<VOMSValidationResult>();
 
     for (VOMSAttribute a : parsedAttrs) {
 
-      VOMSValidationResult result = validationStrategy.validateAC(a,
-        validatedChain);
+      VOMSValidationResult result = null;
+
+      if (validationResultCache != null) {
+        result = validationResultCache.getValidationResult(a, validatedChain);
+      }
+
+      if (result == null) {
+
+        result = validateAC(a, validatedChain, context);
+
+        if (validationResultCache != null) {
+          validationResultCache.cacheValidationResult(a, validatedChain,
+            result);
+        }
+      }
 
       synchronized (listenerLock) {
         validationResultListener.notifyValidationResult(result);
@@ -155,6 +516,249 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
     return results;
   }
 
+  /**
+   * Looks up the ACs in the leaf-most proxy carrying VOMS ACs, like the default
+   * lookup strategy does, decoding only their validity period.
+   * 
+   * @param validatedChain
+   *          the certificate chain
+   * @return the possibly empty list of lazily decoded attributes, or
+   *         <code>null</code> if the chain needs to be parsed in full, e.g. to
+   *         report errors
+   */
+  private List<VOMSAttribute> lookupLazyAttributes(
+    X509Certificate[] validatedChain) {
+
+    if (validatedChain == null || validatedChain.length == 0)
+      return null;
+
+    List<VOMSAttribute> attributes;
+
+    try {
+
+      attributes = LeafACLookupStrategy.lookupLeafVOMSExtension(
+        validatedChain, NullListener.INSTANCE,
+        new LeafACLookupStrategy.VOMSExtensionVisitor<List<VOMSAttribute>>() {
+
+          public List<VOMSAttribute> visit(X509Certificate[] chain, int index,
+            byte[] vomsExtension) {
+
+            List<VOMSAttribute> extensionAttributes = VOMSACUtils
+              .getLazyVOMSAttributesFromVOMSExtension(vomsExtension,
+                getStringPool());
+
+            return extensionAttributes.isEmpty() ? null : extensionAttributes;
+          }
+        });
+
+    } catch (VOMSError e) {
+      // Malformed ACs are reported by the full parsing
+      return null;
+    }
+
+    if (attributes == null)
+      return Collections.emptyList();
+
+    return attributes;
+  }
+
+  /**
+   * Rejects the ACs found in the leaf-most proxy carrying VOMS ACs, when all of
+   * them are out of their validity period.
+   * 
+   * @param attributes
+   *          the lazily decoded attributes of the ACs
+   * @param context
+   *          the validation context, or <code>null</code>
+   * @return the failed validation results, or <code>null</code> if the ACs
+   *         need a full validation
+   */
+  private List<VOMSValidationResult> rejectACsOutOfValidity(
+    List<VOMSAttribute> attributes, VOMSValidationContext context) {
+
+    if (attributes.isEmpty())
+      return null;
+
+    DefaultVOMSValidationStrategy strategy = (DefaultVOMSValidationStrategy) validationStrategy;
+
+    List<VOMSValidationResult> results = new ArrayList<VOMSValidationResult>();
+
+    for (VOMSAttribute a : attributes) {
+
+      VOMSValidationResult result = strategy.precheckACValidity(a, context);
+
+      if (result == null)
+        return null;
+
+      results.add(result);
+    }
+
+    synchronized (listenerLock) {
+      for (VOMSValidationResult result : results)
+        validationResultListener.notifyValidationResult(result);
+    }
+
+    return results;
+  }
+
+  public CompletableFuture<List<VOMSValidationResult>> validateWithResultAsync(
+    final X509Certificate[] validatedChain) {
+
+    try {
+
+      return CompletableFuture.supplyAsync(
+        new Supplier<List<VOMSValidationResult>>() {
+
+          public List<VOMSValidationResult> get() {
+
+            return internalValidate(validatedChain);
+          }
+        }, getAsyncExecutor());
+
+    } catch (RejectedExecutionException e) {
+
+      CompletableFuture<List<VOMSValidationResult>> rejected = new CompletableFuture<List<VOMSValidationResult>>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * When the validation strategy is a {@link DefaultVOMSValidationStrategy},
+   * all the ACs in the batch are checked at the same time, the local hostname
+   * is resolved at most once and trust information is looked up in a snapshot
+   * of the trust store taken when the batch starts.
+   */
+  public List<List<VOMSValidationResult>> validateAllWithResult(
+    List<X509Certificate[]> validatedChains, ExecutorService executor) {
+
+    if (validatedChains == null)
+      throw new IllegalArgumentException(
+        "Please provide a non-null list of certificate chains.");
+
+    if (executor == null)
+      throw new IllegalArgumentException("Please provide a non-null executor.");
+
+    final VOMSValidationContext context;
+
+    if (validationStrategy instanceof DefaultVOMSValidationStrategy)
+      context = ((DefaultVOMSValidationStrategy) validationStrategy)
+        .newBatchValidationContext();
+    else
+      context = null;
+
+    // Identical chains are validated once
+    Map<Fingerprint, Integer> validationIndexes = new HashMap<Fingerprint, Integer>();
+    List<Callable<List<VOMSValidationResult>>> validations = new ArrayList<Callable<List<VOMSValidationResult>>>();
+
+    int[] chainValidations = new int[validatedChains.size()];
+    boolean[] duplicateChains = new boolean[validatedChains.size()];
+
+    for (int i = 0; i < validatedChains.size(); i++) {
+
+      final X509Certificate[] chain = validatedChains.get(i);
+      Fingerprint chainKey = getChainKey(chain);
+      Integer validationIndex = validationIndexes.get(chainKey);
+
+      if (validationIndex == null) {
+
+        validationIndex = validations.size();
+        validationIndexes.put(chainKey, validationIndex);
+
+        validations.add(new Callable<List<VOMSValidationResult>>() {
+
+          public List<VOMSValidationResult> call() {
+
+            return internalValidate(chain, context);
+          }
+        });
+
+      } else {
+        duplicateChains[i] = true;
+      }
+
+      chainValidations[i] = validationIndex;
+    }
+
+    List<Future<List<VOMSValidationResult>>> futures;
+
+    try {
+
+      futures = executor.invokeAll(validations);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VOMSError("Interrupted while validating certificate chains.",
+        e);
+    }
+
+    List<List<VOMSValidationResult>> results = new ArrayList<List<VOMSValidationResult>>();
+
+    for (int i = 0; i < validatedChains.size(); i++) {
+
+      List<VOMSValidationResult> chainResults = getValidationResults(futures
+        .get(chainValidations[i]));
+
+      if (duplicateChains[i]) {
+
+        synchronized (listenerLock) {
+          for (VOMSValidationResult r : chainResults)
+            validationResultListener.notifyValidationResult(r);
+        }
+
+        chainResults = new ArrayList<VOMSValidationResult>(chainResults);
+      }
+
+      results.add(chainResults);
+    }
+
+    return results;
+  }
+
+  private Fingerprint getChainKey(X509Certificate[] chain) {
+
+    try {
+
+      Fingerprint key = new Fingerprint(new byte[0]);
+
+      for (X509Certificate c : chain)
+        key = key.append(FingerprintHelper.getCertificateFingerprint(c));
+
+      return key;
+
+    } catch (Exception e) {
+      throw new VOMSError("Error computing certificate chain fingerprint: "
+        + e.getMessage(), e);
+    }
+  }
+
+  private static List<VOMSValidationResult> getValidationResults(
+    Future<List<VOMSValidationResult>> future) {
+
+    try {
+
+      return future.get();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new VOMSError("Interrupted while validating certificate chains.",
+        e);
+
+    } catch (ExecutionException e) {
+
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+
+      throw new VOMSError("Error validating certificate chain: "
+        + e.getCause().getMessage(), e.getCause());
+    }
+  }
+
   public List<VOMSAttribute> validate(X509Certificate[] validatedChain) {
 
     List<VOMSAttribute> validAttributes = new ArrayList<VOMSAttribute>();
@@ -171,6 +775,33 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
 
   public void shutdown() {
 
+    synchronized (asyncExecutorLock) {
+
+      shutdown = true;
+
+      if (ownedAsyncExecutor != null) {
+        ownedAsyncExecutor.shutdown();
+      }
+    }
+
+    if (validationResultCache != null) {
+
+      if (trustStore instanceof DefaultVOMSTrustStore) {
+        ((DefaultVOMSTrustStore) trustStore)
+          .removeUpdateListener(validationResultCache);
+      }
+
+      if (certChainValidator != null) {
+        certChainValidator
+          .removeUpdateListener(certChainValidatorUpdateListener);
+      }
+    }
+
+    if (ownsAACertificateValidator) {
+      ((DefaultVOMSTrustStore) trustStore)
+        .removeAACertificateValidator(certChainValidator);
+    }
+
     if (trustStore instanceof UpdatingVOMSTrustStore) {
       ((UpdatingVOMSTrustStore) trustStore).cancel();
     }
@@ -182,7 +813,8 @@ public class DefaultVOMSValidator extends DefaultVOMSACParser implements
 
     for (AttributeCertificate ac : acs) {
 
-      VOMSAttribute vomsAttrs = VOMSACUtils.deserializeVOMSAttributes(ac);
+      VOMSAttribute vomsAttrs = VOMSACUtils.deserializeVOMSAttributes(ac,
+        getStringPool());
 
       VOMSValidationResult result = validationStrategy.validateAC(vomsAttrs);
 
@@ -43,10 +43,45 @@ public class LeafACLookupStrategy implements VOMSACLookupStrategy,
     this(NullListener.INSTANCE);
   }
 
-  public List<ACParsingContext> lookupVOMSAttributeCertificates(
-    X509Certificate[] certChain) {
+  /**
+   * Receives the VOMS extensions found while looking up the leaf VOMS ACs in a
+   * certificate chain.
+   *
+   * @param <T>
+   *          the type of the lookup result
+   */
+  interface VOMSExtensionVisitor<T> {
+
+    /**
+     * Visits the VOMS extension of a proxy certificate.
+     *
+     * @param certChain
+     *          the certificate chain
+     * @param index
+     *          the position of the proxy in the chain
+     * @param vomsExtension
+     *          the VOMS extension of the proxy
+     * @return the lookup result, or <code>null</code> if no ACs are found in
+     *         the extension
+     */
+    T visit(X509Certificate[] certChain, int index, byte[] vomsExtension);
+  }
 
-    List<ACParsingContext> parsedACs = new ArrayList<ACParsingContext>();
+  /**
+   * Walks a certificate chain from the top, visiting the VOMS extensions found
+   * in proxy certificates until one of them holds ACs.
+   *
+   * @param certChain
+   *          the certificate chain
+   * @param listener
+   *          the listener notified of the lookup events
+   * @param visitor
+   *          the visitor of the VOMS extensions
+   * @return the result of the first visit that found ACs, or <code>null</code>
+   *         if no ACs are found in the chain
+   */
+  static <T> T lookupLeafVOMSExtension(X509Certificate[] certChain,
+    ACLookupListener listener, VOMSExtensionVisitor<T> visitor) {
 
     if (certChain == null || certChain.length == 0)
       throw new VOMSError(
@@ -58,29 +93,54 @@ public class LeafACLookupStrategy implements VOMSACLookupStrategy,
 
       listener.notifyACLookupEvent(certChain, index);
 
-      try {
+      if (!ProxyUtils.isProxy(cert))
+        continue;
+
+      byte[] vomsExtension = VOMSACUtils.getVOMSExtensionFromCertificate(cert);
 
-        if (ProxyUtils.isProxy(cert)) {
+      if (vomsExtension == null)
+        continue;
 
-          List<AttributeCertificate> vomsACs = VOMSACUtils
-            .getACsFromCertificate(cert);
+      T result = visitor.visit(certChain, index, vomsExtension);
 
-          // Break at the first AC found from the top of the chain
-          if (!vomsACs.isEmpty()) {
+      // Break at the first AC found from the top of the chain
+      if (result != null)
+        return result;
+    }
+
+    return null;
+  }
 
-            listener.notifyACParseEvent(certChain, index);
+  public List<ACParsingContext> lookupVOMSAttributeCertificates(
+    X509Certificate[] certChain) {
 
-            ACParsingContext ctx = new ACParsingContext(vomsACs, index,
-              certChain);
-            parsedACs.add(ctx);
-            break;
+    List<ACParsingContext> parsedACs = new ArrayList<ACParsingContext>();
+
+    ACParsingContext ctx = lookupLeafVOMSExtension(certChain, listener,
+      new VOMSExtensionVisitor<ACParsingContext>() {
+
+        public ACParsingContext visit(X509Certificate[] chain, int index,
+          byte[] vomsExtension) {
+
+          List<AttributeCertificate> vomsACs;
+
+          try {
+            vomsACs = VOMSACUtils.getACsFromVOMSExtension(vomsExtension);
+          } catch (IOException e) {
+            throw new VOMSError(e.getMessage(), e);
           }
+
+          if (vomsACs.isEmpty())
+            return null;
+
+          listener.notifyACParseEvent(chain, index);
+
+          return new ACParsingContext(vomsACs, index, chain);
         }
+      });
 
-      } catch (IOException e) {
-        throw new VOMSError(e.getMessage(), e);
-      }
-    }
+    if (ctx != null)
+      parsedACs.add(ctx);
 
     return parsedACs;
   }
@@ -13,6 +13,7 @@ import org.italiangrid.voms.ac.ACParsingContext;
 import org.italiangrid.voms.ac.VOMSAttributesNormalizationStrategy;
 import org.italiangrid.voms.asn1.VOMSACUtils;
 import org.italiangrid.voms.asn1.VOMSConstants;
+import org.italiangrid.voms.util.StringPool;
 
 /**
  * 
@@ -25,6 +26,28 @@ import org.italiangrid.voms.asn1.VOMSConstants;
 public class LeafVOMSExtensionNormalizationStrategy implements
   VOMSAttributesNormalizationStrategy, VOMSConstants {
 
+  private final StringPool stringPool;
+
+  /**
+   * Builds a strategy that does not pool the decoded strings.
+   */
+  public LeafVOMSExtensionNormalizationStrategy() {
+
+    this(null);
+  }
+
+  /**
+   * Builds a strategy that canonicalizes the VO names, AA hostnames and FQANs
+   * decoded from the ACs with the given pool.
+   * 
+   * @param stringPool
+   *          the string pool, or <code>null</code> if strings are not pooled
+   */
+  public LeafVOMSExtensionNormalizationStrategy(StringPool stringPool) {
+
+    this.stringPool = stringPool;
+  }
+
   public List<VOMSAttribute> normalizeAttributes(List<ACParsingContext> acs) {
 
     if (acs == null || acs.isEmpty())
@@ -32,7 +55,7 @@ public class LeafVOMSExtensionNormalizationStrategy implements
 
     List<AttributeCertificate> attrs = acs.get(0).getACs();
 
-    return VOMSACUtils.deserializeVOMSAttributes(attrs);
+    return VOMSACUtils.deserializeVOMSAttributes(attrs, stringPool);
 
   }
 
@@ -0,0 +1,220 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.cert.X509AttributeCertificateHolder;
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSGenericAttribute;
+import org.italiangrid.voms.util.TimeUtils;
+
+/**
+ * An unmodifiable copy of VOMS attributes, which can be safely shared among
+ * callers. Setters throw an {@link UnsupportedOperationException}, lists are
+ * unmodifiable, and mutable values are copied on every access.
+ *
+ */
+final class UnmodifiableVOMSAttributes extends VOMSAttributesImpl {
+
+  private final Date notBefore;
+
+  private final Date notAfter;
+
+  /**
+   * Builds an unmodifiable copy of VOMS attributes.
+   *
+   * @param attributes
+   *          the attributes to copy
+   */
+  UnmodifiableVOMSAttributes(VOMSAttribute attributes) {
+
+    super.setVO(attributes.getVO());
+    super.setHost(attributes.getHost());
+    super.setPort(attributes.getPort());
+    super.setFQANs(unmodifiableCopy(attributes.getFQANs()));
+    super.setIssuer(attributes.getIssuer());
+    super.setHolder(attributes.getHolder());
+    super.setHolderSerialNumber(attributes.getHolderSerialNumber());
+    notBefore = copy(attributes.getNotBefore());
+    notAfter = copy(attributes.getNotAfter());
+
+    super.setNotBefore(notBefore);
+    super.setNotAfter(notAfter);
+    super.setSignature(attributes.getSignature());
+    super.setGenericAttributes(unmodifiableCopy(attributes
+      .getGenericAttributes()));
+    super.setTargets(unmodifiableCopy(attributes.getTargets()));
+    super.setAACertificates(attributes.getAACertificates());
+    super.setVOMSAC(attributes.getVOMSAC());
+  }
+
+  private static Date copy(Date date) {
+
+    return date == null ? null : new Date(date.getTime());
+  }
+
+  private static <T> List<T> unmodifiableCopy(List<T> list) {
+
+    if (list == null)
+      return null;
+
+    return Collections.unmodifiableList(new ArrayList<T>(list));
+  }
+
+  private static UnsupportedOperationException unmodifiable() {
+
+    return new UnsupportedOperationException(
+      "Cached VOMS attributes cannot be modified.");
+  }
+
+  @Override
+  public Date getNotBefore() {
+
+    return copy(notBefore);
+  }
+
+  @Override
+  public Date getNotAfter() {
+
+    return copy(notAfter);
+  }
+
+  @Override
+  public boolean validAt(long timeMillis) {
+
+    return TimeUtils.checkTimeInRangeWithSkew(timeMillis, notBefore.getTime(),
+      notAfter.getTime(), DEFAULT_CLOCK_SKEW_IN_MINUTES);
+  }
+
+  @Override
+  public byte[] getSignature() {
+
+    byte[] signature = super.getSignature();
+    return signature == null ? null : signature.clone();
+  }
+
+  @Override
+  public X509Certificate[] getAACertificates() {
+
+    X509Certificate[] aaCerts = super.getAACertificates();
+    return aaCerts == null ? null : aaCerts.clone();
+  }
+
+  @Override
+  public List<VOMSGenericAttribute> getGenericAttributes() {
+
+    List<VOMSGenericAttribute> gas = super.getGenericAttributes();
+
+    if (gas == null)
+      return null;
+
+    // Generic attributes are mutable, so each caller gets its own copies
+    List<VOMSGenericAttribute> copies = new ArrayList<VOMSGenericAttribute>(
+      gas.size());
+
+    for (VOMSGenericAttribute ga : gas) {
+
+      VOMSGenericAttributeImpl copy = new VOMSGenericAttributeImpl();
+      copy.setName(ga.getName());
+      copy.setValue(ga.getValue());
+      copy.setContext(ga.getContext());
+      copies.add(copy);
+    }
+
+    return Collections.unmodifiableList(copies);
+  }
+
+  @Override
+  public void setIssuer(X500Principal issuer) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setVO(String vO) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setFQANs(List<String> fQANs) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setHost(String host) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setPort(int port) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setHolder(X500Principal holder) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setNotAfter(Date notAfter) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setNotBefore(Date notBefore) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setSignature(byte[] signature) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setGenericAttributes(List<VOMSGenericAttribute> genericAttributes) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setTargets(List<String> targets) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setAACertificates(X509Certificate[] aaCerts) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setVOMSAC(X509AttributeCertificateHolder ac) {
+
+    throw unmodifiable();
+  }
+
+  @Override
+  public void setHolderSerialNumber(BigInteger holderSerialNumber) {
+
+    throw unmodifiable();
+  }
+}
@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+/**
+ * The checks run by the {@link DefaultVOMSValidationStrategy} on a VOMS AC.
+ * The strategy runs the stages in the configured order and stops at the first
+ * failing one.
+ *
+ */
+public enum VOMSACValidationStage {
+
+  /**
+   * Checks that the AC is valid at the current time
+   */
+  TIME_VALIDITY,
+
+  /**
+   * Checks that the AC holder matches the certificate chain the AC was
+   * extracted from. This stage is skipped when no certificate chain is
+   * available.
+   */
+  HOLDER,
+
+  /**
+   * Checks that the AuthorityKeyIdentifier AC extension is not critical
+   */
+  AUTHORITY_KEY_IDENTIFIER_EXTENSION,
+
+  /**
+   * Checks that the NoRevAvail AC extension is not critical
+   */
+  NO_REV_AVAIL_EXTENSION,
+
+  /**
+   * Checks that the AC does not carry unhandled critical extensions
+   */
+  UNHANDLED_CRITICAL_EXTENSIONS,
+
+  /**
+   * Checks that the local host is among the AC targets, if any
+   */
+  TARGETS,
+
+  /**
+   * Verifies the AC signature against the LSC information or the local AA
+   * certificate, validating the AA certificate chain
+   */
+  SIGNATURE
+
+}
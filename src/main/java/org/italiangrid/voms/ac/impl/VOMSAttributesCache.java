@@ -0,0 +1,183 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.util.ClockCache;
+import org.italiangrid.voms.util.Fingerprint;
+
+/**
+ * A bounded cache of parsed VOMS attributes.
+ *
+ * Entries are keyed by the digest of the VOMS extension the attributes were
+ * parsed from, and hold an unmodifiable list of unmodifiable attributes that is
+ * shared by all the lookups for the same extension. An entry lives until the
+ * first of its ACs expires, or until it is evicted to make room for more
+ * recently used entries.
+ *
+ */
+class VOMSAttributesCache {
+
+  /** The digest algorithm used to build cache keys **/
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  /** The per-thread message digests used to build cache keys **/
+  private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>();
+
+  private final ClockCache<Fingerprint, CachedEntry> cache;
+
+  private final Clock clock;
+
+  /**
+   * Builds a cache.
+   *
+   * @param maxEntries
+   *          the maximum number of entries held in the cache
+   * @param clock
+   *          the clock used to expire entries
+   */
+  VOMSAttributesCache(int maxEntries, Clock clock) {
+
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException(
+        "Please provide a positive maximum number of cache entries.");
+
+    if (clock == null)
+      throw new IllegalArgumentException("Please provide a non-null clock.");
+
+    this.cache = new ClockCache<Fingerprint, CachedEntry>(maxEntries);
+    this.clock = clock;
+  }
+
+  private static MessageDigest getDigest() {
+
+    MessageDigest md = DIGESTS.get();
+
+    if (md == null) {
+
+      try {
+        md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new VOMSError(e.getMessage(), e);
+      }
+
+      DIGESTS.set(md);
+
+    } else {
+      md.reset();
+    }
+
+    return md;
+  }
+
+  /**
+   * Builds the cache key for a VOMS extension.
+   *
+   * @param vomsExtension
+   *          the DER encoded VOMS extension
+   * @return the cache key
+   */
+  Fingerprint getKey(byte[] vomsExtension) {
+
+    return new Fingerprint(getDigest().digest(vomsExtension));
+  }
+
+  /**
+   * Looks up the attributes parsed from a VOMS extension.
+   *
+   * @param key
+   *          the key of the VOMS extension
+   * @return the cached attributes, or <code>null</code> if the extension needs
+   *         to be parsed
+   */
+  List<VOMSAttribute> getAttributes(Fingerprint key) {
+
+    CachedEntry entry = cache.get(key);
+
+    if (entry == null)
+      return null;
+
+    if (entry.hasExpired(clock.millis())) {
+      cache.remove(key, entry);
+      return null;
+    }
+
+    return entry.getAttributes();
+  }
+
+  /**
+   * Caches the attributes parsed from a VOMS extension.
+   *
+   * @param key
+   *          the key of the VOMS extension
+   * @param attributes
+   *          the parsed attributes
+   * @return an unmodifiable list holding unmodifiable copies of the
+   *         attributes, shared by the following lookups
+   */
+  List<VOMSAttribute> cacheAttributes(Fingerprint key,
+    List<VOMSAttribute> attributes) {
+
+    List<VOMSAttribute> sharedAttributes = new ArrayList<VOMSAttribute>(
+      attributes.size());
+
+    long expirationTime = Long.MAX_VALUE;
+
+    for (VOMSAttribute a : attributes) {
+
+      sharedAttributes.add(new UnmodifiableVOMSAttributes(a));
+
+      if (a.getNotAfter() != null) {
+        expirationTime = Math.min(expirationTime, a.getNotAfter().getTime());
+      }
+    }
+
+    sharedAttributes = Collections.unmodifiableList(sharedAttributes);
+
+    if (clock.millis() < expirationTime)
+      cache.put(key, new CachedEntry(sharedAttributes, expirationTime));
+
+    return sharedAttributes;
+  }
+
+  /**
+   * @return the number of entries in this cache
+   */
+  int size() {
+
+    return cache.size();
+  }
+
+  private static class CachedEntry {
+
+    private final List<VOMSAttribute> attributes;
+
+    private final long expirationTime;
+
+    CachedEntry(List<VOMSAttribute> attributes, long expirationTime) {
+
+      this.attributes = attributes;
+      this.expirationTime = expirationTime;
+    }
+
+    List<VOMSAttribute> getAttributes() {
+
+      return attributes;
+    }
+
+    boolean hasExpired(long now) {
+
+      return now >= expirationTime;
+    }
+  }
+}
@@ -6,8 +6,11 @@ package org.italiangrid.voms.ac.impl;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -40,6 +43,7 @@ public class VOMSAttributesImpl implements VOMSAttribute {
   private byte[] signature;
   private List<VOMSGenericAttribute> genericAttributes;
   private List<String> acTargets;
+  private volatile Set<String> acTargetSet;
   private X509Certificate[] aaCerts;
   private X509AttributeCertificateHolder VOMSAC;
 
@@ -146,10 +150,10 @@ public class VOMSAttributesImpl implements VOMSAttribute {
   public String toString() {
 
     return "VOMSAttributesImpl [VO=" + VO + ", host=" + host + ", port=" + port
-      + ", FQANs=" + FQANs + ", gas=" + genericAttributes + ", issuer='"
+      + ", FQANs=" + FQANs + ", gas=" + getGenericAttributes() + ", issuer='"
       + X500NameUtils.getReadableForm(issuer) + "', holder='"
       + X500NameUtils.getReadableForm(holder) + "', notAfter=" + notAfter
-      + ", notBefore=" + notBefore + ", targets=" + acTargets + " ]";
+      + ", notBefore=" + notBefore + ", targets=" + getTargets() + " ]";
   }
 
   public List<VOMSGenericAttribute> getGenericAttributes() {
@@ -170,6 +174,31 @@ public class VOMSAttributesImpl implements VOMSAttribute {
   public void setTargets(List<String> targets) {
 
     acTargets = targets;
+    acTargetSet = null;
+  }
+
+  /**
+   * Returns the AC targets as a set, for fast membership checks.
+   * 
+   * @return a possibly empty set of AC targets
+   */
+  public Set<String> getTargetSet() {
+
+    Set<String> targetSet = acTargetSet;
+
+    if (targetSet == null) {
+
+      List<String> targets = getTargets();
+
+      if (targets == null)
+        targetSet = Collections.emptySet();
+      else
+        targetSet = Collections.unmodifiableSet(new HashSet<String>(targets));
+
+      acTargetSet = targetSet;
+    }
+
+    return targetSet;
   }
 
   public X509Certificate[] getAACertificates() {
@@ -184,13 +213,28 @@ public class VOMSAttributesImpl implements VOMSAttribute {
 
   public boolean isValid() {
 
-    return validAt(new Date());
+    return validAt(System.currentTimeMillis());
   }
 
   public boolean validAt(Date date) {
 
-    return TimeUtils.checkTimeInRangeWithSkew(date, getNotBefore(),
-      getNotAfter(), DEFAULT_CLOCK_SKEW_IN_MINUTES);
+    return validAt(date.getTime());
+  }
+
+  /**
+   * Checks if this attribute certificate is valid at a given time, allowing
+   * for {@link #DEFAULT_CLOCK_SKEW_IN_MINUTES} minutes of clock skew.
+   * 
+   * @param timeMillis
+   *          the time, in milliseconds since the epoch
+   * @return <code>true</code> if the attribute certificate is valid at the
+   *         given time, <code>false</code> otherwise
+   */
+  public boolean validAt(long timeMillis) {
+
+    return TimeUtils.checkTimeInRangeWithSkew(timeMillis,
+      getNotBefore().getTime(), getNotAfter().getTime(),
+      DEFAULT_CLOCK_SKEW_IN_MINUTES);
   }
 
   public X509AttributeCertificateHolder getVOMSAC() {
@@ -0,0 +1,62 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.italiangrid.voms.VOMSFQANInfo;
+
+/**
+ * The default, immutable, implementation for VOMS FQAN information.
+ * 
+ */
+public class VOMSFQANInfoImpl implements VOMSFQANInfo {
+
+  private final String VO;
+  private final String host;
+  private final int port;
+  private final List<String> FQANs;
+
+  public VOMSFQANInfoImpl(String vo, String host, int port, List<String> fqans) {
+
+    this.VO = vo;
+    this.host = host;
+    this.port = port;
+    this.FQANs = Collections.unmodifiableList(fqans);
+  }
+
+  public String getVO() {
+
+    return VO;
+  }
+
+  public String getHost() {
+
+    return host;
+  }
+
+  public int getPort() {
+
+    return port;
+  }
+
+  public List<String> getFQANs() {
+
+    return FQANs;
+  }
+
+  public String getPrimaryFQAN() {
+
+    return FQANs.get(0);
+  }
+
+  @Override
+  public String toString() {
+
+    return "VOMSFQANInfoImpl [VO=" + VO + ", host=" + host + ", port=" + port
+      + ", FQANs=" + FQANs + "]";
+  }
+}
@@ -0,0 +1,81 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.net.UnknownHostException;
+
+import org.italiangrid.voms.store.VOMSTrustStore;
+
+/**
+ * The information shared by the validations run by a
+ * {@link DefaultVOMSValidationStrategy} in a single call or batch: the trust
+ * store to look up AA certificates and LSC information in, the time the ACs
+ * are checked at, and the local hostname used to check AC targets.
+ *
+ * The local hostname is resolved the first time it is needed, and the outcome
+ * of the resolution is kept for the lifetime of the context.
+ *
+ */
+final class VOMSValidationContext {
+
+  private final VOMSTrustStore store;
+
+  private final long now;
+
+  private final LocalHostnameResolver hostnameResolver;
+
+  private boolean hostnameResolved;
+
+  private String localHostname;
+
+  private UnknownHostException hostnameResolutionError;
+
+  /**
+   * Builds a validation context.
+   *
+   * @param store
+   *          the trust store
+   * @param now
+   *          the time the ACs are checked at, in milliseconds since the epoch
+   * @param hostnameResolver
+   *          the resolver for the local hostname
+   */
+  VOMSValidationContext(VOMSTrustStore store, long now,
+    LocalHostnameResolver hostnameResolver) {
+
+    this.store = store;
+    this.now = now;
+    this.hostnameResolver = hostnameResolver;
+  }
+
+  VOMSTrustStore getTrustStore() {
+
+    return store;
+  }
+
+  long getNow() {
+
+    return now;
+  }
+
+  synchronized String getLocalHostname() throws UnknownHostException {
+
+    if (!hostnameResolved) {
+
+      try {
+        localHostname = hostnameResolver.resolveLocalHostname();
+      } catch (UnknownHostException e) {
+        hostnameResolutionError = e;
+      }
+
+      hostnameResolved = true;
+    }
+
+    if (hostnameResolutionError != null)
+      throw hostnameResolutionError;
+
+    return localHostname;
+  }
+}
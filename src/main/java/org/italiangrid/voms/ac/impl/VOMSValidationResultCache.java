@@ -0,0 +1,262 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.ac.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.error.VOMSValidationErrorMessage;
+import org.italiangrid.voms.store.VOMSTrustStore;
+import org.italiangrid.voms.store.VOMSTrustStoreUpdateListener;
+import org.italiangrid.voms.util.ClockCache;
+import org.italiangrid.voms.util.Fingerprint;
+
+import eu.emi.security.authn.x509.proxy.ProxyUtils;
+
+/**
+ * A bounded cache of successful VOMS AC validation results.
+ *
+ * Entries are keyed by the holder of the certificate chain the AC was
+ * presented with and by the digest of the whole encoded AC, so that an AC only
+ * hits the entry of a byte-identical AC. An entry lives until the AC expires,
+ * the configured lifetime elapses or the trust information changes, whichever
+ * comes first. The AC time validity check, and the check that the AC holder
+ * matches the holder of the certificate chain, are run again on every cache
+ * hit, which returns the messages of the cached validation result. When the
+ * cache is full, entries are evicted following a CLOCK policy.
+ *
+ * @author andreaceccanti
+ *
+ */
+class VOMSValidationResultCache implements VOMSTrustStoreUpdateListener {
+
+  /** The digest algorithm used to build cache keys **/
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  /** The per-thread message digests used to build cache keys **/
+  private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>();
+
+  private final ClockCache<Fingerprint, CachedEntry> cache;
+
+  private final long entryLifetimeMsec;
+
+  private final Clock clock;
+
+  /**
+   * Builds a cache.
+   *
+   * @param entryLifetimeMsec
+   *          the maximum lifetime of cache entries, in milliseconds
+   * @param maxEntries
+   *          the maximum number of entries held in the cache
+   * @param clock
+   *          the clock used to expire entries and check the AC time validity
+   */
+  VOMSValidationResultCache(long entryLifetimeMsec, int maxEntries,
+    Clock clock) {
+
+    if (entryLifetimeMsec <= 0)
+      throw new IllegalArgumentException(
+        "Please provide a positive cache entry lifetime.");
+
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException(
+        "Please provide a positive maximum number of cache entries.");
+
+    this.entryLifetimeMsec = entryLifetimeMsec;
+    this.cache = new ClockCache<Fingerprint, CachedEntry>(maxEntries);
+    this.clock = clock;
+  }
+
+  private static MessageDigest getDigest() {
+
+    MessageDigest md = DIGESTS.get();
+
+    if (md == null) {
+
+      try {
+        md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new VOMSError(e.getMessage(), e);
+      }
+
+      DIGESTS.set(md);
+
+    } else {
+      md.reset();
+    }
+
+    return md;
+  }
+
+  private static X500Principal getChainHolder(X509Certificate[] chain) {
+
+    try {
+      return ProxyUtils.getOriginalUserDN(chain);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private Fingerprint getKey(VOMSAttribute attributes,
+    X500Principal chainHolder) {
+
+    try {
+
+      // The DER encoding of the holder is self-delimiting, so the holder
+      // followed by the AC digest is an unambiguous key
+      return new Fingerprint(chainHolder.getEncoded()).append(
+        new Fingerprint(getDigest().digest(attributes.getVOMSAC().getEncoded())));
+
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Looks up a cached validation result for the given attributes.
+   *
+   * @param attributes
+   *          the attributes to be validated
+   * @param chain
+   *          the certificate chain the attributes were extracted from
+   * @return a successful {@link VOMSValidationResult} for the attributes, or
+   *         <code>null</code> if the attributes need a full validation
+   */
+  VOMSValidationResult getValidationResult(VOMSAttribute attributes,
+    X509Certificate[] chain) {
+
+    X500Principal chainHolder = getChainHolder(chain);
+
+    if (chainHolder == null || !chainHolder.equals(attributes.getHolder()))
+      return null;
+
+    Fingerprint key = getKey(attributes, chainHolder);
+
+    if (key == null)
+      return null;
+
+    CachedEntry entry = cache.get(key);
+
+    if (entry == null)
+      return null;
+
+    long now = clock.millis();
+
+    if (entry.hasExpired(now)) {
+      cache.remove(key, entry);
+      return null;
+    }
+
+    if (!validAt(attributes, now))
+      return null;
+
+    return new VOMSValidationResult(attributes, true,
+      entry.getValidationMessages());
+  }
+
+  /**
+   * Caches the result of a validation, if successful.
+   *
+   * @param attributes
+   *          the validated attributes
+   * @param chain
+   *          the certificate chain the attributes were extracted from
+   * @param result
+   *          the validation result
+   */
+  void cacheValidationResult(VOMSAttribute attributes,
+    X509Certificate[] chain, VOMSValidationResult result) {
+
+    if (!result.isValid())
+      return;
+
+    X500Principal chainHolder = getChainHolder(chain);
+
+    if (chainHolder == null)
+      return;
+
+    Fingerprint key = getKey(attributes, chainHolder);
+
+    if (key == null)
+      return;
+
+    long now = clock.millis();
+    long expirationTime = now + entryLifetimeMsec;
+
+    if (attributes.getNotAfter() != null) {
+      expirationTime = Math.min(expirationTime,
+        attributes.getNotAfter().getTime());
+    }
+
+    cache.put(key,
+      new CachedEntry(result.getValidationErrors(), expirationTime));
+  }
+
+  private static boolean validAt(VOMSAttribute attributes, long now) {
+
+    if (attributes instanceof VOMSAttributesImpl)
+      return ((VOMSAttributesImpl) attributes).validAt(now);
+
+    return attributes.validAt(new Date(now));
+  }
+
+  /**
+   * Removes all entries from this cache.
+   */
+  void clear() {
+
+    cache.clear();
+  }
+
+  /**
+   * @return the number of entries in this cache
+   */
+  int size() {
+
+    return cache.size();
+  }
+
+  public void notifyTrustStoreUpdate(VOMSTrustStore store) {
+
+    clear();
+  }
+
+  private static class CachedEntry {
+
+    private final List<VOMSValidationErrorMessage> validationMessages;
+
+    private final long expirationTime;
+
+    CachedEntry(List<VOMSValidationErrorMessage> validationMessages,
+      long expirationTime) {
+
+      this.validationMessages = Collections.unmodifiableList(
+        new ArrayList<VOMSValidationErrorMessage>(validationMessages));
+      this.expirationTime = expirationTime;
+    }
+
+    List<VOMSValidationErrorMessage> getValidationMessages() {
+
+      return validationMessages;
+    }
+
+    boolean hasExpired(long now) {
+
+      return now >= expirationTime;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.asn1;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import org.italiangrid.voms.VOMSError;
+
+/**
+ * A minimal forward-only reader for DER encoded data.
+ *
+ * The reader walks the elements found in a range of a byte buffer, one at a
+ * time, and exposes the tag and the offsets of the last element read. Nested
+ * elements are read with a new reader over the contents of the enclosing
+ * element, so no bytes are copied and no ASN.1 object tree is built.
+ *
+ * Only low tag numbers and definite lengths of up to three bytes are
+ * supported, which is all DER encoded VOMS ACs need. Other encodings, which
+ * are valid BER, are reported with an {@link UnsupportedEncodingError} so that
+ * callers can fall back to a full ASN.1 parser.
+ *
+ */
+final class DERReader {
+
+  static final int INTEGER = 0x02;
+  static final int OCTET_STRING = 0x04;
+  static final int OBJECT_IDENTIFIER = 0x06;
+  static final int GENERALIZED_TIME = 0x18;
+  static final int SEQUENCE = 0x30;
+  static final int SET = 0x31;
+  static final int CONTEXT_SPECIFIC_CONSTRUCTED_0 = 0xA0;
+
+  private final byte[] buffer;
+
+  private final int end;
+
+  private int position;
+
+  private int tag;
+
+  private int elementOffset;
+
+  private int contentOffset;
+
+  private int contentLength;
+
+  DERReader(byte[] buffer) {
+
+    this(buffer, 0, buffer.length);
+  }
+
+  DERReader(byte[] buffer, int offset, int end) {
+
+    this.buffer = buffer;
+    this.position = offset;
+    this.end = end;
+  }
+
+  /**
+   * The error raised when an encoding is valid BER, but is not supported by
+   * this reader.
+   */
+  static final class UnsupportedEncodingError extends VOMSError {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedEncodingError(String message) {
+
+      super(message);
+    }
+  }
+
+  private static void raiseMalformedEncodingError(String errorString) {
+
+    throw new VOMSError("Malformed DER encoding: " + errorString);
+  }
+
+  private static void raiseUnsupportedEncodingError(String errorString) {
+
+    throw new UnsupportedEncodingError("Unsupported DER encoding: "
+      + errorString);
+  }
+
+  /**
+   * @return <code>true</code> if there are more elements to read
+   */
+  boolean hasNext() {
+
+    return position < end;
+  }
+
+  /**
+   * Reads the next element.
+   *
+   * @return the tag of the element
+   */
+  int next() {
+
+    if (position >= end)
+      raiseMalformedEncodingError("unexpected end of data.");
+
+    elementOffset = position;
+
+    int t = buffer[position++] & 0xFF;
+
+    if ((t & 0x1F) == 0x1F)
+      raiseUnsupportedEncodingError("high tag numbers are not supported.");
+
+    if (position >= end)
+      raiseMalformedEncodingError("unexpected end of data.");
+
+    int length = buffer[position++] & 0xFF;
+
+    if (length > 0x7F) {
+
+      int lengthBytes = length & 0x7F;
+
+      if (lengthBytes == 0)
+        raiseUnsupportedEncodingError("indefinite lengths are not supported.");
+
+      if (lengthBytes > 3)
+        raiseUnsupportedEncodingError("unsupported length encoding.");
+
+      if (position + lengthBytes > end)
+        raiseMalformedEncodingError("unexpected end of data.");
+
+      length = 0;
+
+      for (int i = 0; i < lengthBytes; i++)
+        length = (length << 8) | (buffer[position++] & 0xFF);
+    }
+
+    if (length > end - position)
+      raiseMalformedEncodingError("element length exceeds available data.");
+
+    tag = t;
+    contentOffset = position;
+    contentLength = length;
+    position += length;
+
+    return tag;
+  }
+
+  /**
+   * Reads the next element, checking its tag.
+   *
+   * @param expectedTag
+   *          the expected tag
+   * @return this reader
+   */
+  DERReader next(int expectedTag) {
+
+    if (next() != expectedTag)
+      raiseMalformedEncodingError(String.format(
+        "expected tag 0x%02x, found 0x%02x.", expectedTag, tag));
+
+    return this;
+  }
+
+  /**
+   * @return a reader over the contents of the last element read
+   */
+  DERReader contents() {
+
+    return new DERReader(buffer, contentOffset, contentOffset + contentLength);
+  }
+
+  int getTag() {
+
+    return tag;
+  }
+
+  byte[] getBuffer() {
+
+    return buffer;
+  }
+
+  int getElementOffset() {
+
+    return elementOffset;
+  }
+
+  int getElementLength() {
+
+    return contentOffset + contentLength - elementOffset;
+  }
+
+  int getContentOffset() {
+
+    return contentOffset;
+  }
+
+  int getContentLength() {
+
+    return contentLength;
+  }
+
+  /**
+   * @return a copy of the contents of the last element read
+   */
+  byte[] getContent() {
+
+    return Arrays.copyOfRange(buffer, contentOffset, contentOffset
+      + contentLength);
+  }
+
+  /**
+   * @return a copy of the last element read, including tag and length
+   */
+  byte[] getElement() {
+
+    return Arrays.copyOfRange(buffer, elementOffset, contentOffset
+      + contentLength);
+  }
+
+  /**
+   * Tells whether the last element read is equal to a DER encoded element.
+   *
+   * @param encodedElement
+   *          the DER encoding of an element, including tag and length
+   * @return <code>true</code> if the elements are equal
+   */
+  boolean elementEquals(byte[] encodedElement) {
+
+    int length = getElementLength();
+
+    if (encodedElement.length != length)
+      return false;
+
+    for (int i = 0; i < length; i++) {
+      if (buffer[elementOffset + i] != encodedElement[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return the contents of the last element read, as a string
+   */
+  String getContentAsString() {
+
+    return new String(buffer, contentOffset, contentLength);
+  }
+
+  /**
+   * Decodes the contents of the last element read as a DER encoded generalized
+   * time, i.e. <code>YYYYMMDDHHMMSS[.f*]Z</code>.
+   *
+   * @return the time, in milliseconds since the epoch
+   */
+  long getContentAsGeneralizedTime() {
+
+    if (contentLength < 15
+      || buffer[contentOffset + contentLength - 1] != 'Z')
+      raiseMalformedEncodingError("unsupported generalized time encoding.");
+
+    int millis = 0;
+
+    if (contentLength > 15) {
+
+      if (contentLength == 16 || buffer[contentOffset + 14] != '.')
+        raiseMalformedEncodingError("unsupported generalized time encoding.");
+
+      // Only the first three fractional digits are meaningful
+      for (int i = 0, scale = 100; i < contentLength - 16; i++, scale /= 10)
+        millis += getDigits(15 + i, 1) * scale;
+    }
+
+    try {
+
+      LocalDateTime time = LocalDateTime.of(getDigits(0, 4), getDigits(4, 2),
+        getDigits(6, 2), getDigits(8, 2), getDigits(10, 2), getDigits(12, 2));
+
+      return time.toEpochSecond(ZoneOffset.UTC) * 1000 + millis;
+
+    } catch (DateTimeException e) {
+      raiseMalformedEncodingError("invalid generalized time.");
+      return 0;
+    }
+  }
+
+  private int getDigits(int offset, int count) {
+
+    int value = 0;
+
+    for (int i = contentOffset + offset; i < contentOffset + offset + count; i++) {
+
+      if (buffer[i] < '0' || buffer[i] > '9')
+        raiseMalformedEncodingError("unsupported generalized time encoding.");
+
+      value = value * 10 + buffer[i] - '0';
+    }
+
+    return value;
+  }
+}
@@ -0,0 +1,215 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.asn1;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.x509.AttributeCertificate;
+import org.bouncycastle.cert.X509AttributeCertificateHolder;
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.VOMSGenericAttribute;
+import org.italiangrid.voms.ac.impl.VOMSAttributesImpl;
+import org.italiangrid.voms.util.StringPool;
+import org.italiangrid.voms.util.TimeUtils;
+
+/**
+ * A {@link VOMSAttribute} whose validity period is read straight from the DER
+ * encoding of the underlying VOMS AC. The AC is decoded the first time any
+ * other attribute is accessed, and decoding errors are raised as
+ * {@link VOMSError} by the corresponding getter.
+ *
+ */
+class DeferredVOMSAttributes implements VOMSAttribute {
+
+  private final byte[] buffer;
+
+  private final int offset;
+
+  private final int length;
+
+  private final long notBefore;
+
+  private final long notAfter;
+
+  private final StringPool pool;
+
+  private volatile VOMSAttribute attributes;
+
+  /**
+   * Builds the attributes of an AC.
+   *
+   * @param buffer
+   *          the buffer holding the DER encoded AC
+   * @param offset
+   *          the offset of the AC in the buffer
+   * @param length
+   *          the length of the AC
+   * @param notBefore
+   *          the start of the AC validity period, in milliseconds since the
+   *          epoch
+   * @param notAfter
+   *          the end of the AC validity period, in milliseconds since the epoch
+   * @param pool
+   *          the pool used to canonicalize the strings decoded from the AC, or
+   *          <code>null</code> if strings are not pooled
+   */
+  DeferredVOMSAttributes(byte[] buffer, int offset, int length,
+    long notBefore, long notAfter, StringPool pool) {
+
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    this.notBefore = notBefore;
+    this.notAfter = notAfter;
+    this.pool = pool;
+  }
+
+  /**
+   * @return the decoded attributes
+   */
+  VOMSAttribute getAttributes() {
+
+    if (attributes == null) {
+      synchronized (this) {
+        if (attributes == null) {
+
+          ASN1InputStream asn1Stream = new ASN1InputStream(
+            new ByteArrayInputStream(buffer, offset, length), length);
+
+          try {
+            attributes = VOMSACUtils.deserializeVOMSAttributes(
+              AttributeCertificate.getInstance(asn1Stream.readObject()), pool);
+          } catch (IOException e) {
+            throw new VOMSError(e.getMessage(), e);
+          } finally {
+            try {
+              asn1Stream.close();
+            } catch (IOException e) {
+              // Nothing to release for in-memory streams
+            }
+          }
+        }
+      }
+    }
+
+    return attributes;
+  }
+
+  public String getVO() {
+
+    return getAttributes().getVO();
+  }
+
+  public String getHost() {
+
+    return getAttributes().getHost();
+  }
+
+  public int getPort() {
+
+    return getAttributes().getPort();
+  }
+
+  public X500Principal getHolder() {
+
+    return getAttributes().getHolder();
+  }
+
+  public BigInteger getHolderSerialNumber() {
+
+    return getAttributes().getHolderSerialNumber();
+  }
+
+  public X500Principal getIssuer() {
+
+    return getAttributes().getIssuer();
+  }
+
+  public Date getNotBefore() {
+
+    return new Date(notBefore);
+  }
+
+  public Date getNotAfter() {
+
+    return new Date(notAfter);
+  }
+
+  public List<String> getFQANs() {
+
+    return getAttributes().getFQANs();
+  }
+
+  public String getPrimaryFQAN() {
+
+    return getAttributes().getPrimaryFQAN();
+  }
+
+  public byte[] getSignature() {
+
+    return getAttributes().getSignature();
+  }
+
+  public List<VOMSGenericAttribute> getGenericAttributes() {
+
+    return getAttributes().getGenericAttributes();
+  }
+
+  public List<String> getTargets() {
+
+    return getAttributes().getTargets();
+  }
+
+  public X509Certificate[] getAACertificates() {
+
+    return getAttributes().getAACertificates();
+  }
+
+  public boolean isValid() {
+
+    return validAt(System.currentTimeMillis());
+  }
+
+  public boolean validAt(Date time) {
+
+    return validAt(time.getTime());
+  }
+
+  /**
+   * Checks if this attribute certificate is valid at a given time, allowing
+   * for {@link VOMSAttributesImpl#DEFAULT_CLOCK_SKEW_IN_MINUTES} minutes of
+   * clock skew.
+   *
+   * @param timeMillis
+   *          the time, in milliseconds since the epoch
+   * @return <code>true</code> if the attribute certificate is valid at the
+   *         given time, <code>false</code> otherwise
+   */
+  private boolean validAt(long timeMillis) {
+
+    return TimeUtils.checkTimeInRangeWithSkew(timeMillis, notBefore, notAfter,
+      VOMSAttributesImpl.DEFAULT_CLOCK_SKEW_IN_MINUTES);
+  }
+
+  public X509AttributeCertificateHolder getVOMSAC() {
+
+    return getAttributes().getVOMSAC();
+  }
+
+  @Override
+  public String toString() {
+
+    return getAttributes().toString();
+  }
+}
@@ -0,0 +1,107 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.asn1;
+
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERIA5String;
+import org.italiangrid.voms.VOMSGenericAttribute;
+import org.italiangrid.voms.ac.impl.VOMSAttributesImpl;
+
+/**
+ * A {@link VOMSAttributesImpl} that decodes the generic attributes and the
+ * targets of the underlying VOMS AC the first time they are accessed. Their
+ * encoding is checked when the AC is parsed, so decoding them cannot fail.
+ *
+ * Values set explicitly replace the lazily decoded ones.
+ *
+ */
+class LazyVOMSAttributesImpl extends VOMSAttributesImpl {
+
+  private ASN1Sequence genericAttributeTags;
+
+  private volatile boolean genericAttributesPending;
+
+  private DERIA5String[] targetURIs;
+
+  private volatile boolean targetsPending;
+
+  /**
+   * Sets the generic attribute tags to be decoded on first access.
+   *
+   * @param tags
+   *          the tags checked by
+   *          {@link VOMSACUtils#checkGAs(org.bouncycastle.cert.X509AttributeCertificateHolder)}
+   */
+  synchronized void setGenericAttributeTags(ASN1Sequence tags) {
+
+    genericAttributeTags = tags;
+    genericAttributesPending = true;
+  }
+
+  /**
+   * Sets the target URIs to be decoded on first access.
+   *
+   * @param uris
+   *          the URIs checked by
+   *          {@link VOMSACUtils#checkACTargets(org.bouncycastle.cert.X509AttributeCertificateHolder)}
+   */
+  synchronized void setTargetURIs(DERIA5String[] uris) {
+
+    targetURIs = uris;
+    targetsPending = true;
+  }
+
+  @Override
+  public List<VOMSGenericAttribute> getGenericAttributes() {
+
+    if (genericAttributesPending) {
+      synchronized (this) {
+        if (genericAttributesPending) {
+          super.setGenericAttributes(VOMSACUtils
+            .decodeGAs(genericAttributeTags));
+          genericAttributeTags = null;
+          genericAttributesPending = false;
+        }
+      }
+    }
+
+    return super.getGenericAttributes();
+  }
+
+  @Override
+  public synchronized void setGenericAttributes(
+    List<VOMSGenericAttribute> genericAttributes) {
+
+    super.setGenericAttributes(genericAttributes);
+    genericAttributeTags = null;
+    genericAttributesPending = false;
+  }
+
+  @Override
+  public List<String> getTargets() {
+
+    if (targetsPending) {
+      synchronized (this) {
+        if (targetsPending) {
+          super.setTargets(VOMSACUtils.decodeACTargets(targetURIs));
+          targetURIs = null;
+          targetsPending = false;
+        }
+      }
+    }
+
+    return super.getTargets();
+  }
+
+  @Override
+  public synchronized void setTargets(List<String> targets) {
+
+    super.setTargets(targets);
+    targetURIs = null;
+    targetsPending = false;
+  }
+}
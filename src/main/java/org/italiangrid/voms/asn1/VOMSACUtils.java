@@ -6,6 +6,8 @@ package org.italiangrid.voms.asn1;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
@@ -17,6 +19,7 @@ import java.util.List;
 
 import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Primitive;
@@ -37,9 +40,13 @@ import org.bouncycastle.cert.X509AttributeCertificateHolder;
 import org.bouncycastle.jcajce.provider.asymmetric.x509.CertificateFactory;
 import org.italiangrid.voms.VOMSAttribute;
 import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.VOMSFQANInfo;
 import org.italiangrid.voms.VOMSGenericAttribute;
-import org.italiangrid.voms.ac.impl.VOMSAttributesImpl;
+import org.italiangrid.voms.ac.impl.VOMSFQANInfoImpl;
 import org.italiangrid.voms.ac.impl.VOMSGenericAttributeImpl;
+import org.italiangrid.voms.util.ClockCache;
+import org.italiangrid.voms.util.Fingerprint;
+import org.italiangrid.voms.util.StringPool;
 
 /**
  * A set of VOMS AC handling utilities.
@@ -51,6 +58,71 @@ public class VOMSACUtils implements VOMSConstants {
 
   public static final String POLICY_AUTHORITY_SEP = "://";
 
+  /**
+   * The DER encoding of the VOMS attributes OID
+   */
+  private static final byte[] VOMS_FQANS_OID_ENCODING = getDEREncoding(VOMS_FQANS_OID);
+
+  /**
+   * The maximum number of AA certificates kept in the interned AA certificates
+   * table
+   */
+  public static final int MAX_INTERNED_AA_CERTIFICATES = 100;
+
+  /**
+   * The digest algorithm used to key the interned AA certificates table
+   */
+  private static final String AA_CERTIFICATE_DIGEST_ALGORITHM = "SHA-256";
+
+  /**
+   * The per-thread message digests used to key the interned AA certificates
+   * table
+   */
+  private static final ThreadLocal<MessageDigest> AA_CERTIFICATE_DIGESTS = new ThreadLocal<MessageDigest>();
+
+  /**
+   * The per-thread certificate factories used to parse the AA certificates
+   * embedded in ACs
+   */
+  private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORIES = new ThreadLocal<CertificateFactory>();
+
+  /**
+   * The AA certificates embedded in the ACs parsed so far, keyed by the digest
+   * of their DER encoding. Since most ACs carry one of a handful of AA
+   * certificates, each of them is parsed once and the same instance is shared
+   * by all the ACs that embed it. Certificates are evicted following a CLOCK
+   * policy, so lookups take no lock.
+   */
+  private static final ClockCache<Fingerprint, X509Certificate> INTERNED_AA_CERTIFICATES = new ClockCache<Fingerprint, X509Certificate>(
+    MAX_INTERNED_AA_CERTIFICATES);
+
+  private static byte[] getDEREncoding(ASN1Primitive object) {
+
+    try {
+      return object.getEncoded(ASN1Encoding.DER);
+    } catch (IOException e) {
+      throw new VOMSError(e.getMessage(), e);
+    }
+  }
+
+  private static String newString(StringPool pool, byte[] bytes, int offset,
+    int length) {
+
+    if (pool == null)
+      return new String(bytes, offset, length);
+
+    return pool.intern(bytes, offset, length);
+  }
+
+  private static String substring(StringPool pool, String s, int beginIndex,
+    int endIndex) {
+
+    if (pool == null)
+      return s.substring(beginIndex, endIndex);
+
+    return pool.intern(s, beginIndex, endIndex);
+  }
+
   /**
    * Returns the VOMS extension, if present, in a given certificate
    * 
@@ -78,17 +150,67 @@ public class VOMSACUtils implements VOMSConstants {
   public static List<AttributeCertificate> getACsFromVOMSExtension(
     byte[] vomsExtension) throws IOException {
 
-    List<AttributeCertificate> acs = null;
-
     if (vomsExtension == null)
       return Collections.emptyList();
 
-    acs = new ArrayList<AttributeCertificate>();
+    List<AttributeCertificate> acs = new ArrayList<AttributeCertificate>();
+
+    try {
+
+      DERReader acContainers = getACContainers(vomsExtension);
+
+      while (acContainers.hasNext()) {
+
+        DERReader theACs = acContainers.next(DERReader.SEQUENCE).contents();
+
+        while (theACs.hasNext()) {
+
+          theACs.next(DERReader.SEQUENCE);
+
+          // Only the AC is decoded, straight from the extension buffer
+          ASN1InputStream asn1Stream = new ASN1InputStream(
+            new ByteArrayInputStream(theACs.getBuffer(),
+              theACs.getElementOffset(), theACs.getElementLength()),
+            theACs.getElementLength());
+
+          try {
+            acs.add(AttributeCertificate.getInstance(asn1Stream.readObject()));
+          } finally {
+            asn1Stream.close();
+          }
+        }
+      }
+
+    } catch (DERReader.UnsupportedEncodingError e) {
+      return getACsFromBERVOMSExtension(vomsExtension);
+    } catch (VOMSError e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    return acs;
+  }
+
+  /**
+   * Deserializes the VOMS Attribute certificates in a given certificate
+   * extension with a full ASN.1 parser, which supports encodings that are
+   * valid BER but not DER.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension
+   * @return the possibly empty {@link List} of {@link AttributeCertificate}
+   *         extracted from a given extension
+   * @throws IOException
+   *           in case of deserialization errors
+   */
+  private static List<AttributeCertificate> getACsFromBERVOMSExtension(
+    byte[] vomsExtension) throws IOException {
+
+    List<AttributeCertificate> acs = new ArrayList<AttributeCertificate>();
 
     // Convert extension to a DEROctetString
     ASN1InputStream asn1Stream = new ASN1InputStream(new ByteArrayInputStream(
       vomsExtension));
-    byte[] payload = ((DEROctetString) asn1Stream.readObject()).getOctets();
+    byte[] payload = ((ASN1OctetString) asn1Stream.readObject()).getOctets();
 
     asn1Stream.close();
 
@@ -110,17 +232,46 @@ public class VOMSACUtils implements VOMSConstants {
       @SuppressWarnings("unchecked")
       Enumeration<ASN1Sequence> theACs = acSequence.getObjects();
 
-      while (theACs.hasMoreElements()) {
-
-        AttributeCertificate parsedAC = 
-          AttributeCertificate.getInstance(theACs.nextElement());
-        acs.add(parsedAC);
-      }
+      while (theACs.hasMoreElements())
+        acs.add(AttributeCertificate.getInstance(theACs.nextElement()));
     }
 
     return acs;
   }
 
+  /**
+   * Deserializes the VOMS Attribute certificates in a VOMS extension that the
+   * DER reader does not support, raising deserialization errors as
+   * {@link VOMSError}.
+   */
+  private static List<AttributeCertificate> readBERACs(byte[] vomsExtension) {
+
+    try {
+      return getACsFromBERVOMSExtension(vomsExtension);
+    } catch (IOException e) {
+      throw new VOMSError(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns a reader over the AC containers found in a VOMS extension.
+   * 
+   * The VOMS extension is a SEQUENCE of SET of AttributeCertificate. Since SET
+   * is an ordered sequence, and an AC is a sequence as well, the extension
+   * value is an OCTET STRING holding a SEQUENCE of SEQUENCE of SEQUENCE.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension
+   * @return a reader over the contents of the outer sequence
+   */
+  private static DERReader getACContainers(byte[] vomsExtension) {
+
+    DERReader payload = new DERReader(vomsExtension).next(
+      DERReader.OCTET_STRING).contents();
+
+    return payload.next(DERReader.SEQUENCE).contents();
+  }
+
   /**
    * Deserializes the VOMS Attribute certificates, if present, in a given
    * certificate passed as argument
@@ -144,9 +295,12 @@ public class VOMSACUtils implements VOMSConstants {
    * @param attr
    *          the {@link IetfAttrSyntax} attribute syntax object containing the
    *          VOMS extension
+   * @param pool
+   *          the pool used to canonicalize the FQANs, or <code>null</code>
    * @return a {@link List} of FQANs
    */
-  private static List<String> deserializeFQANs(IetfAttrSyntax attr) {
+  private static List<String> deserializeFQANs(IetfAttrSyntax attr,
+    StringPool pool) {
 
     if (attr.getValueType() != IetfAttrSyntax.VALUE_OCTETS)
       raiseACNonConformantError("unsupported attribute values encoding.");
@@ -155,22 +309,30 @@ public class VOMSACUtils implements VOMSConstants {
 
     ASN1OctetString[] values = (ASN1OctetString[]) attr.getValues();
 
-    for (ASN1OctetString s : values)
-      fqans.add(new String(s.getOctets()));
+    for (ASN1OctetString s : values) {
+      byte[] octets = s.getOctets();
+      fqans.add(newString(pool, octets, 0, octets.length));
+    }
 
     return fqans;
   }
 
+  /**
+   * Checks the encoding of the VOMS AC targets extension.
+   * 
+   * @param ac
+   *          the VOMS {@link X509AttributeCertificateHolder}
+   * @return the encoded target URIs, to be decoded with
+   *         {@link #decodeACTargets(DERIA5String[])}, or <code>null</code> if
+   *         the AC has no targets extension
+   */
   @SuppressWarnings("rawtypes")
-  private static List<String> deserializeACTargets(
-    X509AttributeCertificateHolder ac) {
-
-    List<String> targets = new ArrayList<String>();
+  static DERIA5String[] checkACTargets(X509AttributeCertificateHolder ac) {
 
     Extension targetExtension = ac.getExtension(Extension.targetInformation);
 
     if (targetExtension == null)
-      return targets;
+      return null;
 
     TargetInformation ti = TargetInformation
       .getInstance((ASN1Sequence) targetExtension.getParsedValue());
@@ -196,17 +358,40 @@ public class VOMSACUtils implements VOMSConstants {
       asn1Targets[count++] = Target.getInstance(val);
     }
 
-    // Extract the actual string
-    for (Target t : asn1Targets) {
+    DERIA5String[] targetURIs = new DERIA5String[asn1Targets.length];
 
-      GeneralName targetURI = t.getTargetName();
+    for (int i = 0; i < asn1Targets.length; i++) {
+
+      GeneralName targetURI = asn1Targets[i].getTargetName();
 
       if (targetURI.getTagNo() != GeneralName.uniformResourceIdentifier)
         raiseACNonConformantError("wrong AC target extension encoding. Only URI targets are supported.");
 
-      String targetString = ((DERIA5String) targetURI.getName()).getString();
-      targets.add(targetString);
+      targetURIs[i] = (DERIA5String) targetURI.getName();
     }
+
+    return targetURIs;
+  }
+
+  /**
+   * Decodes the VOMS AC targets checked by
+   * {@link #checkACTargets(X509AttributeCertificateHolder)}.
+   * 
+   * @param targetURIs
+   *          the encoded target URIs, or <code>null</code>
+   * @return the list of targets
+   */
+  static List<String> decodeACTargets(DERIA5String[] targetURIs) {
+
+    List<String> targets = new ArrayList<String>();
+
+    if (targetURIs == null)
+      return targets;
+
+    // Extract the actual string
+    for (DERIA5String targetURI : targetURIs)
+      targets.add(targetURI.getString());
+
     return targets;
   }
 
@@ -231,6 +416,11 @@ public class VOMSACUtils implements VOMSConstants {
     String policyAuthority = ((DERIA5String) attr.getPolicyAuthority()
       .getNames()[0].getName()).getString();
 
+    return policyAuthoritySanityChecks(policyAuthority);
+  }
+
+  private static String policyAuthoritySanityChecks(String policyAuthority) {
+
     // PolicyAuthority scheme: <vo name>://<hostname>:<port>
     int index = policyAuthority.indexOf(POLICY_AUTHORITY_SEP);
 
@@ -242,6 +432,292 @@ public class VOMSACUtils implements VOMSConstants {
 
   }
 
+  /**
+   * Extracts the VO membership information from the VOMS Attribute
+   * certificates in a given certificate extension.
+   * 
+   * This method walks the DER encoding of the extension directly and only
+   * decodes the policy authority and the FQANs of each AC, without building
+   * the ASN.1 object tree of the ACs. The ACs are not validated in any way.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension, as returned by
+   *          {@link #getVOMSExtensionFromCertificate(X509Certificate)}
+   * @return the possibly empty {@link List} of {@link VOMSFQANInfo}, one for
+   *         each AC found in the extension
+   */
+  public static List<VOMSFQANInfo> getFQANInfoFromVOMSExtension(
+    byte[] vomsExtension) {
+
+    return getFQANInfoFromVOMSExtension(vomsExtension, null);
+  }
+
+  /**
+   * Extracts the VO membership information from the VOMS Attribute
+   * certificates in a given certificate extension, canonicalizing the VO
+   * names, AA hostnames and FQANs with the given pool.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension, as returned by
+   *          {@link #getVOMSExtensionFromCertificate(X509Certificate)}
+   * @param pool
+   *          the string pool, or <code>null</code> if strings are not pooled
+   * @return the possibly empty {@link List} of {@link VOMSFQANInfo}, one for
+   *         each AC found in the extension
+   * @see #getFQANInfoFromVOMSExtension(byte[])
+   */
+  public static List<VOMSFQANInfo> getFQANInfoFromVOMSExtension(
+    byte[] vomsExtension, StringPool pool) {
+
+    if (vomsExtension == null)
+      return Collections.emptyList();
+
+    List<VOMSFQANInfo> infos = new ArrayList<VOMSFQANInfo>();
+
+    try {
+
+      DERReader acContainers = getACContainers(vomsExtension);
+
+      while (acContainers.hasNext()) {
+
+        DERReader acs = acContainers.next(DERReader.SEQUENCE).contents();
+
+        while (acs.hasNext())
+          infos.add(readFQANInfo(acs.next(DERReader.SEQUENCE).contents(),
+            pool));
+      }
+
+    } catch (DERReader.UnsupportedEncodingError e) {
+
+      infos.clear();
+
+      for (AttributeCertificate ac : readBERACs(vomsExtension)) {
+
+        VOMSAttribute attrs = deserializeVOMSAttributes(ac, pool);
+
+        if (attrs.getFQANs() == null)
+          raiseACNonConformantError("VOMS attributes not found.");
+
+        infos.add(new VOMSFQANInfoImpl(attrs.getVO(), attrs.getHost(), attrs
+          .getPort(), attrs.getFQANs()));
+      }
+    }
+
+    return infos;
+  }
+
+  /**
+   * Extracts the VO membership information from the VOMS Attribute
+   * certificates, if present, in a given certificate.
+   * 
+   * @param cert
+   *          the {@link X509Certificate} where the ACs will be searched
+   * @return the possibly empty {@link List} of {@link VOMSFQANInfo}, one for
+   *         each AC found in the VOMS extension
+   * @see #getFQANInfoFromVOMSExtension(byte[])
+   */
+  public static List<VOMSFQANInfo> getFQANInfoFromCertificate(
+    X509Certificate cert) {
+
+    return getFQANInfoFromVOMSExtension(getVOMSExtensionFromCertificate(cert));
+  }
+
+  /**
+   * Reads the AC info of an AC up to its validity period.
+   * 
+   * @param ac
+   *          a reader over the contents of the AC
+   * @return a reader over the AC info, whose last element read is the validity
+   *         period
+   */
+  private static DERReader readACInfoToValidity(DERReader ac) {
+
+    DERReader acInfo = ac.next(DERReader.SEQUENCE).contents();
+
+    // The version, holder, issuer, signature algorithm and serial number
+    // come before the validity period. The version is not present in v1
+    // ACs.
+    if (acInfo.next() == DERReader.INTEGER)
+      acInfo.next();
+
+    acInfo.next();
+    acInfo.next(DERReader.SEQUENCE);
+    acInfo.next(DERReader.INTEGER);
+
+    return acInfo.next(DERReader.SEQUENCE);
+  }
+
+  /**
+   * Returns the VOMS attributes of the ACs found in a VOMS extension, reading
+   * only the validity period of each AC up front. The rest of each AC is
+   * decoded the first time any other attribute is accessed, so ACs that turn
+   * out to be out of their validity period can be rejected without decoding
+   * them.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension
+   * @return a possibly empty list of {@link VOMSAttribute}
+   * @throws VOMSError
+   *           if the validity period of an AC is not well formed
+   */
+  public static List<VOMSAttribute> getLazyVOMSAttributesFromVOMSExtension(
+    byte[] vomsExtension) {
+
+    return getLazyVOMSAttributesFromVOMSExtension(vomsExtension, null);
+  }
+
+  /**
+   * Returns the VOMS attributes of the ACs in a given certificate extension,
+   * like {@link #getLazyVOMSAttributesFromVOMSExtension(byte[])} does. The
+   * VO names, AA hostnames and FQANs are canonicalized with the given pool
+   * when the ACs are decoded.
+   * 
+   * @param vomsExtension
+   *          the VOMS extension
+   * @param pool
+   *          the string pool, or <code>null</code> if strings are not pooled
+   * @return a possibly empty list of {@link VOMSAttribute}
+   * @throws VOMSError
+   *           if the validity period of an AC is not well formed
+   */
+  public static List<VOMSAttribute> getLazyVOMSAttributesFromVOMSExtension(
+    byte[] vomsExtension, StringPool pool) {
+
+    if (vomsExtension == null)
+      return Collections.emptyList();
+
+    List<VOMSAttribute> attributes = new ArrayList<VOMSAttribute>();
+
+    try {
+
+      DERReader acContainers = getACContainers(vomsExtension);
+
+      while (acContainers.hasNext()) {
+
+        DERReader acs = acContainers.next(DERReader.SEQUENCE).contents();
+
+        while (acs.hasNext()) {
+
+          acs.next(DERReader.SEQUENCE);
+
+          DERReader validity = readACInfoToValidity(acs.contents())
+            .contents();
+
+          long notBefore = validity.next(DERReader.GENERALIZED_TIME)
+            .getContentAsGeneralizedTime();
+          long notAfter = validity.next(DERReader.GENERALIZED_TIME)
+            .getContentAsGeneralizedTime();
+
+          attributes.add(new DeferredVOMSAttributes(acs.getBuffer(),
+            acs.getElementOffset(), acs.getElementLength(), notBefore,
+            notAfter, pool));
+        }
+      }
+
+    } catch (DERReader.UnsupportedEncodingError e) {
+
+      // Encodings the DER reader does not support are decoded up front
+      attributes = deserializeVOMSAttributes(readBERACs(vomsExtension), pool);
+    }
+
+    return attributes;
+  }
+
+  /**
+   * Returns the fully decoded VOMS attributes of an AC.
+   * 
+   * @param attributes
+   *          attributes returned by
+   *          {@link #getLazyVOMSAttributesFromVOMSExtension(byte[])}
+   * @return the decoded attributes, as returned by
+   *         {@link #deserializeVOMSAttributes(AttributeCertificate)}
+   * @throws VOMSError
+   *           if the AC is not well formed
+   */
+  public static VOMSAttribute decodeLazyVOMSAttributes(VOMSAttribute attributes) {
+
+    if (attributes instanceof DeferredVOMSAttributes)
+      return ((DeferredVOMSAttributes) attributes).getAttributes();
+
+    return attributes;
+  }
+
+  /**
+   * Reads the VO membership information from the contents of a DER encoded
+   * attribute certificate.
+   */
+  private static VOMSFQANInfo readFQANInfo(DERReader ac, StringPool pool) {
+
+    DERReader acInfo = readACInfoToValidity(ac);
+
+    DERReader attributes = acInfo.next(DERReader.SEQUENCE).contents();
+
+    while (attributes.hasNext()) {
+
+      DERReader attribute = attributes.next(DERReader.SEQUENCE).contents();
+      attribute.next(DERReader.OBJECT_IDENTIFIER);
+
+      if (attribute.elementEquals(VOMS_FQANS_OID_ENCODING)) {
+
+        DERReader values = attribute.next(DERReader.SET).contents();
+        return readFQANInfoFromAttrSyntax(values.next(DERReader.SEQUENCE)
+          .contents(), pool);
+      }
+    }
+
+    raiseACNonConformantError("VOMS attributes not found.");
+    return null;
+  }
+
+  /**
+   * Reads the VO membership information from the contents of a DER encoded
+   * {@link IetfAttrSyntax}, applying the same checks as the full parser.
+   */
+  private static VOMSFQANInfo readFQANInfoFromAttrSyntax(DERReader attrSyntax,
+    StringPool pool) {
+
+    if (attrSyntax.next() != DERReader.CONTEXT_SPECIFIC_CONSTRUCTED_0)
+      raiseACNonConformantError("policy authority not found.");
+
+    DERReader names = attrSyntax.contents();
+    int nameTag = names.next();
+
+    // The policy authority must be a general name encoded as an IA5String
+    if (nameTag != (0x80 | GeneralName.rfc822Name)
+      && nameTag != (0x80 | GeneralName.dNSName)
+      && nameTag != (0x80 | GeneralName.uniformResourceIdentifier))
+      raiseACNonConformantError("unsupported policy authority encoding.");
+
+    String policyAuthority = policyAuthoritySanityChecks(names
+      .getContentAsString());
+
+    DERReader values = attrSyntax.next(DERReader.SEQUENCE).contents();
+    List<String> fqans = new ArrayList<String>();
+
+    while (values.hasNext()) {
+
+      if (values.next() != DERReader.OCTET_STRING)
+        raiseACNonConformantError("unsupported attribute values encoding.");
+
+      fqans.add(newString(pool, values.getBuffer(), values.getContentOffset(),
+        values.getContentLength()));
+    }
+
+    if (fqans.isEmpty())
+      raiseACNonConformantError("unsupported attribute values encoding.");
+
+    // The policy authority string has the following format:
+    // <vo name>://<hostname>:<port>
+    int separatorIndex = policyAuthority.indexOf(POLICY_AUTHORITY_SEP);
+    int portSeparatorIndex = policyAuthority.lastIndexOf(":");
+
+    return new VOMSFQANInfoImpl(substring(pool, policyAuthority, 0,
+      separatorIndex), substring(pool, policyAuthority, separatorIndex + 3,
+      portSeparatorIndex),
+      Integer.parseInt(policyAuthority.substring(portSeparatorIndex + 1)),
+      fqans);
+  }
+
   /**
    * Deserializes the information in a list of VOMS attribute certificates.
    * 
@@ -252,12 +728,28 @@ public class VOMSACUtils implements VOMSConstants {
   public static List<VOMSAttribute> deserializeVOMSAttributes(
     List<AttributeCertificate> acs) {
 
+    return deserializeVOMSAttributes(acs, null);
+  }
+
+  /**
+   * Deserializes the information in a list of VOMS attribute certificates,
+   * canonicalizing the VO names, AA hostnames and FQANs with the given pool.
+   * 
+   * @param acs
+   *          a {@link List} of VOMS acs
+   * @param pool
+   *          the string pool, or <code>null</code> if strings are not pooled
+   * @return a possibly empty list of {@link VOMSAttribute}
+   */
+  public static List<VOMSAttribute> deserializeVOMSAttributes(
+    List<AttributeCertificate> acs, StringPool pool) {
+
     if (acs == null || acs.size() == 0)
       return Collections.emptyList();
 
     List<VOMSAttribute> attributes = new ArrayList<VOMSAttribute>();
     for (AttributeCertificate a : acs) {
-      attributes.add(deserializeVOMSAttributes(a));
+      attributes.add(deserializeVOMSAttributes(a, pool));
     }
 
     return attributes;
@@ -266,6 +758,10 @@ public class VOMSACUtils implements VOMSConstants {
   /**
    * Deserializes the information in a VOMS attribute certificate.
    * 
+   * The encoding of the generic attributes and of the targets is checked by
+   * this method, and their values are decoded the first time they are
+   * accessed on the returned object.
+   * 
    * @param ac
    *          a VOMS {@link AttributeCertificate}
    * @return a {@link VOMSAttribute} object which provides more convenient
@@ -273,7 +769,25 @@ public class VOMSACUtils implements VOMSConstants {
    */
   public static VOMSAttribute deserializeVOMSAttributes(AttributeCertificate ac) {
 
-    VOMSAttributesImpl attrs = new VOMSAttributesImpl();
+    return deserializeVOMSAttributes(ac, null);
+  }
+
+  /**
+   * Deserializes the information in a VOMS attribute certificate, like
+   * {@link #deserializeVOMSAttributes(AttributeCertificate)} does,
+   * canonicalizing the VO name, AA hostname and FQANs with the given pool.
+   * 
+   * @param ac
+   *          a VOMS {@link AttributeCertificate}
+   * @param pool
+   *          the string pool, or <code>null</code> if strings are not pooled
+   * @return a {@link VOMSAttribute} object which provides more convenient
+   *         access to the VOMS authorization information
+   */
+  public static VOMSAttribute deserializeVOMSAttributes(AttributeCertificate ac,
+    StringPool pool) {
+
+    LazyVOMSAttributesImpl attrs = new LazyVOMSAttributesImpl();
 
     X509AttributeCertificateHolder acHolder = new X509AttributeCertificateHolder(
       ac);
@@ -291,22 +805,22 @@ public class VOMSACUtils implements VOMSConstants {
       // The policy authority string has the following format:
       // <vo name>://<hostname>:<port>
 
-      attrs.setVO(policyAuthority.substring(0,
+      attrs.setVO(substring(pool, policyAuthority, 0,
         policyAuthority.indexOf(POLICY_AUTHORITY_SEP)));
-      attrs.setHost(policyAuthority.substring(
+      attrs.setHost(substring(pool, policyAuthority,
         policyAuthority.indexOf(POLICY_AUTHORITY_SEP) + 3,
         policyAuthority.lastIndexOf(":")));
       attrs.setPort(Integer.parseInt(policyAuthority.substring(policyAuthority
         .lastIndexOf(":") + 1)));
 
-      attrs.setFQANs(deserializeFQANs(attrSyntax));
+      attrs.setFQANs(deserializeFQANs(attrSyntax, pool));
 
       attrs.setNotBefore(acHolder.getNotBefore());
       attrs.setNotAfter(acHolder.getNotAfter());
       attrs.setSignature(acHolder.getSignature());
-      attrs.setGenericAttributes(deserializeGAs(acHolder));
+      attrs.setGenericAttributeTags(checkGAs(acHolder));
       attrs.setAACertificates(deserializeACCerts(acHolder));
-      attrs.setTargets(deserializeACTargets(acHolder));
+      attrs.setTargetURIs(checkACTargets(acHolder));
 
       attrs.setVOMSAC(acHolder);
 
@@ -329,22 +843,20 @@ public class VOMSACUtils implements VOMSConstants {
   }
 
   /**
-   * Deserializes the VOMS generic attributes
+   * Checks the encoding of the VOMS generic attributes extension.
    * 
    * @param ac
    *          the VOMS {@link X509AttributeCertificateHolder}
-   * @return the {@link List} of {@link VOMSGenericAttribute} contained in the
-   *         ac
+   * @return the sequence of generic attribute tags, to be decoded with
+   *         {@link #decodeGAs(ASN1Sequence)}, or <code>null</code> if the ac
+   *         holds no generic attributes
    */
-  private static List<VOMSGenericAttribute> deserializeGAs(
-    X509AttributeCertificateHolder ac) {
-
-    List<VOMSGenericAttribute> gas = new ArrayList<VOMSGenericAttribute>();
+  static ASN1Sequence checkGAs(X509AttributeCertificateHolder ac) {
 
     Extension gasExtension = ac.getExtension(VOMS_GENERIC_ATTRS_OID);
 
     if (gasExtension == null)
-      return gas;
+      return null;
 
     // SEQUENCE of TagList - contains just one taglist element
     ASN1Sequence tagContainerSeq = (ASN1Sequence) gasExtension.getParsedValue();
@@ -359,7 +871,7 @@ public class VOMSACUtils implements VOMSConstants {
     // This TagList sequence is empty, gLite 3.2 VOMS versions had a bug
     // that added the extension even there were no attributes encoded...
     if (tagListSeq.size() == 0)
-      return gas;
+      return null;
 
     // Down one level
     tagListSeq = (ASN1Sequence) tagListSeq.getObjectAt(0);
@@ -380,6 +892,34 @@ public class VOMSACUtils implements VOMSConstants {
       if (theActualTag.size() != 3)
         raiseACNonConformantError("unsupported tag format.");
 
+      for (int i = 0; i < 3; i++)
+        DEROctetString.getInstance(theActualTag.getObjectAt(i));
+    }
+
+    return tags;
+  }
+
+  /**
+   * Decodes the VOMS generic attributes checked by
+   * {@link #checkGAs(X509AttributeCertificateHolder)}.
+   * 
+   * @param tags
+   *          the sequence of generic attribute tags, or <code>null</code>
+   * @return the {@link List} of {@link VOMSGenericAttribute}
+   */
+  static List<VOMSGenericAttribute> decodeGAs(ASN1Sequence tags) {
+
+    List<VOMSGenericAttribute> gas = new ArrayList<VOMSGenericAttribute>();
+
+    if (tags == null)
+      return gas;
+
+    @SuppressWarnings("unchecked")
+    Enumeration<ASN1Sequence> e = tags.getObjects();
+    while (e.hasMoreElements()) {
+
+      ASN1Sequence theActualTag = e.nextElement();
+
       VOMSGenericAttributeImpl attribute = new VOMSGenericAttributeImpl();
 
       attribute.setName(new String(DEROctetString.getInstance(
@@ -423,38 +963,96 @@ public class VOMSACUtils implements VOMSConstants {
 
     @SuppressWarnings("unchecked")
     Enumeration<DLSequence> encodedCerts = certSeq.getObjects();
-    
-    CertificateFactory cf = new CertificateFactory();
 
     while (encodedCerts.hasMoreElements()) {
 
       DLSequence s = encodedCerts.nextElement();
-      
-      X509Certificate theCert;
-      
+
       try {
-        ASN1InputStream stream = new ASN1InputStream(s.getEncoded());
-        theCert = (X509Certificate) cf.engineGenerateCertificate(stream);
-
-      } catch (CertificateParsingException ex) {
-        throw new VOMSError("Certificate parsing error: " + ex.getMessage(), ex);
-      } catch (CertificateEncodingException ex) {
-        throw new VOMSError("Certificate encoding error: " + ex.getMessage(),
-          ex);
-      } catch (CertificateException ex) {
-        throw new VOMSError("Error generating certificate from parsed data: "
-          + ex.getMessage(), ex);
+        certs.add(internAACertificate(s.getEncoded()));
       } catch (IOException ex) {
         throw new VOMSError("Certficate parsing error : "+ex.getMessage(), 
             ex);
       }
-
-      certs.add(theCert);
     }
 
     return certs.toArray(new X509Certificate[certs.size()]);
   }
 
+  /**
+   * Returns the AA certificate with the given encoding, parsing it only if it
+   * is not found in the interned AA certificates table.
+   * 
+   * @param encodedCert
+   *          the DER encoding of the certificate
+   * @return the interned certificate
+   */
+  private static X509Certificate internAACertificate(byte[] encodedCert) {
+
+    Fingerprint key = new Fingerprint(getAACertificateDigest().digest(
+      encodedCert));
+
+    X509Certificate cert = INTERNED_AA_CERTIFICATES.get(key);
+
+    if (cert != null)
+      return cert;
+
+    cert = parseAACertificate(encodedCert);
+
+    // Threads parsing the same certificate concurrently share the instance
+    // interned first
+    X509Certificate internedCert = INTERNED_AA_CERTIFICATES.putIfAbsent(key,
+      cert);
+
+    return internedCert != null ? internedCert : cert;
+  }
+
+  private static X509Certificate parseAACertificate(byte[] encodedCert) {
+
+    CertificateFactory cf = CERTIFICATE_FACTORIES.get();
+
+    if (cf == null) {
+      cf = new CertificateFactory();
+      CERTIFICATE_FACTORIES.set(cf);
+    }
+
+    try {
+
+      return (X509Certificate) cf
+        .engineGenerateCertificate(new ByteArrayInputStream(encodedCert));
+
+    } catch (CertificateParsingException ex) {
+      throw new VOMSError("Certificate parsing error: " + ex.getMessage(), ex);
+    } catch (CertificateEncodingException ex) {
+      throw new VOMSError("Certificate encoding error: " + ex.getMessage(),
+        ex);
+    } catch (CertificateException ex) {
+      throw new VOMSError("Error generating certificate from parsed data: "
+        + ex.getMessage(), ex);
+    }
+  }
+
+  private static MessageDigest getAACertificateDigest() {
+
+    MessageDigest md = AA_CERTIFICATE_DIGESTS.get();
+
+    if (md == null) {
+
+      try {
+        md = MessageDigest.getInstance(AA_CERTIFICATE_DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new VOMSError(e.getMessage(), e);
+      }
+
+      AA_CERTIFICATE_DIGESTS.set(md);
+
+    } else {
+      md.reset();
+    }
+
+    return md;
+  }
+
   private VOMSACUtils() {
 
   }
@@ -5,13 +5,25 @@
 package org.italiangrid.voms.error;
 
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
+import javax.security.auth.x500.X500Principal;
+
+import eu.emi.security.authn.x509.impl.X500NameUtils;
+
 /**
  * A VOMS validation error message class (freely inspired by the CANL validation
  * error message class).
  * 
+ * The message text and the parameters returned by {@link #getParameters()} are
+ * formatted from the error code and the raw parameters only when they are
+ * first requested. {@link X500Principal} parameters are rendered in their
+ * readable form, and {@link List} parameters as strings. Messages are compared
+ * by error code and raw parameters.
+ * 
  * @author Andrea Ceccanti
  *
  */
@@ -21,7 +33,8 @@ public class VOMSValidationErrorMessage {
     .getPackage().getName() + "." + "validationErrors";
 
   private VOMSValidationErrorCode errorCode;
-  private String message;
+  private volatile String message;
+  private volatile Object[] formattedParameters;
   private Object[] parameters;
 
   public static VOMSValidationErrorMessage newErrorMessage(
@@ -47,6 +60,9 @@ public class VOMSValidationErrorMessage {
 
     this.errorCode = errorCode;
     this.parameters = params;
+  }
+
+  private String formatMessage() {
 
     ResourceBundle bundle = ResourceBundle.getBundle(ERROR_BUNDLE);
     String template = null;
@@ -58,8 +74,31 @@ public class VOMSValidationErrorMessage {
       template = "Other error";
     }
 
-    message = MessageFormat.format(template, parameters);
+    return MessageFormat.format(template, getFormattedParameters());
+  }
+
+  private Object[] getFormattedParameters() {
+
+    if (parameters == null)
+      return null;
+
+    Object[] p = formattedParameters;
+
+    if (p == null) {
 
+      p = parameters.clone();
+
+      for (int i = 0; i < p.length; i++) {
+        if (p[i] instanceof X500Principal)
+          p[i] = X500NameUtils.getReadableForm((X500Principal) p[i]);
+        else if (p[i] instanceof List)
+          p[i] = p[i].toString();
+      }
+
+      formattedParameters = p;
+    }
+
+    return p;
   }
 
   public VOMSValidationErrorCode getErrorCode() {
@@ -69,18 +108,30 @@ public class VOMSValidationErrorMessage {
 
   public String getMessage() {
 
-    return message;
+    String m = message;
+
+    if (m == null) {
+      m = formatMessage();
+      message = m;
+    }
+
+    return m;
   }
 
   public Object[] getParameters() {
 
-    return parameters;
+    Object[] p = getFormattedParameters();
+
+    if (p == null)
+      return null;
+
+    return p.clone();
   }
 
   @Override
   public String toString() {
 
-    return String.format("[%s]:%s", errorCode.name(), message);
+    return String.format("[%s]:%s", errorCode.name(), getMessage());
   }
 
   @Override
@@ -89,7 +140,7 @@ public class VOMSValidationErrorMessage {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((errorCode == null) ? 0 : errorCode.hashCode());
-    result = prime * result + ((message == null) ? 0 : message.hashCode());
+    result = prime * result + Arrays.hashCode(parameters);
     return result;
   }
 
@@ -105,11 +156,6 @@ public class VOMSValidationErrorMessage {
     VOMSValidationErrorMessage other = (VOMSValidationErrorMessage) obj;
     if (errorCode != other.errorCode)
       return false;
-    if (message == null) {
-      if (other.message != null)
-        return false;
-    } else if (!message.equals(other.message))
-      return false;
-    return true;
+    return Arrays.equals(parameters, other.parameters);
   }
 }
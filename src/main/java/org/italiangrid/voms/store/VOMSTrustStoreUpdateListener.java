@@ -0,0 +1,26 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.store;
+
+/**
+ *
+ * This interface is used to notify interested listeners that the trust
+ * information held by a VOMS trust store has changed.
+ *
+ * @author Andrea Ceccanti
+ *
+ */
+public interface VOMSTrustStoreUpdateListener {
+
+  /**
+   * Informs that the VOMS AA certificates or the LSC information held by the
+   * store passed as argument have changed
+   *
+   * @param store
+   *          the updated trust store
+   */
+  public void notifyTrustStoreUpdate(VOMSTrustStore store);
+
+}
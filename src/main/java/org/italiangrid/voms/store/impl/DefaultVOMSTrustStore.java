@@ -12,23 +12,39 @@ import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.bc.BcRSAContentVerifierProviderBuilder;
 import org.italiangrid.voms.VOMSError;
 import org.italiangrid.voms.store.LSCInfo;
 import org.italiangrid.voms.store.VOMSTrustStore;
 import org.italiangrid.voms.store.VOMSTrustStoreStatusListener;
+import org.italiangrid.voms.store.VOMSTrustStoreUpdateListener;
+import org.italiangrid.voms.util.Fingerprint;
+import org.italiangrid.voms.util.KeyIdentifierHelper;
 import org.italiangrid.voms.util.NullListener;
+import org.italiangrid.voms.util.StoreUpdateChangeDetector;
 
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.helpers.trust.OpensslTruststoreHelper;
 import eu.emi.security.authn.x509.impl.CertificateUtils;
 import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
@@ -59,15 +75,98 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
    **/
   public static final String LSC_FILENAME_SUFFIX = ".lsc";
 
+  /**
+   * The default maximum time, in milliseconds, a local AA certificate validation result is reused
+   * for
+   **/
+  public static final long DEFAULT_AA_CERTIFICATE_VALIDATION_LIFETIME = TimeUnit.MINUTES
+    .toMillis(10);
+
   /**
    * The list of local trusted directories that is searched for trust information (certs or LSC
    * files)
    **/
   private final List<String> localTrustedDirs;
 
-  /** Map of local parsed AA certificates keyed by certificate subject hash **/
-  private Map<String, X509Certificate> localAACertificatesByHash =
-      new HashMap<String, X509Certificate>();
+  /**
+   * Orders certificates by issuance: by start of validity, then by end of validity, then by
+   * serial number
+   **/
+  private static final Comparator<X509Certificate> ISSUANCE_ORDER =
+      new Comparator<X509Certificate>() {
+
+        public int compare(X509Certificate c1, X509Certificate c2) {
+
+          int result = c1.getNotBefore().compareTo(c2.getNotBefore());
+
+          if (result == 0)
+            result = c1.getNotAfter().compareTo(c2.getNotAfter());
+
+          if (result == 0)
+            result = c1.getSerialNumber().compareTo(c2.getSerialNumber());
+
+          return result;
+        }
+      };
+
+  /**
+   * Map of local parsed AA certificates keyed by certificate subject hash. More than one
+   * certificate can share a subject, e.g. during an AA key rollover. Once loaded, the lists are
+   * immutable and sorted by {@link #ISSUANCE_ORDER}
+   **/
+  private Map<String, List<X509Certificate>> localAACertificatesByHash =
+      new HashMap<String, List<X509Certificate>>();
+
+  /**
+   * Map of local parsed AA certificates keyed by subject key identifier. Once loaded, the lists
+   * are immutable and sorted by {@link #ISSUANCE_ORDER}
+   **/
+  private Map<Fingerprint, List<X509Certificate>> localAACertificatesByKeyIdentifier =
+      new HashMap<Fingerprint, List<X509Certificate>>();
+
+  /**
+   * The trust information held for each local parsed AA certificate, keyed by certificate
+   * instance
+   **/
+  private Map<X509Certificate, LocalAACertificate> localAACertificateEntries =
+      new IdentityHashMap<X509Certificate, LocalAACertificate>();
+
+  /**
+   * The validator used to validate the local AA certificates, or <code>null</code> if they are
+   * not validated by this store
+   **/
+  private X509CertChainValidatorExt aaCertificateValidator;
+
+  /**
+   * Incremented whenever the AA certificate validator, or its CA or CRL information, changes.
+   * Validation results obtained in a previous generation are not reused. Shared with the
+   * snapshots of this store.
+   **/
+  private final AtomicLong aaCertificateValidationGeneration;
+
+  /**
+   * The maximum time, in milliseconds, a local AA certificate validation result is reused for
+   **/
+  private volatile long aaCertificateValidationLifetime = DEFAULT_AA_CERTIFICATE_VALIDATION_LIFETIME;
+
+  /**
+   * The listener that marks the local AA certificate validation results as stale whenever the CA
+   * or CRL information of the AA certificate validator changes. The certificates are validated
+   * again when their validation results are next looked up, so that no validation is run on the
+   * thread that reloads the CA or CRL information.
+   **/
+  private final StoreUpdateListener aaCertificateValidatorUpdateListener =
+      new StoreUpdateListener() {
+
+        private final StoreUpdateChangeDetector changeDetector = new StoreUpdateChangeDetector();
+
+        public void loadingNotification(String location, String type, Severity level,
+            Exception cause) {
+
+          if (changeDetector.isChange(location, type, level))
+            aaCertificateValidationGeneration.incrementAndGet();
+        }
+      };
 
   /** The set of local parsed LSC information keyed by VO **/
   private Map<String, Set<LSCInfo>> localLSCInfo = new HashMap<String, Set<LSCInfo>>();
@@ -77,6 +176,12 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
    **/
   private VOMSTrustStoreStatusListener listener;
 
+  /**
+   * The listeners that will be notified when the trust information held by this store changes
+   **/
+  private final List<VOMSTrustStoreUpdateListener> updateListeners =
+      new CopyOnWriteArrayList<VOMSTrustStoreUpdateListener>();
+
   /** The read/write lock that implements thread safety for this store **/
   protected final ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
@@ -126,6 +231,7 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
     this.localTrustedDirs = localTrustDirs;
     this.listener = listener;
     this.voNames = voNames;
+    this.aaCertificateValidationGeneration = new AtomicLong();
     loadTrustInformation();
   }
 
@@ -151,6 +257,52 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
     this(buildDefaultTrustedDirs());
   }
 
+  /**
+   * Builds a copy of the trust information currently held by another store.
+   * 
+   * @param source the store to copy
+   */
+  private DefaultVOMSTrustStore(DefaultVOMSTrustStore source) {
+
+    this.localTrustedDirs = source.localTrustedDirs;
+    this.voNames = source.voNames;
+    this.listener = NullListener.INSTANCE;
+    this.aaCertificateValidationGeneration = source.aaCertificateValidationGeneration;
+    this.aaCertificateValidationLifetime = source.aaCertificateValidationLifetime;
+
+    source.read.lock();
+
+    try {
+
+      aaCertificateValidator = source.aaCertificateValidator;
+
+      // The certificate lists are immutable, so they are shared with the source
+      localAACertificatesByHash.putAll(source.localAACertificatesByHash);
+      localAACertificatesByKeyIdentifier.putAll(source.localAACertificatesByKeyIdentifier);
+
+      localAACertificateEntries.putAll(source.localAACertificateEntries);
+
+      for (Map.Entry<String, Set<LSCInfo>> e : source.localLSCInfo.entrySet())
+        localLSCInfo.put(e.getKey(), new HashSet<LSCInfo>(e.getValue()));
+
+    } finally {
+      source.read.unlock();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the trust information currently held by this store. The snapshot is
+   * not affected by later loads of this store, so that it can be used to validate a batch of ACs
+   * against consistent trust information. Update listeners registered on this store are not
+   * registered on the snapshot.
+   * 
+   * @return a snapshot of this store
+   */
+  public DefaultVOMSTrustStore getSnapshot() {
+
+    return new DefaultVOMSTrustStore(this);
+  }
+
   public List<String> getLocalTrustedDirectories() {
 
     read.lock();
@@ -166,8 +318,13 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
     read.lock();
 
     try {
-      return Collections
-        .unmodifiableList(new ArrayList<X509Certificate>(localAACertificatesByHash.values()));
+
+      List<X509Certificate> aaCerts = new ArrayList<X509Certificate>();
+
+      for (List<X509Certificate> certs : localAACertificatesByHash.values())
+        aaCerts.addAll(certs);
+
+      return Collections.unmodifiableList(aaCerts);
     } finally {
       read.unlock();
     }
@@ -244,8 +401,21 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
       // files
       String aaCertHash = getOpensslCAHash(aaCert.getSubjectX500Principal());
 
-      // Store certificate in the local map
-      localAACertificatesByHash.put(aaCertHash, aaCert);
+      // Store certificate in the local maps
+      if (addCertificate(localAACertificatesByHash, aaCertHash, aaCert))
+        localAACertificateEntries.put(aaCert, new LocalAACertificate(aaCert));
+
+      Fingerprint aaCertKeyIdentifier = null;
+
+      try {
+        aaCertKeyIdentifier = KeyIdentifierHelper.getSubjectKeyIdentifier(aaCert);
+      } catch (IllegalArgumentException e) {
+        // A malformed subject key identifier only keeps the certificate out of the key
+        // identifier index
+      }
+
+      if (aaCertKeyIdentifier != null)
+        addCertificate(localAACertificatesByKeyIdentifier, aaCertKeyIdentifier, aaCert);
 
       synchronized (listenerLock) {
         listener.notifyCertificateLoadEvent(aaCert, file);
@@ -260,6 +430,47 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
 
   }
 
+  /**
+   * Adds a certificate to the list of certificates held in a map for a key, unless the same
+   * certificate is already there.
+   * 
+   * @param certificates
+   * @param key
+   * @param cert
+   * @return <code>true</code> if the certificate was added
+   */
+  private static <K> boolean addCertificate(Map<K, List<X509Certificate>> certificates, K key,
+      X509Certificate cert) {
+
+    List<X509Certificate> certs = certificates.get(key);
+
+    if (certs == null) {
+      certs = new ArrayList<X509Certificate>();
+      certificates.put(key, certs);
+    }
+
+    if (certs.contains(cert))
+      return false;
+
+    return certs.add(cert);
+  }
+
+  /**
+   * Replaces the certificate lists held in a map with immutable lists sorted by
+   * {@link #ISSUANCE_ORDER}.
+   * 
+   * @param certificates
+   */
+  private static <K> void freezeCertificates(Map<K, List<X509Certificate>> certificates) {
+
+    for (Map.Entry<K, List<X509Certificate>> e : certificates.entrySet()) {
+
+      List<X509Certificate> certs = new ArrayList<X509Certificate>(e.getValue());
+      Collections.sort(certs, ISSUANCE_ORDER);
+      e.setValue(Collections.unmodifiableList(certs));
+    }
+  }
+
   /**
    * 
    * @param directory
@@ -362,16 +573,44 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
   private void cleanupStores() {
 
     localAACertificatesByHash.clear();
+    localAACertificatesByKeyIdentifier.clear();
+    localAACertificateEntries.clear();
     localLSCInfo.clear();
 
   }
 
+  /**
+   * Builds a description of the currently loaded LSC information, keyed by VO and hostname, that
+   * can be used to tell whether LSC information changed across loads.
+   * 
+   * @return the LSC information description
+   */
+  private Map<String, List<String>> describeLSCInfo() {
+
+    Map<String, List<String>> description = new HashMap<String, List<String>>();
+
+    for (Set<LSCInfo> lscs : localLSCInfo.values()) {
+      for (LSCInfo lsc : lscs) {
+        description.put(lsc.getVOName() + "/" + lsc.getHostname(),
+            lsc.getCertificateChainDescription());
+      }
+    }
+
+    return description;
+  }
+
   public void loadTrustInformation() {
 
+    boolean trustInformationChanged;
+
     write.lock();
 
     try {
 
+      Map<String, List<X509Certificate>> previousAACertificates =
+          new HashMap<String, List<X509Certificate>>(localAACertificatesByHash);
+      Map<String, List<String>> previousLSCInfo = describeLSCInfo();
+
       if (localTrustedDirs.isEmpty()) {
         throw new VOMSError(
             "No local trust directory was specified for this trust store. Please provide at least one path where LSC and VOMS service certificates will be searched for.");
@@ -406,9 +645,50 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
         }
       }
 
+      freezeCertificates(localAACertificatesByHash);
+      freezeCertificates(localAACertificatesByKeyIdentifier);
+
+      trustInformationChanged = !previousAACertificates.equals(localAACertificatesByHash)
+          || !previousLSCInfo.equals(describeLSCInfo());
+
+    } catch (RuntimeException e) {
+
+      // Certificate lists are never handed out mutable, even when a load fails
+      freezeCertificates(localAACertificatesByHash);
+      freezeCertificates(localAACertificatesByKeyIdentifier);
+      throw e;
+
     } finally {
       write.unlock();
     }
+
+    if (trustInformationChanged) {
+      for (VOMSTrustStoreUpdateListener l : updateListeners) {
+        l.notifyTrustStoreUpdate(this);
+      }
+    }
+  }
+
+  /**
+   * Registers a listener that will be notified whenever a load changes the VOMS AA certificates
+   * or the LSC information held by this store.
+   * 
+   * @param updateListener the listener to register
+   */
+  public void addUpdateListener(VOMSTrustStoreUpdateListener updateListener) {
+
+    updateListeners.add(updateListener);
+  }
+
+  /**
+   * Unregisters a listener previously registered with
+   * {@link #addUpdateListener(VOMSTrustStoreUpdateListener)}.
+   * 
+   * @param updateListener the listener to unregister
+   */
+  public void removeUpdateListener(VOMSTrustStoreUpdateListener updateListener) {
+
+    updateListeners.remove(updateListener);
   }
 
   private String getOpensslCAHash(X500Principal principal) {
@@ -417,17 +697,198 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
 
   }
 
+  /**
+   * Returns the VOMS AA certificate held in this store for a given subject. When more than one
+   * certificate shares the subject, e.g. during an AA key rollover, the most recently issued one
+   * is returned, i.e. the one with the latest start of validity. Use
+   * {@link #getAACertificatesByKeyIdentifier(byte[])} to select a certificate by key.
+   * 
+   * @param aaCertSubject the AA certificate subject
+   * @return the AA certificate, or <code>null</code> if no certificate is held for the subject
+   */
   public X509Certificate getAACertificateBySubject(X500Principal aaCertSubject) {
 
     read.lock();
     try {
       String theCertHash = getOpensslCAHash(aaCertSubject);
-      return localAACertificatesByHash.get(theCertHash);
+      List<X509Certificate> certs = localAACertificatesByHash.get(theCertHash);
+
+      if (certs == null)
+        return null;
+
+      // Certificates are sorted by issuance, so the last one is the most recently issued
+      return certs.get(certs.size() - 1);
     } finally {
       read.unlock();
     }
   }
 
+  /**
+   * Returns the VOMS AA certificates held in this store whose subject key identifier matches the
+   * key identifier passed as argument, typically taken from the authority key identifier of a
+   * VOMS AC.
+   * 
+   * @param keyIdentifier a key identifier
+   * @return a possibly empty, immutable list of VOMS AA certificates
+   */
+  public List<X509Certificate> getAACertificatesByKeyIdentifier(byte[] keyIdentifier) {
+
+    read.lock();
+    try {
+      List<X509Certificate> certs =
+          localAACertificatesByKeyIdentifier.get(new Fingerprint(keyIdentifier));
+
+      if (certs == null)
+        return Collections.emptyList();
+
+      return certs;
+    } finally {
+      read.unlock();
+    }
+  }
+
+  /**
+   * Returns the signature verifier provider built, when the certificate was loaded, for a VOMS AA
+   * certificate held in this store.
+   * 
+   * @param aaCert a VOMS AA certificate instance returned by this store
+   * @return the verifier provider for the certificate, or <code>null</code> if the certificate
+   *         instance is not held in this store or no provider could be built for it
+   */
+  public ContentVerifierProvider getAAVerifierProvider(X509Certificate aaCert) {
+
+    read.lock();
+    try {
+      LocalAACertificate entry = localAACertificateEntries.get(aaCert);
+
+      if (entry == null)
+        return null;
+
+      return entry.getVerifierProvider();
+    } finally {
+      read.unlock();
+    }
+  }
+
+  /**
+   * Sets the validator used to validate the local AA certificates. A certificate is validated
+   * when its validation result is first looked up with
+   * {@link #getAACertificateValidationResult(X509Certificate)}, and again once the result is older
+   * than the AA certificate validation lifetime or the CA or CRL information of the validator
+   * changes.
+   * 
+   * @param validator the validator for the local AA certificates, or <code>null</code> to stop
+   *        validating them
+   */
+  public void setAACertificateValidator(X509CertChainValidatorExt validator) {
+
+    X509CertChainValidatorExt previousValidator;
+
+    write.lock();
+    try {
+      previousValidator = aaCertificateValidator;
+
+      if (previousValidator == validator)
+        return;
+
+      aaCertificateValidator = validator;
+      aaCertificateValidationGeneration.incrementAndGet();
+    } finally {
+      write.unlock();
+    }
+
+    if (previousValidator != null)
+      previousValidator.removeUpdateListener(aaCertificateValidatorUpdateListener);
+
+    if (validator != null)
+      validator.addUpdateListener(aaCertificateValidatorUpdateListener);
+  }
+
+  /**
+   * Unsets the validator used to validate the local AA certificates, if it is the given one.
+   * 
+   * @param validator the validator to be unset
+   * @return <code>true</code> if the validator was unset, <code>false</code> otherwise
+   */
+  public boolean removeAACertificateValidator(X509CertChainValidatorExt validator) {
+
+    write.lock();
+    try {
+      if (validator == null || aaCertificateValidator != validator)
+        return false;
+
+      aaCertificateValidator = null;
+      aaCertificateValidationGeneration.incrementAndGet();
+    } finally {
+      write.unlock();
+    }
+
+    validator.removeUpdateListener(aaCertificateValidatorUpdateListener);
+    return true;
+  }
+
+  /**
+   * @return the validator used to validate the local AA certificates, or <code>null</code> if
+   *         they are not validated by this store
+   */
+  public X509CertChainValidatorExt getAACertificateValidator() {
+
+    read.lock();
+    try {
+      return aaCertificateValidator;
+    } finally {
+      read.unlock();
+    }
+  }
+
+  /**
+   * Sets the maximum time a local AA certificate validation result is reused for. Defaults to
+   * {@link #DEFAULT_AA_CERTIFICATE_VALIDATION_LIFETIME}.
+   * 
+   * @param lifetimeMsec the validation result lifetime, in milliseconds
+   */
+  public void setAACertificateValidationLifetime(long lifetimeMsec) {
+
+    if (lifetimeMsec <= 0)
+      throw new IllegalArgumentException(
+          "Please provide a positive AA certificate validation lifetime.");
+
+    aaCertificateValidationLifetime = lifetimeMsec;
+  }
+
+  /**
+   * Returns the result of the validation of a VOMS AA certificate held in this store, run by the
+   * validator set with {@link #setAACertificateValidator(X509CertChainValidatorExt)}. The
+   * certificate is validated on the first lookup, and again once the previous result is older
+   * than the AA certificate validation lifetime, any certificate in the validated chain has
+   * expired, or the CA or CRL information of the validator has changed. Validations are run
+   * outside of the store lock. The result reflects the validity of the certificate at the time
+   * it was validated.
+   * 
+   * @param aaCert a VOMS AA certificate instance returned by this store
+   * @return the validation result for the certificate, or <code>null</code> if the certificate
+   *         instance is not held in this store or no AA certificate validator is set
+   */
+  public ValidationResult getAACertificateValidationResult(X509Certificate aaCert) {
+
+    LocalAACertificate entry;
+    X509CertChainValidatorExt validator;
+
+    read.lock();
+    try {
+      entry = localAACertificateEntries.get(aaCert);
+      validator = aaCertificateValidator;
+    } finally {
+      read.unlock();
+    }
+
+    if (entry == null || validator == null)
+      return null;
+
+    return entry.getValidationResult(aaCert, validator,
+        aaCertificateValidationGeneration.get(), aaCertificateValidationLifetime);
+  }
+
   public Map<String, Set<LSCInfo>> getAllLSCInfo() {
 
     read.lock();
@@ -444,4 +905,111 @@ public class DefaultVOMSTrustStore implements VOMSTrustStore {
       this.listener = statusListener;
     }
   }
+
+  /**
+   * The trust information held for a local VOMS AA certificate.
+   */
+  private static class LocalAACertificate {
+
+    private static final DefaultDigestAlgorithmIdentifierFinder DIGEST_ALGORITHM_FINDER =
+        new DefaultDigestAlgorithmIdentifierFinder();
+
+    private final ContentVerifierProvider verifierProvider;
+
+    private volatile AACertificateValidation validation;
+
+    LocalAACertificate(X509Certificate aaCert) {
+
+      ContentVerifierProvider cvp = null;
+
+      try {
+        cvp = new BcRSAContentVerifierProviderBuilder(DIGEST_ALGORITHM_FINDER)
+          .build(new JcaX509CertificateHolder(aaCert));
+      } catch (Exception e) {
+        // The provider is built again, and the error reported, when verifying an AC signature
+      }
+
+      this.verifierProvider = cvp;
+    }
+
+    ContentVerifierProvider getVerifierProvider() {
+
+      return verifierProvider;
+    }
+
+    /**
+     * Returns the current validation result for the certificate, validating it if needed.
+     * Concurrent lookups of a stale result wait for a single validation.
+     */
+    ValidationResult getValidationResult(X509Certificate aaCert,
+        X509CertChainValidatorExt validator, long generation, long lifetimeMsec) {
+
+      AACertificateValidation v = validation;
+
+      if (v != null && v.isCurrent(generation, System.currentTimeMillis()))
+        return v.getResult();
+
+      synchronized (this) {
+
+        v = validation;
+
+        if (v != null && v.isCurrent(generation, System.currentTimeMillis()))
+          return v.getResult();
+
+        long now = System.currentTimeMillis();
+        ValidationResult result = validator.validate(new X509Certificate[] {aaCert});
+
+        validation = new AACertificateValidation(result, generation,
+            getExpirationTime(aaCert, result, now + lifetimeMsec));
+
+        return result;
+      }
+    }
+
+    /**
+     * The expiration time of a validation result is the earliest end of validity of the
+     * certificates in the validated chain, capped by the given time.
+     */
+    private static long getExpirationTime(X509Certificate aaCert, ValidationResult result,
+        long maxExpirationTime) {
+
+      long expirationTime = Math.min(maxExpirationTime, aaCert.getNotAfter().getTime());
+
+      if (result.getValidChain() != null) {
+        for (X509Certificate c : result.getValidChain())
+          expirationTime = Math.min(expirationTime, c.getNotAfter().getTime());
+      }
+
+      return expirationTime;
+    }
+  }
+
+  /**
+   * The result of the validation of a local VOMS AA certificate.
+   */
+  private static class AACertificateValidation {
+
+    private final ValidationResult result;
+
+    private final long generation;
+
+    private final long expirationTime;
+
+    AACertificateValidation(ValidationResult result, long generation, long expirationTime) {
+
+      this.result = result;
+      this.generation = generation;
+      this.expirationTime = expirationTime;
+    }
+
+    ValidationResult getResult() {
+
+      return result;
+    }
+
+    boolean isCurrent(long currentGeneration, long now) {
+
+      return generation == currentGeneration && now < expirationTime;
+    }
+  }
 }
@@ -11,6 +11,7 @@ import java.util.List;
 import javax.security.auth.x500.X500Principal;
 
 import org.italiangrid.voms.store.LSCInfo;
+import org.italiangrid.voms.util.IdentityWeakCache;
 
 import eu.emi.security.authn.x509.impl.OpensslNameUtils;
 import eu.emi.security.authn.x509.impl.X500NameUtils;
@@ -42,6 +43,17 @@ public class LSCFile implements LSCInfo {
   /** The certificate chain description contained in this LSC file. */
   List<String> certChainDescription = new ArrayList<>();
 
+  /** The certificate chain description, with DNs in RFC 2253 format. */
+  private volatile List<String> rfc2253ChainDescription;
+
+  /**
+   * The chain positions matched by the certificates checked so far, keyed by certificate
+   * instance. AA certificates embedded in ACs are shared across ACs, so the DN comparisons for a
+   * given AA certificate are done once.
+   */
+  private final IdentityWeakCache<X509Certificate, Boolean[]> matchingPositions =
+      new IdentityWeakCache<X509Certificate, Boolean[]>();
+
   /**
    * Returns the VO name.
    *
@@ -120,6 +132,8 @@ public class LSCFile implements LSCInfo {
   public void setCertificateChainDescription(List<String> certChainDesc) {
 
     this.certChainDescription = new ArrayList<>(certChainDesc);
+    rfc2253ChainDescription = null;
+    matchingPositions.clear();
   }
 
   /**
@@ -199,25 +213,77 @@ public class LSCFile implements LSCInfo {
     }
 
     for (int i = 0; i < certChain.length; i++) {
-      if (!matches(certChain[i].getSubjectX500Principal(), certChainDescription.get(2 * i))) {
-        return false;
-      }
-      if (!matches(certChain[i].getIssuerX500Principal(), certChainDescription.get(2 * i + 1))) {
+      if (!matches(certChain[i], i)) {
         return false;
       }
     }
     return true;
   }
 
+  /**
+   * Checks if a certificate matches the subject and issuer described for a given position in the
+   * chain. The outcome is remembered for the certificate instance.
+   *
+   * @param cert the certificate
+   * @param position the position in the chain
+   * @return {@code true} if the certificate matches, otherwise {@code false}
+   */
+  private boolean matches(X509Certificate cert, int position) {
+
+    Boolean[] positions = matchingPositions.get(cert);
+
+    if (positions == null) {
+      positions = new Boolean[certChainDescription.size() / 2];
+
+      Boolean[] cachedPositions = matchingPositions.putIfAbsent(cert, positions);
+
+      if (cachedPositions != null) {
+        positions = cachedPositions;
+      }
+    }
+
+    // Concurrent checks of the same position compute the same outcome
+    Boolean outcome = positions[position];
+
+    if (outcome == null) {
+      List<String> description = getRFC2253ChainDescription();
+
+      outcome = matches(cert.getSubjectX500Principal(), description.get(2 * position))
+          && matches(cert.getIssuerX500Principal(), description.get(2 * position + 1));
+
+      positions[position] = outcome;
+    }
+
+    return outcome;
+  }
+
+  @SuppressWarnings("deprecation")
+  private List<String> getRFC2253ChainDescription() {
+
+    List<String> description = rfc2253ChainDescription;
+
+    if (description == null) {
+
+      description = new ArrayList<>(certChainDescription.size());
+
+      for (String dn : certChainDescription) {
+        description.add(OpensslNameUtils.opensslToRfc2253(dn));
+      }
+
+      rfc2253ChainDescription = description;
+    }
+
+    return description;
+  }
+
   /**
    * Checks if a certificate distinguished name (DN) matches the expected DN in the LSC file.
    *
    * @param certDn the certificate DN
-   * @param lscDn the expected DN in the LSC file
+   * @param lscDn the expected DN in the LSC file, in RFC 2253 format
    * @return {@code true} if the DNs match, otherwise {@code false}
    */
-  @SuppressWarnings("deprecation")
   private boolean matches(X500Principal certDn, String lscDn) {
-    return X500NameUtils.equal(certDn, OpensslNameUtils.opensslToRfc2253(lscDn));
+    return X500NameUtils.equal(certDn, lscDn);
   }
 }
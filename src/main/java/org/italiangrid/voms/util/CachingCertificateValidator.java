@@ -5,26 +5,91 @@
 package org.italiangrid.voms.util;
 
 import java.security.cert.CertPath;
+import java.security.cert.CertificateException;
+import java.security.cert.Certificate;
+import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.security.auth.x500.X500Principal;
 
 import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.store.impl.VOMSNamedThreadFactory;
 
 import eu.emi.security.authn.x509.ProxySupport;
 import eu.emi.security.authn.x509.RevocationParameters;
 import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.StoreUpdateListener.Severity;
+import eu.emi.security.authn.x509.ValidationError;
 import eu.emi.security.authn.x509.ValidationErrorListener;
 import eu.emi.security.authn.x509.ValidationResult;
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.helpers.pkipath.BCCertPathValidator;
+import eu.emi.security.authn.x509.helpers.trust.OpensslTruststoreHelper;
 import eu.emi.security.authn.x509.impl.CertificateUtils;
 import eu.emi.security.authn.x509.impl.FormatMode;
+import eu.emi.security.authn.x509.proxy.ProxyUtils;
 
 /**
  * A Certificate validator that caches validation results for a configurable
- * period of time. The cache is keyed by the fingerprint of the certificate at
- * the top of the chain (likely the EEC).
+ * period of time. The cache is keyed by the fingerprints of the certificates
+ * in the chain, starting from the certificate at the top of the chain (likely
+ * the EEC).
  *
+ * The cache is chain-aware: when a chain is found valid, the validated prefix
+ * made of the EEC and its CA path is cached as well. A chain that extends a
+ * cached valid prefix with new proxy certificates (e.g., a new proxy of a
+ * known user) is then validated by running only the CANL proxy chain checks
+ * against the cached prefix. Whenever the proxies cannot be checked this way,
+ * or when the wrapped validator does not support proxies, the whole chain is
+ * validated by the wrapped validator.
+ *
+ * The cache can optionally be bounded in size. When the number of entries
+ * exceeds the configured maximum, entries are evicted following a CLOCK
+ * (second chance) policy, which approximates LRU without requiring a lock on
+ * the lookup path. A background sweeper can also be enabled to periodically
+ * purge expired entries.
+ *
+ * Concurrent cache misses for the same fingerprint are coalesced: only the
+ * first caller runs the wrapped validator, while the others wait for its
+ * result.
+ *
+ * A cache entry never outlives the earliest expiration time of the
+ * certificates in the validated chain. Moreover, this validator listens for
+ * trust anchor and CRL store updates of the wrapped validator, and invalidates
+ * the entries whose chains were issued by the updated CA. When the updated CA
+ * cannot be determined from the update notification, the whole cache is
+ * invalidated. Results of validations that were running while the cache was
+ * invalidated are not cached.
+ *
+ * <b>Note:</b> only the changes notified by the wrapped validator are
+ * detected. The CANL OpenSSL trust anchor store, in particular, notifies
+ * reloaded CRLs, but neither sends notifications for CA certificates that are
+ * added, replaced or removed, nor for deleted CRLs. Such changes are only
+ * reflected in the validation results once the affected entries expire, so the
+ * maximum cache entry lifetime should be kept short (i.e., a few minutes) and
+ * bounds how long a removed CA, or a CRL deletion, can go unnoticed.
  *
  * @author andreaceccanti
  *
@@ -32,9 +97,94 @@ import eu.emi.security.authn.x509.impl.FormatMode;
 public class CachingCertificateValidator implements X509CertChainValidatorExt {
 
   /**
-   * Simple concurrent cache for validation results
+   * The value for the maximum number of cache entries that disables the cache
+   * size bound.
+   */
+  public static final int UNBOUNDED_CACHE_SIZE = 0;
+
+  /**
+   * The value for the sweep interval that disables the background sweeper.
+   */
+  public static final long NO_SWEEPER = 0L;
+
+  /**
+   * Matches the names of the files held in an OpenSSL-style trust anchors
+   * directory, which are prefixed by the CA subject hash
+   */
+  private static final Pattern OPENSSL_TRUST_FILENAME_PATTERN = Pattern
+    .compile("^([0-9a-fA-F]{8})\\.(r?[0-9]+|namespaces|signing_policy)$");
+
+  /**
+   * Runs the CANL proxy chain checks on chains validated against a cached
+   * prefix
    */
-  protected final ConcurrentMap<String, CachedValidationResult> validationResultsCache;
+  private static final ProxyChainChecker PROXY_CHAIN_CHECKER = new ProxyChainChecker();
+
+  /**
+   * Simple concurrent cache for validation results, keyed by the chain keys
+   * returned by {@link #getChainKeys(X509Certificate[])}.
+   * <p>
+   * <b>Note:</b> up to version 3.3.8 this cache, as well as the protected
+   * methods that access it, were keyed by the hex encoded fingerprint of the
+   * EEC. Subclasses relying on those signatures must be updated to use
+   * {@link Fingerprint} keys.
+   * </p>
+   */
+  protected final ConcurrentMap<Fingerprint, CachedValidationResult> validationResultsCache;
+
+  /**
+   * The validations in progress, keyed by certificate fingerprint
+   */
+  private final ConcurrentMap<Fingerprint, FutureTask<ValidationResult>> pendingValidations;
+
+  /**
+   * The maximum number of entries held in the cache, or
+   * {@link #UNBOUNDED_CACHE_SIZE} for an unbounded cache
+   */
+  protected final int maxCacheEntries;
+
+  /**
+   * The queue scanned by the CLOCK eviction policy, in insertion order. Only
+   * used when the cache is bounded.
+   */
+  private final Queue<CachedValidationResult> evictionQueue;
+
+  /**
+   * The number of nodes in the eviction queue, including the nodes of entries
+   * already removed from the cache. Only used when the cache is bounded.
+   */
+  private final AtomicInteger evictionQueueSize = new AtomicInteger();
+
+  /**
+   * The scheduler running the expired entries sweeper, or <code>null</code>
+   * when the sweeper is disabled
+   */
+  private final ScheduledExecutorService sweeper;
+
+  /**
+   * The listener that invalidates cache entries on trust anchors and CRL store
+   * updates
+   */
+  private final StoreUpdateListener storeUpdateListener = new StoreUpdateListener() {
+
+    public void loadingNotification(String location, String type,
+      Severity level, Exception cause) {
+
+      handleStoreUpdate(location, type, level);
+    }
+  };
+
+  /**
+   * Tells which store update notifications report an actual change of the
+   * trust material
+   */
+  private final StoreUpdateChangeDetector storeChangeDetector = new StoreUpdateChangeDetector();
+
+  /**
+   * Incremented on each cache invalidation, so that validations that were
+   * running when the cache was invalidated do not cache a stale result
+   */
+  private final AtomicLong invalidationEpoch = new AtomicLong();
 
   /**
    * The wrapped CANL certificate validator
@@ -52,14 +202,111 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
    * @param val
    *          The CANL validator to be wrapped.
    * @param maxCacheEntryLifetime
-   *          the maximum cache entry lifetime (in msecs)
+   *          the maximum cache entry lifetime (in msecs), which also bounds
+   *          how long CA changes not notified by the wrapped validator go
+   *          unnoticed
    */
   public CachingCertificateValidator(X509CertChainValidatorExt val,
     long maxCacheEntryLifetime) {
 
+    this(val, maxCacheEntryLifetime, UNBOUNDED_CACHE_SIZE, NO_SWEEPER);
+  }
+
+  /**
+   * Builds a size-bounded caching validator wrapping the validator passed as
+   * argument.
+   *
+   * @param val
+   *          The CANL validator to be wrapped.
+   * @param maxCacheEntryLifetime
+   *          the maximum cache entry lifetime (in msecs), which also bounds
+   *          how long CA changes not notified by the wrapped validator go
+   *          unnoticed
+   * @param maxCacheEntries
+   *          the maximum number of entries held in the cache, or
+   *          {@link #UNBOUNDED_CACHE_SIZE} for an unbounded cache
+   */
+  public CachingCertificateValidator(X509CertChainValidatorExt val,
+    long maxCacheEntryLifetime, int maxCacheEntries) {
+
+    this(val, maxCacheEntryLifetime, maxCacheEntries, NO_SWEEPER);
+  }
+
+  /**
+   * Builds a size-bounded caching validator wrapping the validator passed as
+   * argument, whose expired entries are periodically purged by a background
+   * sweeper. The sweeper is stopped by {@link #dispose()}.
+   *
+   * @param val
+   *          The CANL validator to be wrapped.
+   * @param maxCacheEntryLifetime
+   *          the maximum cache entry lifetime (in msecs), which also bounds
+   *          how long CA changes not notified by the wrapped validator go
+   *          unnoticed
+   * @param maxCacheEntries
+   *          the maximum number of entries held in the cache, or
+   *          {@link #UNBOUNDED_CACHE_SIZE} for an unbounded cache
+   * @param sweepIntervalMsec
+   *          the interval (in msecs) between two runs of the expired entries
+   *          sweeper, or {@link #NO_SWEEPER} to disable the sweeper
+   */
+  public CachingCertificateValidator(X509CertChainValidatorExt val,
+    long maxCacheEntryLifetime, int maxCacheEntries, long sweepIntervalMsec) {
+
+    if (maxCacheEntries < 0)
+      throw new IllegalArgumentException(
+        "Please provide a non-negative value for the maximum number of cache entries.");
+
+    if (sweepIntervalMsec < 0)
+      throw new IllegalArgumentException(
+        "Please provide a non-negative value for the sweep interval.");
+
     cacheEntryLifetimeMsec = maxCacheEntryLifetime;
     validator = val;
-    validationResultsCache = new ConcurrentHashMap<String, CachedValidationResult>();
+    this.maxCacheEntries = maxCacheEntries;
+    validationResultsCache = new ConcurrentHashMap<Fingerprint, CachedValidationResult>();
+    pendingValidations = new ConcurrentHashMap<Fingerprint, FutureTask<ValidationResult>>();
+
+    if (isBounded()) {
+      evictionQueue = new ConcurrentLinkedQueue<CachedValidationResult>();
+    } else {
+      evictionQueue = null;
+    }
+
+    if (sweepIntervalMsec > 0) {
+      sweeper = Executors
+        .newSingleThreadScheduledExecutor(new VOMSNamedThreadFactory());
+
+      sweeper.scheduleWithFixedDelay(new Runnable() {
+
+        public void run() {
+
+          purgeExpiredEntries();
+        }
+      }, sweepIntervalMsec, sweepIntervalMsec, TimeUnit.MILLISECONDS);
+
+    } else {
+      sweeper = null;
+    }
+
+    validator.addUpdateListener(storeUpdateListener);
+  }
+
+  /**
+   * @return <code>true</code> if the number of entries in the cache is bounded,
+   *         <code>false</code> otherwise
+   */
+  public boolean isBounded() {
+
+    return maxCacheEntries != UNBOUNDED_CACHE_SIZE;
+  }
+
+  /**
+   * @return the number of entries currently held in the cache
+   */
+  public int getCacheSize() {
+
+    return validationResultsCache.size();
   }
 
   /**
@@ -76,18 +323,19 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
   public boolean cachedValidationResultHasExpired(CachedValidationResult cvr,
     long referenceTime) {
 
-    return (referenceTime - cvr.getTimestamp() > cacheEntryLifetimeMsec);
+    return (referenceTime - cvr.getTimestamp() > cacheEntryLifetimeMsec)
+      || (referenceTime > cvr.getNotAfter());
   }
 
   /**
    * Gets a validation result from the memory cache
    *
    * @param certFingerprint
-   *          the certificate fingerprint for the certificate at the top of the
-   *          chain
+   *          the cache key for the certificate chain, as returned by
+   *          {@link #getChainKeys(X509Certificate[])}
    * @return the validation result, if found. <code>null</code> otherwise.
    */
-  protected ValidationResult getCachedResult(String certFingerprint) {
+  protected ValidationResult getCachedResult(Fingerprint certFingerprint) {
 
     CachedValidationResult cvr = validationResultsCache.get(certFingerprint);
 
@@ -95,6 +343,7 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
       return null;
 
     if (!cachedValidationResultHasExpired(cvr, System.currentTimeMillis())) {
+      cvr.markReferenced();
       return cvr.getResult();
     }
 
@@ -102,6 +351,506 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
     return null;
   }
 
+  /**
+   * Stores a validation result in the memory cache, evicting entries if the
+   * cache grows beyond its configured maximum size.
+   *
+   * @param certFingerprint
+   *          the cache key for the certificate chain, as returned by
+   *          {@link #getChainKeys(X509Certificate[])}
+   * @param certChain
+   *          the validated certificate chain
+   * @param res
+   *          the validation result
+   */
+  protected void cacheResult(Fingerprint certFingerprint,
+    X509Certificate[] certChain, ValidationResult res) {
+
+    CachedValidationResult cvr = new CachedValidationResult(certFingerprint,
+      res, getEarliestNotAfter(certChain), getIssuerHashes(certChain, res));
+
+    if (validationResultsCache.putIfAbsent(certFingerprint, cvr) == null
+      && isBounded()) {
+
+      offerToEvictionQueue(cvr);
+      evictEntries();
+    }
+  }
+
+  private void offerToEvictionQueue(CachedValidationResult cvr) {
+
+    evictionQueue.offer(cvr);
+
+    // Entries removed on expiration or store updates leave their node in the
+    // queue, which is compacted once it grows past twice the cache bound
+    if (evictionQueueSize.incrementAndGet() > 2 * maxCacheEntries) {
+      compactEvictionQueue();
+    }
+  }
+
+  /**
+   * Removes from the eviction queue the nodes of the entries that are no
+   * longer in the cache.
+   */
+  private void compactEvictionQueue() {
+
+    Iterator<CachedValidationResult> it = evictionQueue.iterator();
+
+    while (it.hasNext()) {
+      CachedValidationResult cvr = it.next();
+      if (validationResultsCache.get(cvr.getCertFingerprint()) != cvr) {
+        it.remove();
+        evictionQueueSize.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return the number of nodes in the eviction queue, including the nodes of
+   *         entries no longer in the cache, or 0 for an unbounded cache
+   */
+  protected int getEvictionQueueSize() {
+
+    return isBounded() ? evictionQueueSize.get() : 0;
+  }
+
+  /**
+   * Evicts entries following the CLOCK policy until the cache size is within
+   * the configured bound. Entries that have been referenced since they were
+   * last scanned are given a second chance, unless they have expired.
+   */
+  private void evictEntries() {
+
+    int secondChances = maxCacheEntries;
+
+    while (validationResultsCache.size() > maxCacheEntries) {
+
+      CachedValidationResult cvr = evictionQueue.poll();
+
+      if (cvr == null)
+        return;
+
+      evictionQueueSize.decrementAndGet();
+
+      // Skip entries already removed from the cache
+      if (validationResultsCache.get(cvr.getCertFingerprint()) != cvr)
+        continue;
+
+      if (secondChances > 0 && cvr.clearReferenced()
+        && !cachedValidationResultHasExpired(cvr, System.currentTimeMillis())) {
+
+        secondChances--;
+        evictionQueue.offer(cvr);
+        evictionQueueSize.incrementAndGet();
+        continue;
+      }
+
+      validationResultsCache.remove(cvr.getCertFingerprint(), cvr);
+    }
+  }
+
+  /**
+   * Returns the earliest expiration time of the certificates in a chain.
+   *
+   * @param certChain
+   *          the certificate chain
+   * @return the earliest expiration time (msecs since the epoch)
+   */
+  private long getEarliestNotAfter(X509Certificate[] certChain) {
+
+    long notAfter = Long.MAX_VALUE;
+
+    for (X509Certificate c : certChain) {
+      if (c.getNotAfter() != null) {
+        notAfter = Math.min(notAfter, c.getNotAfter().getTime());
+      }
+    }
+
+    return notAfter;
+  }
+
+  /**
+   * Returns the OpenSSL subject hashes, in both the pre and post OpenSSL 1.0
+   * formats, of the issuers of the certificates in a validated chain. The
+   * chain returned by the wrapped validator, which includes the trust anchors,
+   * is used when available.
+   *
+   * @param certChain
+   *          the validated certificate chain
+   * @param res
+   *          the validation result
+   * @return a set of issuer hashes
+   */
+  private Set<String> getIssuerHashes(X509Certificate[] certChain,
+    ValidationResult res) {
+
+    Set<String> issuerHashes = new HashSet<String>();
+
+    List<X509Certificate> validChain = res.getValidChain();
+
+    if (validChain != null && !validChain.isEmpty()) {
+      for (X509Certificate c : validChain) {
+        addIssuerHashes(issuerHashes, c.getIssuerX500Principal());
+      }
+    }
+
+    for (X509Certificate c : certChain) {
+      addIssuerHashes(issuerHashes, c.getIssuerX500Principal());
+    }
+
+    return issuerHashes;
+  }
+
+  private void addIssuerHashes(Set<String> issuerHashes,
+    X500Principal issuer) {
+
+    if (issuer == null)
+      return;
+
+    issuerHashes.add(OpensslTruststoreHelper.getOpenSSLCAHash(issuer, false));
+    issuerHashes.add(OpensslTruststoreHelper.getOpenSSLCAHash(issuer, true));
+  }
+
+  /**
+   * Invalidates the cache entries affected by an update of the trust anchors
+   * or CRL stores of the wrapped validator. Only the entries issued by the
+   * updated CA are invalidated when the CA hash can be extracted from the
+   * updated location, otherwise the whole cache is invalidated. Notifications
+   * that do not report a change of the content, or of the loading outcome, of
+   * the trust material at the updated location, as the ones sent for each
+   * unchanged file on periodic store reloads, leave the cache untouched.
+   *
+   * @param location
+   *          the location of the updated trust material
+   * @param type
+   *          the type of the updated trust material
+   * @param level
+   *          the severity of the update notification
+   */
+  protected void handleStoreUpdate(String location, String type,
+    Severity level) {
+
+    if (!storeChangeDetector.isChange(location, type, level))
+      return;
+
+    invalidationEpoch.incrementAndGet();
+
+    String caHash = getCAHashFromLocation(location);
+
+    if (caHash == null) {
+      invalidateAll();
+      return;
+    }
+
+    for (CachedValidationResult cvr : validationResultsCache.values()) {
+      if (cvr.getIssuerHashes().contains(caHash)) {
+        validationResultsCache.remove(cvr.getCertFingerprint(), cvr);
+      }
+    }
+  }
+
+  private String getCAHashFromLocation(String location) {
+
+    if (location == null)
+      return null;
+
+    String filename = location.substring(location.lastIndexOf('/') + 1);
+    Matcher m = OPENSSL_TRUST_FILENAME_PATTERN.matcher(filename);
+
+    if (!m.matches())
+      return null;
+
+    return m.group(1).toLowerCase();
+  }
+
+  /**
+   * Removes all the entries from the cache.
+   */
+  public void invalidateAll() {
+
+    invalidationEpoch.incrementAndGet();
+    validationResultsCache.clear();
+
+    if (isBounded()) {
+      compactEvictionQueue();
+    }
+  }
+
+  /**
+   * Removes all the expired entries from the cache. This method is invoked
+   * periodically by the background sweeper, when enabled.
+   */
+  public void purgeExpiredEntries() {
+
+    long now = System.currentTimeMillis();
+
+    for (CachedValidationResult cvr : validationResultsCache.values()) {
+      if (cachedValidationResultHasExpired(cvr, now)) {
+        validationResultsCache.remove(cvr.getCertFingerprint(), cvr);
+      }
+    }
+
+    if (isBounded()) {
+      compactEvictionQueue();
+    }
+  }
+
+  /**
+   * Validates a certificate chain using the wrapped validator and caches the
+   * result. If a validation for the same chain is already in progress, this
+   * method waits for its outcome instead of starting a new one. The result is
+   * not cached if the cache is invalidated while the validation is running.
+   *
+   * @param chainKeys
+   *          the cache keys for the chain and its prefixes, as returned by
+   *          {@link #getChainKeys(X509Certificate[])}
+   * @param certChain
+   *          the certificate chain that will be validated
+   * @return the {@link ValidationResult}
+   */
+  protected ValidationResult validateAndCacheResult(final Fingerprint[] chainKeys,
+    final X509Certificate[] certChain) {
+
+    final Fingerprint certFingerprint = chainKeys[0];
+
+    FutureTask<ValidationResult> task = new FutureTask<ValidationResult>(
+      new Callable<ValidationResult>() {
+
+        public ValidationResult call() throws Exception {
+
+          long epoch = invalidationEpoch.get();
+          ValidationResult res = validator.validate(certChain);
+
+          if (invalidationEpoch.get() != epoch)
+            return res;
+
+          cacheResult(certFingerprint, certChain, res);
+
+          if (res.isValid()) {
+            cacheValidatedPrefix(chainKeys, certChain, res);
+          }
+
+          // An invalidation may have run concurrently with the caching of the
+          // result, missing the entries just added
+          if (invalidationEpoch.get() != epoch) {
+            for (Fingerprint key : chainKeys) {
+              validationResultsCache.remove(key);
+            }
+          }
+
+          return res;
+        }
+      });
+
+    FutureTask<ValidationResult> pendingTask = pendingValidations
+      .putIfAbsent(certFingerprint, task);
+
+    if (pendingTask == null) {
+
+      pendingTask = task;
+
+      try {
+        task.run();
+      } finally {
+        pendingValidations.remove(certFingerprint, task);
+      }
+    }
+
+    return getValidationResult(pendingTask);
+  }
+
+  /**
+   * Caches the validation result for the prefix of a valid chain made of the
+   * EEC and its CA path, so that chains carrying other proxies of the same EEC
+   * can be validated against it.
+   *
+   * @param chainKeys
+   *          the cache keys for the chain and its prefixes
+   * @param certChain
+   *          the valid certificate chain
+   * @param res
+   *          the validation result for the chain
+   */
+  private void cacheValidatedPrefix(Fingerprint[] chainKeys,
+    X509Certificate[] certChain, ValidationResult res) {
+
+    if (certChain.length == 1)
+      return;
+
+    int eecIndex = 0;
+
+    while (eecIndex < certChain.length
+      && ProxyUtils.isProxy(certChain[eecIndex])) {
+      eecIndex++;
+    }
+
+    if (eecIndex == 0 || eecIndex == certChain.length)
+      return;
+
+    List<X509Certificate> prefixValidChain = null;
+    List<X509Certificate> validChain = res.getValidChain();
+
+    if (validChain != null && validChain.size() > eecIndex) {
+      prefixValidChain = new ArrayList<X509Certificate>(
+        validChain.subList(eecIndex, validChain.size()));
+    }
+
+    ValidationResult prefixResult = new ValidationResult(true,
+      new ArrayList<ValidationError>(), res.getUnresolvedCriticalExtensions(),
+      prefixValidChain);
+
+    cacheResult(chainKeys[eecIndex],
+      Arrays.copyOfRange(certChain, eecIndex, certChain.length), prefixResult);
+  }
+
+  /**
+   * Looks for the longest valid prefix of the chain in the cache and, if
+   * found, checks the proxy part of the chain against it. The proxy part is
+   * checked by the same CANL checks run by the wrapped validator, so only the
+   * validation of the EEC against its CA path is saved. Chains are never
+   * validated this way when the wrapped validator does not support proxies.
+   *
+   * @param chainKeys
+   *          the cache keys for the chain and its prefixes
+   * @param certChain
+   *          the certificate chain that will be validated
+   * @return a valid {@link ValidationResult}, or <code>null</code> if the chain
+   *         has to be validated by the wrapped validator
+   */
+  protected ValidationResult validateFromCachedPrefix(Fingerprint[] chainKeys,
+    X509Certificate[] certChain) {
+
+    if (getProxySupport() != ProxySupport.ALLOW)
+      return null;
+
+    for (int prefixIndex = 1; prefixIndex < certChain.length; prefixIndex++) {
+
+      ValidationResult prefixResult = getCachedResult(chainKeys[prefixIndex]);
+
+      if (prefixResult == null)
+        continue;
+
+      if (!prefixResult.isValid())
+        return null;
+
+      Set<String> unresolvedCriticalExtensions = checkProxyChain(certChain,
+        prefixIndex, prefixResult);
+
+      if (unresolvedCriticalExtensions == null)
+        return null;
+
+      List<X509Certificate> validChain = null;
+
+      if (prefixResult.getValidChain() != null) {
+        validChain = new ArrayList<X509Certificate>(
+          Arrays.asList(certChain).subList(0, prefixIndex));
+        validChain.addAll(prefixResult.getValidChain());
+      }
+
+      if (prefixResult.getUnresolvedCriticalExtensions() != null)
+        unresolvedCriticalExtensions.addAll(prefixResult
+          .getUnresolvedCriticalExtensions());
+
+      ValidationResult res = new ValidationResult(true,
+        new ArrayList<ValidationError>(), unresolvedCriticalExtensions,
+        validChain);
+
+      cacheResult(chainKeys[0], certChain, res);
+      return res;
+    }
+
+    return null;
+  }
+
+  /**
+   * Runs the CANL proxy chain checks on the proxy part of a chain whose EEC
+   * belongs to a validated prefix, i.e. on the proxies and the EEC, using the
+   * EEC issuer as trust anchor.
+   *
+   * @param certChain
+   *          the certificate chain
+   * @param prefixIndex
+   *          the index of the first certificate of the validated prefix
+   * @param prefixResult
+   *          the validation result of the prefix
+   * @return the unresolved critical extensions found in the proxy part, or
+   *         <code>null</code> if the proxy part is not valid or cannot be
+   *         checked
+   */
+  private Set<String> checkProxyChain(X509Certificate[] certChain,
+    int prefixIndex, ValidationResult prefixResult) {
+
+    int eecIndex = 0;
+
+    while (eecIndex < certChain.length
+      && ProxyUtils.isProxy(certChain[eecIndex])) {
+      eecIndex++;
+    }
+
+    if (eecIndex < prefixIndex || eecIndex == certChain.length)
+      return null;
+
+    X509Certificate eecIssuer = null;
+
+    if (eecIndex + 1 < certChain.length) {
+      eecIssuer = certChain[eecIndex + 1];
+    } else {
+
+      List<X509Certificate> prefixValidChain = prefixResult.getValidChain();
+      int issuerIndex = eecIndex - prefixIndex + 1;
+
+      if (prefixValidChain != null && issuerIndex < prefixValidChain.size())
+        eecIssuer = prefixValidChain.get(issuerIndex);
+    }
+
+    if (eecIssuer == null)
+      return null;
+
+    try {
+
+      return PROXY_CHAIN_CHECKER.checkProxyChain(
+        Arrays.copyOfRange(certChain, 0, eecIndex + 1), eecIssuer);
+
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the outcome of a validation task.
+   *
+   * @param task
+   *          the validation task
+   * @return the {@link ValidationResult}
+   */
+  private ValidationResult getValidationResult(
+    FutureTask<ValidationResult> task) {
+
+    try {
+
+      return task.get();
+
+    } catch (InterruptedException e) {
+
+      Thread.currentThread().interrupt();
+      throw new VOMSError(
+        "Interrupted while waiting for certificate chain validation", e);
+
+    } catch (ExecutionException e) {
+
+      Throwable cause = e.getCause();
+
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+
+      if (cause instanceof Error)
+        throw (Error) cause;
+
+      throw new VOMSError("Error validating certificate chain: "
+        + cause.getMessage(), cause);
+    }
+  }
+
   /**
    * Obvious sanity checks on input certificate chain
    *
@@ -131,40 +880,86 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
 
     certChainSanityChecks(certChain);
 
-    String certFingerprint = null;
+    Fingerprint[] chainKeys = getChainKeys(certChain);
+
+    ValidationResult res = getCachedResult(chainKeys[0]);
+
+    if (res == null) {
+      res = validateFromCachedPrefix(chainKeys, certChain);
+    }
+
+    if (res == null) {
+      res = validateAndCacheResult(chainKeys, certChain);
+    }
+
+    return res;
+
+  }
+
+  /**
+   * Computes the cache keys for a certificate chain and its prefixes. The key
+   * at index <code>i</code> identifies the chain made of the certificates from
+   * index <code>i</code> to the top of the chain, so the key at index 0
+   * identifies the whole chain.
+   *
+   * @param certChain
+   *          the certificate chain
+   * @return the array of cache keys
+   */
+  protected Fingerprint[] getChainKeys(X509Certificate[] certChain) {
+
+    Fingerprint[] chainKeys = new Fingerprint[certChain.length];
+
+    Fingerprint key = null;
+
+    for (int i = certChain.length - 1; i >= 0; i--) {
+
+      Fingerprint certFingerprint = getFingerprint(certChain[i]);
+
+      if (key == null) {
+        key = certFingerprint;
+      } else {
+        key = key.append(certFingerprint);
+      }
+
+      chainKeys[i] = key;
+    }
+
+    return chainKeys;
+  }
+
+  private Fingerprint getFingerprint(X509Certificate cert) {
 
     try {
-      certFingerprint = FingerprintHelper
-        .getFingerprint(certChain[certChain.length - 1]);
+
+      return FingerprintHelper.getCertificateFingerprint(cert);
 
     } catch (Throwable t) {
 
       String errorMsg = String.format("Error computing fingerprint for "
         + "certificate: %s. Cause: %s",
-        CertificateUtils.format(certChain[0], FormatMode.COMPACT_ONE_LINE),
+        CertificateUtils.format(cert, FormatMode.COMPACT_ONE_LINE),
         t.getMessage());
 
       throw new VOMSError(errorMsg, t);
 
     }
-
-    ValidationResult res = getCachedResult(certFingerprint);
-
-    if (res == null) {
-      res = validator.validate(certChain);
-      validationResultsCache.putIfAbsent(certFingerprint,
-        new CachedValidationResult(certFingerprint, res));
-    }
-
-    return res;
-
   }
 
   /**
+   * Stops the background sweeper, if enabled, stops listening for store
+   * updates and disposes the wrapped validator.
+   *
    * @see eu.emi.security.authn.x509.X509CertChainValidatorExt#dispose()
    */
   public void dispose() {
 
+    validator.removeUpdateListener(storeUpdateListener);
+
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+
     validator.dispose();
   }
 
@@ -178,14 +973,41 @@ public class CachingCertificateValidator implements X509CertChainValidatorExt {
   }
 
   /**
+   * Validates a certificate path using the wrapped validator, caching the
+   * result for future validation calls. The result is shared with
+   * {@link #validate(X509Certificate[])} calls for the same chain.
+   *
    * @param certPath
    *          the certificate path that will be validated
-   * @return the {@link ValidationResult}
+   * @return a possibly cached {@link ValidationResult}
    * @see eu.emi.security.authn.x509.X509CertChainValidator#validate(java.security.cert.CertPath)
    */
   public ValidationResult validate(CertPath certPath) {
 
-    return validator.validate(certPath);
+    if (certPath == null)
+      throw new IllegalArgumentException("Cannot validate a null cert path.");
+
+    return validate(toCertChain(certPath));
+  }
+
+  private X509Certificate[] toCertChain(CertPath certPath) {
+
+    List<? extends Certificate> certs = certPath.getCertificates();
+    X509Certificate[] certChain = new X509Certificate[certs.size()];
+
+    for (int i = 0; i < certChain.length; i++) {
+
+      Certificate cert = certs.get(i);
+
+      if (!(cert instanceof X509Certificate))
+        throw new IllegalArgumentException(
+          "Can validate only X509Certificate chains. Found instance of: "
+            + cert.getClass().getName());
+
+      certChain[i] = (X509Certificate) cert;
+    }
+
+    return certChain;
   }
 
   /**
@@ -270,16 +1092,40 @@ class CachedValidationResult {
    * @param res
    *          the validation result
    */
-  public CachedValidationResult(String certificateFingerprint,
+  public CachedValidationResult(Fingerprint certificateFingerprint,
     ValidationResult res) {
 
+    this(certificateFingerprint, res, Long.MAX_VALUE,
+      Collections.<String> emptySet());
+  }
+
+  /**
+   * Builds a cache entry whose lifetime is capped by the expiration time of
+   * the validated certificate chain.
+   *
+   * @param certificateFingerprint
+   *          the certificate fingerprint for this entry
+   * @param res
+   *          the validation result
+   * @param notAfter
+   *          the earliest expiration time (msecs since the epoch) of the
+   *          certificates in the validated chain
+   * @param issuerHashes
+   *          the OpenSSL subject hashes of the issuers of the certificates in
+   *          the validated chain
+   */
+  public CachedValidationResult(Fingerprint certificateFingerprint,
+    ValidationResult res, long notAfter, Set<String> issuerHashes) {
+
     certFingerprint = certificateFingerprint;
     result = res;
     timestamp = System.currentTimeMillis();
+    this.notAfter = notAfter;
+    this.issuerHashes = issuerHashes;
   }
 
   /** The certificate fingerprint for this cache entry **/
-  private String certFingerprint;
+  private Fingerprint certFingerprint;
 
   /** The validation result for this cache entry **/
   private ValidationResult result;
@@ -287,6 +1133,15 @@ class CachedValidationResult {
   /** The cache entry creation timestamp **/
   private long timestamp;
 
+  /** The earliest expiration time of the certificates in the validated chain **/
+  private final long notAfter;
+
+  /** The OpenSSL subject hashes of the issuers in the validated chain **/
+  private final Set<String> issuerHashes;
+
+  /** Whether this entry has been looked up since it was last scanned for eviction **/
+  private volatile boolean referenced;
+
   /**
    * Returns the validation result for this entry.
    *
@@ -308,6 +1163,56 @@ class CachedValidationResult {
     this.result = result;
   }
 
+  /**
+   * Returns the earliest expiration time of the certificates in the chain
+   * validated by this entry. This entry must not be used after this time.
+   *
+   * @return the expiration time expressed as milliseconds since epoch
+   */
+  public long getNotAfter() {
+
+    return notAfter;
+  }
+
+  /**
+   * Returns the OpenSSL subject hashes of the issuers of the certificates in
+   * the chain validated by this entry.
+   *
+   * @return a set of issuer hashes
+   */
+  public Set<String> getIssuerHashes() {
+
+    return issuerHashes;
+  }
+
+  /**
+   * Marks this entry as referenced, so that it is given a second chance when
+   * scanned for eviction.
+   */
+  public void markReferenced() {
+
+    // Avoid a volatile write on every cache hit
+    if (!referenced) {
+      referenced = true;
+    }
+  }
+
+  /**
+   * Clears the referenced flag for this entry.
+   *
+   * @return <code>true</code> if this entry was referenced, <code>false</code>
+   *         otherwise
+   */
+  public boolean clearReferenced() {
+
+    if (referenced) {
+      referenced = false;
+      return true;
+    }
+
+    return false;
+  }
+
   /**
    * Returns this entry creation timestamp.
    *
@@ -340,7 +1245,7 @@ class CachedValidationResult {
    * @return the fingerprint for this entry
    * @see FingerprintHelper
    */
-  public String getCertFingerprint() {
+  public Fingerprint getCertFingerprint() {
 
     return certFingerprint;
   }
@@ -351,12 +1256,13 @@ class CachedValidationResult {
    * the SHA1 hash of the DER encoding of the certificate.
    *
    * It can be computed with the
-   * {@link FingerprintHelper#getFingerprint(X509Certificate)} method.
+   * {@link FingerprintHelper#getCertificateFingerprint(X509Certificate)}
+   * method.
    *
    * @param certFingerprint
    *          a certificate fingerprint describing a certificate
    */
-  public void setCertFingerprint(String certFingerprint) {
+  public void setCertFingerprint(Fingerprint certFingerprint) {
 
     this.certFingerprint = certFingerprint;
   }
@@ -389,3 +1295,41 @@ class CachedValidationResult {
     return true;
   }
 }
+
+/**
+ * Exposes the checks run by the CANL path validator on the proxy part of a
+ * chain.
+ */
+class ProxyChainChecker extends BCCertPathValidator {
+
+  /**
+   * Checks the proxy part of a chain.
+   *
+   * @param proxyChain
+   *          the proxies followed by the EEC
+   * @param eecIssuer
+   *          the EEC issuer, used as trust anchor
+   * @return the unresolved critical extensions, or <code>null</code> if the
+   *         proxy part is not valid
+   * @throws CertificateException
+   *           if the proxy part cannot be checked
+   */
+  Set<String> checkProxyChain(X509Certificate[] proxyChain,
+    X509Certificate eecIssuer) throws CertificateException {
+
+    List<ValidationError> errors = new ArrayList<ValidationError>();
+    Set<String> unresolvedCriticalExtensions = new HashSet<String>();
+
+    checkProxyChainWithBC(proxyChain,
+      Collections.singleton(new TrustAnchor(eecIssuer, null)), errors,
+      unresolvedCriticalExtensions);
+
+    checkProxyChainMain(proxyChain, errors, unresolvedCriticalExtensions,
+      new Date());
+
+    if (!errors.isEmpty())
+      return null;
+
+    return unresolvedCriticalExtensions;
+  }
+}
@@ -0,0 +1,228 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe cache bounded in size. When the number of entries exceeds the
+ * configured maximum, entries are evicted following a CLOCK (second chance)
+ * policy, which approximates LRU without requiring a lock on the lookup path,
+ * as done by {@link CachingCertificateValidator}.
+ * <p>
+ * The cache does not expire entries by itself: callers holding values with a
+ * limited lifetime check them on lookup and {@link #remove(Object, Object)}
+ * the stale ones.
+ * </p>
+ *
+ * @param <K>
+ *          the type of keys
+ * @param <V>
+ *          the type of values
+ */
+public class ClockCache<K, V> {
+
+  private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+
+  /**
+   * The queue scanned by the CLOCK eviction policy, in insertion order
+   */
+  private final Queue<Node<K, V>> evictionQueue = new ConcurrentLinkedQueue<Node<K, V>>();
+
+  /**
+   * The number of nodes in the eviction queue, including the nodes of entries
+   * already removed from the cache
+   */
+  private final AtomicInteger evictionQueueSize = new AtomicInteger();
+
+  private final int maxEntries;
+
+  /**
+   * Builds a cache.
+   *
+   * @param maxEntries
+   *          the maximum number of entries held in the cache
+   */
+  public ClockCache(int maxEntries) {
+
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException(
+        "Please provide a positive maximum number of cache entries.");
+
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Returns the value cached for the given key, marking it as recently used.
+   *
+   * @param key
+   *          the key
+   * @return the cached value, or <code>null</code> if no value is cached for
+   *         the key
+   */
+  public V get(K key) {
+
+    Node<K, V> node = map.get(key);
+
+    if (node == null)
+      return null;
+
+    node.referenced = true;
+    return node.value;
+  }
+
+  /**
+   * Caches a value for the given key, replacing any previously cached value
+   * and evicting entries if the cache grows beyond its maximum size.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   */
+  public void put(K key, V value) {
+
+    Node<K, V> node = new Node<K, V>(key, value);
+
+    map.put(key, node);
+    offerToEvictionQueue(node);
+    evictEntries();
+  }
+
+  /**
+   * Caches a value for the given key, unless a value is already cached for
+   * it, evicting entries if the cache grows beyond its maximum size.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   * @return the value already cached for the key, or <code>null</code> if the
+   *         given value was cached
+   */
+  public V putIfAbsent(K key, V value) {
+
+    Node<K, V> node = new Node<K, V>(key, value);
+    Node<K, V> cachedNode = map.putIfAbsent(key, node);
+
+    if (cachedNode != null) {
+      cachedNode.referenced = true;
+      return cachedNode.value;
+    }
+
+    offerToEvictionQueue(node);
+    evictEntries();
+    return null;
+  }
+
+  /**
+   * Removes the entry for the given key, if the key is mapped to the given
+   * value.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the expected value
+   * @return <code>true</code> if the entry was removed, <code>false</code>
+   *         otherwise
+   */
+  public boolean remove(K key, V value) {
+
+    Node<K, V> node = map.get(key);
+
+    return node != null && node.value == value && map.remove(key, node);
+  }
+
+  /**
+   * Removes all entries from this cache.
+   */
+  public void clear() {
+
+    map.clear();
+    compactEvictionQueue();
+  }
+
+  /**
+   * @return the number of entries in this cache
+   */
+  public int size() {
+
+    return map.size();
+  }
+
+  private void offerToEvictionQueue(Node<K, V> node) {
+
+    evictionQueue.offer(node);
+
+    // Replaced and removed entries leave their node in the queue, which is
+    // compacted once it grows past twice the cache bound
+    if (evictionQueueSize.incrementAndGet() > 2 * maxEntries) {
+      compactEvictionQueue();
+    }
+  }
+
+  private void compactEvictionQueue() {
+
+    Iterator<Node<K, V>> it = evictionQueue.iterator();
+
+    while (it.hasNext()) {
+      Node<K, V> node = it.next();
+      if (map.get(node.key) != node) {
+        it.remove();
+        evictionQueueSize.decrementAndGet();
+      }
+    }
+  }
+
+  private void evictEntries() {
+
+    int secondChances = maxEntries;
+
+    while (map.size() > maxEntries) {
+
+      Node<K, V> node = evictionQueue.poll();
+
+      if (node == null)
+        return;
+
+      evictionQueueSize.decrementAndGet();
+
+      // Skip entries already removed from the cache
+      if (map.get(node.key) != node)
+        continue;
+
+      if (secondChances > 0 && node.referenced) {
+
+        node.referenced = false;
+        secondChances--;
+        evictionQueue.offer(node);
+        evictionQueueSize.incrementAndGet();
+        continue;
+      }
+
+      map.remove(node.key, node);
+    }
+  }
+
+  private static final class Node<K, V> {
+
+    private final K key;
+
+    private final V value;
+
+    private volatile boolean referenced;
+
+    Node(K key, V value) {
+
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable binary fingerprint, suitable to be used as a map key.
+ * <p>
+ * The hash code is computed once at construction time. The hexadecimal
+ * representation of the fingerprint is only built when {@link #toString()} is
+ * called.
+ * </p>
+ *
+ * @see FingerprintHelper
+ */
+public final class Fingerprint {
+
+  private static final char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6',
+    '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+  private final byte[] bytes;
+
+  private final int hash;
+
+  /**
+   * Builds a fingerprint out of the given bytes. The array is not copied, so
+   * callers must not modify it afterwards.
+   *
+   * @param bytes
+   *          the fingerprint bytes
+   */
+  public Fingerprint(byte[] bytes) {
+
+    if (bytes == null)
+      throw new NullPointerException("Please provide non-null bytes.");
+
+    this.bytes = bytes;
+    this.hash = Arrays.hashCode(bytes);
+  }
+
+  /**
+   * Returns a new fingerprint made of the bytes of this fingerprint followed by
+   * the bytes of the given one.
+   *
+   * @param other
+   *          the fingerprint to append
+   * @return the combined fingerprint
+   */
+  public Fingerprint append(Fingerprint other) {
+
+    byte[] combined = Arrays.copyOf(bytes, bytes.length + other.bytes.length);
+    System.arraycopy(other.bytes, 0, combined, bytes.length,
+      other.bytes.length);
+
+    return new Fingerprint(combined);
+  }
+
+  /**
+   * Returns a copy of the fingerprint bytes.
+   *
+   * @return the fingerprint bytes
+   */
+  public byte[] getBytes() {
+
+    return bytes.clone();
+  }
+
+  @Override
+  public int hashCode() {
+
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+
+    if (this == obj)
+      return true;
+    if (!(obj instanceof Fingerprint))
+      return false;
+
+    Fingerprint other = (Fingerprint) obj;
+    return hash == other.hash && Arrays.equals(bytes, other.bytes);
+  }
+
+  /**
+   * @return the lowercase hexadecimal representation of this fingerprint
+   */
+  @Override
+  public String toString() {
+
+    char[] hex = new char[bytes.length * 2];
+
+    for (int i = 0; i < bytes.length; ++i) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] & 0xf0) >> 4];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+    }
+
+    return new String(hex);
+  }
+}
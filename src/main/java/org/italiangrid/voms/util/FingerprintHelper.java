@@ -17,7 +17,8 @@ import java.security.cert.X509Certificate;
  * </p>
  *
  * <p>
- * The default digest algorithm used is SHA-1.
+ * The default digest algorithm used is SHA-1. Message digests are reused per thread, and
+ * fingerprints are memoized per certificate instance.
  * </p>
  *
  */
@@ -26,25 +27,31 @@ public class FingerprintHelper {
   /** The default message digest algorithm used for computing fingerprints. */
   public static final String DEFAULT_DIGEST_ALGORITHM = "SHA-1";
 
+  /** The per-thread message digests used for computing fingerprints. */
+  private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>();
+
+  /** The fingerprints computed so far, keyed by certificate instance. */
+  private static final IdentityWeakCache<X509Certificate, Fingerprint> FINGERPRINTS =
+      new IdentityWeakCache<X509Certificate, Fingerprint>();
+
   /**
-   * Converts a byte array to a hexadecimal string representation.
+   * Returns the message digest for the calling thread, creating it if needed.
    *
-   * @param bytes the byte array to convert
-   * @return a string containing the hexadecimal representation of the byte array
+   * @return a reset message digest
+   * @throws NoSuchAlgorithmException if the default digest algorithm is not available
    */
-  private static String hexify(byte[] bytes) {
+  private static MessageDigest getDigest() throws NoSuchAlgorithmException {
 
-    char[] hexDigits =
-        {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    MessageDigest md = DIGESTS.get();
 
-    StringBuffer buf = new StringBuffer(bytes.length * 2);
-
-    for (int i = 0; i < bytes.length; ++i) {
-      buf.append(hexDigits[(bytes[i] & 0xf0) >> 4]);
-      buf.append(hexDigits[bytes[i] & 0x0f]);
+    if (md == null) {
+      md = MessageDigest.getInstance(DEFAULT_DIGEST_ALGORITHM);
+      DIGESTS.set(md);
+    } else {
+      md.reset();
     }
 
-    return buf.toString();
+    return md;
   }
 
   /**
@@ -58,13 +65,30 @@ public class FingerprintHelper {
   public static String getFingerprint(X509Certificate cert)
       throws NoSuchAlgorithmException, CertificateEncodingException {
 
-    MessageDigest md = MessageDigest.getInstance(DEFAULT_DIGEST_ALGORITHM);
-    byte[] der = cert.getEncoded();
+    return getCertificateFingerprint(cert).toString();
+  }
+
+  /**
+   * Computes the binary fingerprint of an X.509 certificate using the default digest
+   * algorithm. The fingerprint is memoized, so repeated calls for the same certificate
+   * instance do not encode and hash the certificate again.
+   *
+   * @param cert the X.509 certificate for which to compute the fingerprint
+   * @return the fingerprint of the certificate
+   * @throws NoSuchAlgorithmException if the specified digest algorithm is not available
+   * @throws CertificateEncodingException if encoding the certificate fails
+   */
+  public static Fingerprint getCertificateFingerprint(X509Certificate cert)
+      throws NoSuchAlgorithmException, CertificateEncodingException {
+
+    Fingerprint fingerprint = FINGERPRINTS.get(cert);
 
-    md.update(der);
-    byte[] digest = md.digest();
+    if (fingerprint == null) {
+      fingerprint = new Fingerprint(getDigest().digest(cert.getEncoded()));
+      FINGERPRINTS.putIfAbsent(cert, fingerprint);
+    }
 
-    return hexify(digest);
+    return fingerprint;
   }
 
 }
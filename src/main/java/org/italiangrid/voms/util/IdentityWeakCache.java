@@ -0,0 +1,228 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe cache whose keys are compared by identity and weakly
+ * referenced. An entry is dropped once its key is no longer strongly reachable,
+ * so this cache can be used to memoize values computed out of objects (e.g.,
+ * certificates) without keeping those objects alive.
+ * <p>
+ * Values must not hold strong references to their keys, or the entries will
+ * never be dropped.
+ * </p>
+ *
+ * @param <K>
+ *          the type of keys
+ * @param <V>
+ *          the type of values
+ */
+public class IdentityWeakCache<K, V> {
+
+  private final ConcurrentMap<IdentityWeakKey<K>, V> map = new ConcurrentHashMap<IdentityWeakKey<K>, V>();
+
+  private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+  /**
+   * The per-thread keys used to look up entries without allocating a weak
+   * reference for each lookup
+   */
+  private final ThreadLocal<LookupKey> lookupKeys = new ThreadLocal<LookupKey>() {
+
+    @Override
+    protected LookupKey initialValue() {
+
+      return new LookupKey();
+    }
+  };
+
+  /**
+   * Returns the value cached for the given key.
+   *
+   * @param key
+   *          the key
+   * @return the cached value, or <code>null</code> if no value is cached for
+   *         the key
+   */
+  public V get(K key) {
+
+    expungeStaleEntries();
+
+    LookupKey lookupKey = lookupKeys.get().set(key);
+
+    try {
+      return map.get(lookupKey);
+    } finally {
+      lookupKey.clear();
+    }
+  }
+
+  /**
+   * Caches a value for the given key, unless a value is already cached for it.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   * @return the value previously cached for the key, or <code>null</code> if
+   *         there was none
+   */
+  public V putIfAbsent(K key, V value) {
+
+    expungeStaleEntries();
+    return map.putIfAbsent(new IdentityWeakKey<K>(key, queue), value);
+  }
+
+  /**
+   * Caches a value for the given key, replacing any previously cached value.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value
+   */
+  public void put(K key, V value) {
+
+    expungeStaleEntries();
+    map.put(new IdentityWeakKey<K>(key, queue), value);
+  }
+
+  /**
+   * Removes the value cached for the given key.
+   *
+   * @param key
+   *          the key
+   * @return the removed value, or <code>null</code> if no value was cached for
+   *         the key
+   */
+  public V remove(K key) {
+
+    expungeStaleEntries();
+
+    LookupKey lookupKey = lookupKeys.get().set(key);
+
+    try {
+      return map.remove(lookupKey);
+    } finally {
+      lookupKey.clear();
+    }
+  }
+
+  /**
+   * Removes all entries from this cache.
+   */
+  public void clear() {
+
+    map.clear();
+    expungeStaleEntries();
+  }
+
+  /**
+   * @return the number of entries in this cache, including the entries whose
+   *         keys have been collected but not yet expunged
+   */
+  public int size() {
+
+    expungeStaleEntries();
+    return map.size();
+  }
+
+  private void expungeStaleEntries() {
+
+    Reference<? extends K> ref;
+
+    while ((ref = queue.poll()) != null) {
+      map.remove(ref);
+    }
+  }
+
+  private static final class IdentityWeakKey<K> extends WeakReference<K> {
+
+    private final int hash;
+
+    IdentityWeakKey(K referent, ReferenceQueue<K> queue) {
+
+      super(referent, queue);
+
+      if (referent == null)
+        throw new NullPointerException("Please provide a non-null key.");
+
+      hash = System.identityHashCode(referent);
+    }
+
+    @Override
+    public int hashCode() {
+
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj)
+        return true;
+
+      if (obj instanceof LookupKey)
+        return obj.equals(this);
+
+      if (!(obj instanceof IdentityWeakKey))
+        return false;
+
+      Object referent = get();
+      return referent != null && referent == ((IdentityWeakKey<?>) obj).get();
+    }
+  }
+
+  /**
+   * A reusable, strongly referenced key used only for lookups, which compares
+   * equal to the {@link IdentityWeakKey} of the same referent.
+   */
+  private static final class LookupKey {
+
+    private Object referent;
+
+    private int hash;
+
+    LookupKey set(Object referent) {
+
+      if (referent == null)
+        throw new NullPointerException("Please provide a non-null key.");
+
+      this.referent = referent;
+      hash = System.identityHashCode(referent);
+
+      return this;
+    }
+
+    void clear() {
+
+      referent = null;
+    }
+
+    @Override
+    public int hashCode() {
+
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj)
+        return true;
+
+      if (!(obj instanceof IdentityWeakKey))
+        return false;
+
+      return referent != null && referent == ((IdentityWeakKey<?>) obj).get();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+
+/**
+ * A utility class for extracting key identifiers from X.509 certificates.
+ * <p>
+ * Subject key identifiers are read straight from the certificate extension, without re-encoding
+ * the certificate, and are memoized per certificate instance.
+ * </p>
+ *
+ */
+public class KeyIdentifierHelper {
+
+  /** The subject key identifiers extracted so far, keyed by certificate instance. */
+  private static final IdentityWeakCache<X509Certificate, Fingerprint> SUBJECT_KEY_IDENTIFIERS =
+      new IdentityWeakCache<X509Certificate, Fingerprint>();
+
+  private KeyIdentifierHelper() {
+
+  }
+
+  /**
+   * Returns the subject key identifier of an X.509 certificate.
+   *
+   * @param cert the X.509 certificate
+   * @return the subject key identifier, or <code>null</code> if the certificate does not have a
+   *         subject key identifier extension
+   * @throws IllegalArgumentException if the subject key identifier extension cannot be parsed
+   */
+  public static Fingerprint getSubjectKeyIdentifier(X509Certificate cert) {
+
+    Fingerprint skid = SUBJECT_KEY_IDENTIFIERS.get(cert);
+
+    if (skid != null)
+      return skid;
+
+    byte[] extensionValue = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+
+    if (extensionValue == null)
+      return null;
+
+    SubjectKeyIdentifier subjectKeyIdentifier = SubjectKeyIdentifier
+      .getInstance(ASN1OctetString.getInstance(extensionValue).getOctets());
+
+    skid = new Fingerprint(subjectKeyIdentifier.getKeyIdentifier());
+    SUBJECT_KEY_IDENTIFIERS.putIfAbsent(cert, skid);
+
+    return skid;
+  }
+}
@@ -24,6 +24,7 @@ import org.italiangrid.voms.request.VOMSWarningMessage;
 import org.italiangrid.voms.store.LSCInfo;
 import org.italiangrid.voms.store.VOMSTrustStore;
 import org.italiangrid.voms.store.VOMSTrustStoreStatusListener;
+import org.italiangrid.voms.store.VOMSTrustStoreUpdateListener;
 
 /**
  * 
@@ -34,8 +35,8 @@ import org.italiangrid.voms.store.VOMSTrustStoreStatusListener;
  */
 public enum NullListener implements ACLookupListener, ValidationResultListener,
   VOMSServerInfoStoreListener, LoadCredentialsEventListener,
-  VOMSTrustStoreStatusListener, UncaughtExceptionHandler, VOMSRequestListener,
-  VOMSProtocolListener {
+  VOMSTrustStoreStatusListener, VOMSTrustStoreUpdateListener,
+  UncaughtExceptionHandler, VOMSRequestListener, VOMSProtocolListener {
 
   INSTANCE;
 
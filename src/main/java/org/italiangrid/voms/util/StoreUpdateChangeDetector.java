@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.StoreUpdateListener.Severity;
+
+/**
+ * Tells whether a trust anchor or CRL store update notification reports an
+ * actual change of the trust material.
+ * <p>
+ * CANL stores notify every file they load on every periodic reload, whether
+ * the file changed or not. This class remembers, for each notified local file,
+ * the digest of its content and the severity of the last notification, and
+ * reports a change only when either differs from what was seen before. The
+ * first notification for a location, and notifications for locations that are
+ * not local files, are always reported as changes.
+ * </p>
+ * <p>
+ * OCSP notifications are never reported as changes.
+ * </p>
+ *
+ */
+public class StoreUpdateChangeDetector {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  /** The state of the notified locations, keyed by location **/
+  private final ConcurrentMap<String, Fingerprint> locationStates = new ConcurrentHashMap<String, Fingerprint>();
+
+  /**
+   * Tells whether a store update notification reports a change.
+   *
+   * @param location
+   *          the location of the updated trust material
+   * @param type
+   *          the type of the updated trust material
+   * @param level
+   *          the severity of the notification
+   * @return <code>true</code> if the trust material at the location may have
+   *         changed since the last notification, <code>false</code> otherwise
+   */
+  public boolean isChange(String location, String type, Severity level) {
+
+    if (StoreUpdateListener.OCSP.equals(type))
+      return false;
+
+    File file = getLocalFile(location);
+
+    if (file == null)
+      return true;
+
+    Fingerprint state = getState(file, level);
+    Fingerprint previousState = locationStates.put(location, state);
+
+    return !state.equals(previousState);
+  }
+
+  private static File getLocalFile(String location) {
+
+    if (location == null)
+      return null;
+
+    try {
+
+      if (location.startsWith("file:"))
+        return new File(new URI(location));
+
+      // Plain paths have no URI scheme
+      if (location.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:.*"))
+        return null;
+
+      return new File(location);
+
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Fingerprint getState(File file, Severity level) {
+
+    byte[] severity = new byte[] { (byte) (level == null ? -1 : level
+      .ordinal()) };
+
+    if (!file.isFile())
+      return new Fingerprint(severity);
+
+    try {
+
+      MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      return new Fingerprint(severity).append(new Fingerprint(md.digest(Files
+        .readAllBytes(file.toPath()))));
+
+    } catch (IOException e) {
+      return new Fingerprint(severity);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe, bounded pool of canonical strings.
+ * <p>
+ * Strings are looked up by content, either from a range of bytes or from a
+ * range of characters of another string, and the pooled instance is returned
+ * without allocating a new string when the content is already in the pool. The
+ * pool is a fixed size, set associative table: each string maps to a set of
+ * {@link #WAYS} slots, and is stored in a free slot of its set. When the set
+ * is full, a randomly chosen string of the set is replaced, so the pool never
+ * holds more strings than its size, and strings only evict each other when
+ * more than {@link #WAYS} of them map to the same set.
+ * </p>
+ * <p>
+ * Only ASCII byte sequences are pooled when decoding bytes. Other byte
+ * sequences are decoded with the platform default charset, as
+ * {@link String#String(byte[], int, int)} does, and then looked up by content.
+ * </p>
+ *
+ */
+public class StringPool {
+
+  /** The default number of strings held by a pool **/
+  public static final int DEFAULT_SIZE = 4096;
+
+  /** The number of slots in each set of the pool **/
+  public static final int WAYS = 8;
+
+  private final AtomicReferenceArray<String> table;
+
+  /** The number of slots in each set, less than {@link #WAYS} for tiny pools **/
+  private final int ways;
+
+  private final int setMask;
+
+  /**
+   * Builds a pool holding at most {@link #DEFAULT_SIZE} strings.
+   */
+  public StringPool() {
+
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Builds a pool holding at most <code>size</code> strings, rounded up to the
+   * next power of two.
+   *
+   * @param size
+   *          the pool size
+   */
+  public StringPool(int size) {
+
+    if (size <= 0 || size > (1 << 30))
+      throw new IllegalArgumentException(
+        "Please provide a pool size between 1 and 2^30.");
+
+    int capacity = Integer.highestOneBit(size);
+
+    if (capacity < size)
+      capacity <<= 1;
+
+    table = new AtomicReferenceArray<String>(capacity);
+    ways = Math.min(WAYS, capacity);
+    setMask = capacity / ways - 1;
+  }
+
+  /**
+   * Returns the canonical string for a range of bytes.
+   *
+   * @param bytes
+   *          the bytes
+   * @param offset
+   *          the offset of the first byte
+   * @param length
+   *          the number of bytes
+   * @return the canonical string
+   */
+  public String intern(byte[] bytes, int offset, int length) {
+
+    int hash = 0;
+
+    for (int i = offset; i < offset + length; i++) {
+
+      if (bytes[i] < 0)
+        return intern(new String(bytes, offset, length));
+
+      hash = 31 * hash + bytes[i];
+    }
+
+    int firstSlot = getFirstSlot(hash);
+
+    for (int slot = firstSlot; slot < firstSlot + ways; slot++) {
+
+      String candidate = table.get(slot);
+
+      if (candidate == null)
+        break;
+
+      if (contentEquals(candidate, bytes, offset, length))
+        return candidate;
+    }
+
+    String s = new String(bytes, offset, length);
+    store(firstSlot, s);
+
+    return s;
+  }
+
+  /**
+   * Returns the canonical string for an array of bytes.
+   *
+   * @param bytes
+   *          the bytes
+   * @return the canonical string
+   */
+  public String intern(byte[] bytes) {
+
+    return intern(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Returns the canonical string for a substring of a string.
+   *
+   * @param s
+   *          the string
+   * @param beginIndex
+   *          the beginning index, inclusive
+   * @param endIndex
+   *          the ending index, exclusive
+   * @return the canonical string
+   */
+  public String intern(String s, int beginIndex, int endIndex) {
+
+    int hash = 0;
+
+    for (int i = beginIndex; i < endIndex; i++)
+      hash = 31 * hash + s.charAt(i);
+
+    int firstSlot = getFirstSlot(hash);
+    int length = endIndex - beginIndex;
+
+    for (int slot = firstSlot; slot < firstSlot + ways; slot++) {
+
+      String candidate = table.get(slot);
+
+      if (candidate == null)
+        break;
+
+      if (candidate.length() == length
+        && candidate.regionMatches(0, s, beginIndex, length))
+        return candidate;
+    }
+
+    String canonical = s.substring(beginIndex, endIndex);
+    store(firstSlot, canonical);
+
+    return canonical;
+  }
+
+  /**
+   * Returns the canonical string for a string.
+   *
+   * @param s
+   *          the string
+   * @return the canonical string
+   */
+  public String intern(String s) {
+
+    return intern(s, 0, s.length());
+  }
+
+  private int getFirstSlot(int hash) {
+
+    return ((hash ^ (hash >>> 16)) & setMask) * ways;
+  }
+
+  /**
+   * Stores a string in the first free slot of a set, or in a random slot when
+   * the set is full. Slots are only filled in order, so that lookups can stop
+   * at the first free slot.
+   */
+  private void store(int firstSlot, String s) {
+
+    for (int slot = firstSlot; slot < firstSlot + ways; slot++) {
+      if (table.get(slot) == null && table.compareAndSet(slot, null, s))
+        return;
+    }
+
+    table.set(firstSlot + ThreadLocalRandom.current().nextInt(ways), s);
+  }
+
+  private static boolean contentEquals(String s, byte[] bytes, int offset,
+    int length) {
+
+    if (s.length() != length)
+      return false;
+
+    for (int i = 0; i < length; i++) {
+      if (s.charAt(i) != bytes[offset + i])
+        return false;
+    }
+
+    return true;
+  }
+}
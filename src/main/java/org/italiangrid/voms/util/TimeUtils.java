@@ -10,8 +10,8 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.format.ResolverStyle;
-import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Time utilities.
@@ -44,27 +44,37 @@ public class TimeUtils {
   public static boolean checkTimeInRangeWithSkew(Date timeToCheck, Date startDate, Date endDate,
       int skewInMinutes) {
 
-    if (startDate.after(endDate) || startDate.equals(endDate)) {
+    return checkTimeInRangeWithSkew(timeToCheck.getTime(), startDate.getTime(),
+        endDate.getTime(), skewInMinutes);
+  }
+
+  /**
+   * Checks that a time falls in the interval allowing for a certain clock skew expressed in
+   * minutes, like {@link #checkTimeInRangeWithSkew(Date, Date, Date, int)}, but with all times
+   * expressed in milliseconds since the epoch. This method does not allocate any object unless
+   * the time range is illegal.
+   * 
+   * @param timeToCheck the time to be checked, in milliseconds since the epoch
+   * @param startTime the start of the time range, in milliseconds since the epoch
+   * @param endTime the end of the time range, in milliseconds since the epoch
+   * @param skewInMinutes the clock skew in minutes to take into account
+   * 
+   * @throws IllegalArgumentException if passed an illegal time range
+   * @return <code>true</code>, if the time is in the given range, <code>false</code> otherwise
+   */
+  public static boolean checkTimeInRangeWithSkew(long timeToCheck, long startTime, long endTime,
+      int skewInMinutes) {
+
+    if (startTime >= endTime) {
       String msg = String.format(
           "Illegal time interval: start date must be before end date. [start date: %s, end date: %s]",
-          startDate, endDate);
+          new Date(startTime), new Date(endTime));
       throw new IllegalArgumentException(msg);
     }
 
-    Calendar cal = Calendar.getInstance();
-    cal.setTime(startDate);
-    cal.add(Calendar.MINUTE, -skewInMinutes);
-
-    Date skewedStartDate = cal.getTime();
-
-    cal.clear();
-    cal.setTime(endDate);
-    cal.add(Calendar.MINUTE, skewInMinutes);
-
-    Date skewedEndDate = cal.getTime();
-
-    return skewedEndDate.after(timeToCheck) && skewedStartDate.before(timeToCheck);
+    long skewInMillis = TimeUnit.MINUTES.toMillis(skewInMinutes);
 
+    return endTime + skewInMillis > timeToCheck && startTime - skewInMillis < timeToCheck;
   }
 
 
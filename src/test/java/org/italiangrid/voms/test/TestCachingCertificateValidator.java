@@ -0,0 +1,521 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.cert.CertPath;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.italiangrid.voms.util.CachingCertificateValidator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import eu.emi.security.authn.x509.NamespaceCheckingMode;
+import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.StoreUpdateListener.Severity;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.helpers.trust.OpensslTruststoreHelper;
+import eu.emi.security.authn.x509.impl.OpensslCertChainValidator;
+import eu.emi.security.authn.x509.impl.PEMCredential;
+import eu.emi.security.authn.x509.impl.RevocationParametersExt;
+import eu.emi.security.authn.x509.impl.ValidatorParamsExt;
+import eu.emi.security.authn.x509.proxy.ProxyCertificateOptions;
+import eu.emi.security.authn.x509.proxy.ProxyGenerator;
+
+public class TestCachingCertificateValidator {
+
+  X509CertChainValidatorExt wrappedValidator;
+
+  @Rule
+  public TemporaryFolder trustAnchorsDir = new TemporaryFolder();
+
+  static X509Certificate[] newChain(int id) throws CertificateEncodingException {
+
+    X509Certificate cert = mock(X509Certificate.class);
+    when(cert.getEncoded()).thenReturn(new byte[] { (byte) (id >> 8), (byte) id });
+    return new X509Certificate[] { cert };
+  }
+
+  static X509Certificate[] newChain(int id, X500Principal issuer)
+    throws CertificateEncodingException {
+
+    X509Certificate[] chain = newChain(id);
+    when(chain[0].getIssuerX500Principal()).thenReturn(issuer);
+    return chain;
+  }
+
+  static X509Certificate[] newProxyChain(PEMCredential cred, Date notBefore,
+    Date notAfter) throws Exception {
+
+    ProxyCertificateOptions options = new ProxyCertificateOptions(
+      cred.getCertificateChain());
+    options.setValidityBounds(notBefore, notAfter);
+
+    return ProxyGenerator.generate(options, cred.getKey())
+      .getCertificateChain();
+  }
+
+  StoreUpdateListener getStoreUpdateListener() {
+
+    ArgumentCaptor<StoreUpdateListener> captor = ArgumentCaptor
+      .forClass(StoreUpdateListener.class);
+    verify(wrappedValidator).addUpdateListener(captor.capture());
+    return captor.getValue();
+  }
+
+  @Before
+  public void setup() {
+
+    wrappedValidator = mock(X509CertChainValidatorExt.class);
+    when(wrappedValidator.validate(any(X509Certificate[].class)))
+      .thenReturn(new ValidationResult(true));
+  }
+
+  @Test
+  public void testCachedResultIsReused() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.MINUTES.toMillis(5));
+
+    X509Certificate[] chain = newChain(1);
+
+    assertTrue(validator.validate(chain).isValid());
+    assertTrue(validator.validate(chain).isValid());
+
+    verify(wrappedValidator, times(1)).validate(chain);
+    assertEquals(1, validator.getCacheSize());
+  }
+
+  @Test
+  public void testCertPathValidationSharesCache() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.MINUTES.toMillis(5));
+
+    X509Certificate[] chain = newChain(1);
+
+    CertPath certPath = mock(CertPath.class);
+    doReturn(Arrays.asList(chain)).when(certPath).getCertificates();
+
+    assertTrue(validator.validate(certPath).isValid());
+    assertTrue(validator.validate(certPath).isValid());
+    assertTrue(validator.validate(chain).isValid());
+
+    verify(wrappedValidator, times(1)).validate(any(X509Certificate[].class));
+    verify(wrappedValidator, never()).validate(any(CertPath.class));
+  }
+
+  @Test
+  public void testBoundedCacheDoesNotGrowPastMaxEntries() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.MINUTES.toMillis(5), 10);
+
+    for (int i = 0; i < 100; i++) {
+      validator.validate(newChain(i));
+      assertTrue(validator.getCacheSize() <= 10);
+    }
+
+    assertEquals(10, validator.getCacheSize());
+  }
+
+  @Test
+  public void testRecentlyUsedEntriesSurviveEviction() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.MINUTES.toMillis(5), 10);
+
+    X509Certificate[] hotChain = newChain(0);
+    validator.validate(hotChain);
+
+    for (int i = 1; i < 100; i++) {
+      validator.validate(newChain(i));
+      validator.validate(hotChain);
+    }
+
+    verify(wrappedValidator, times(1)).validate(hotChain);
+  }
+
+  @Test
+  public void testEvictionQueueDoesNotGrowWithExpiredEntries()
+    throws Exception {
+
+    class QueueSizeValidator extends CachingCertificateValidator {
+
+      QueueSizeValidator() {
+
+        super(wrappedValidator, -1, 10);
+      }
+
+      int evictionQueueSize() {
+
+        return getEvictionQueueSize();
+      }
+    }
+
+    QueueSizeValidator validator = new QueueSizeValidator();
+
+    X509Certificate[] chain1 = newChain(1);
+    X509Certificate[] chain2 = newChain(2);
+
+    // Entries expire right away, so every validation replaces the entry
+    for (int i = 0; i < 1000; i++) {
+      validator.validate(chain1);
+      validator.validate(chain2);
+      assertTrue(validator.evictionQueueSize() <= 20);
+    }
+  }
+
+  @Test
+  public void testExpiredEntriesArePurged() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, -1);
+
+    for (int i = 0; i < 10; i++) {
+      validator.validate(newChain(i));
+    }
+
+    assertEquals(10, validator.getCacheSize());
+    validator.purgeExpiredEntries();
+    assertEquals(0, validator.getCacheSize());
+  }
+
+  @Test
+  public void testSweeperPurgesExpiredEntries() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, -1, 10, 10);
+
+    try {
+
+      for (int i = 0; i < 10; i++) {
+        validator.validate(newChain(i));
+      }
+
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+
+      while (validator.getCacheSize() > 0
+        && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+
+      assertEquals(0, validator.getCacheSize());
+
+    } finally {
+      validator.dispose();
+    }
+  }
+
+  @Test
+  public void testConcurrentMissesAreCoalesced() throws Exception {
+
+    final CountDownLatch validationStarted = new CountDownLatch(1);
+    final CountDownLatch releaseValidation = new CountDownLatch(1);
+
+    when(wrappedValidator.validate(any(X509Certificate[].class)))
+      .thenAnswer(new Answer<ValidationResult>() {
+
+        public ValidationResult answer(InvocationOnMock invocation)
+          throws Throwable {
+
+          validationStarted.countDown();
+          releaseValidation.await();
+          return new ValidationResult(true);
+        }
+      });
+
+    final CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.MINUTES.toMillis(5));
+
+    final X509Certificate[] chain = newChain(1);
+    final int numThreads = 10;
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    List<Future<ValidationResult>> results = new ArrayList<Future<ValidationResult>>();
+
+    try {
+
+      for (int i = 0; i < numThreads; i++) {
+        results.add(pool.submit(new Callable<ValidationResult>() {
+
+          public ValidationResult call() throws Exception {
+
+            return validator.validate(chain);
+          }
+        }));
+      }
+
+      validationStarted.await();
+      // Give the other threads a chance to join the pending validation
+      Thread.sleep(100);
+      releaseValidation.countDown();
+
+      for (Future<ValidationResult> r : results) {
+        assertTrue(r.get(5, TimeUnit.SECONDS).isValid());
+      }
+
+    } finally {
+      pool.shutdownNow();
+    }
+
+    verify(wrappedValidator, times(1)).validate(chain);
+  }
+
+  @Test
+  public void testStoreUpdateDuringValidationIsNotOverwritten()
+    throws Exception {
+
+    final CountDownLatch validationStarted = new CountDownLatch(1);
+    final CountDownLatch releaseValidation = new CountDownLatch(1);
+
+    when(wrappedValidator.validate(any(X509Certificate[].class)))
+      .thenAnswer(new Answer<ValidationResult>() {
+
+        public ValidationResult answer(InvocationOnMock invocation)
+          throws Throwable {
+
+          validationStarted.countDown();
+          releaseValidation.await();
+          return new ValidationResult(true);
+        }
+      });
+
+    final CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.HOURS.toMillis(5));
+
+    final X509Certificate[] chain = newChain(1);
+    StoreUpdateListener listener = getStoreUpdateListener();
+
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+
+    try {
+
+      Future<ValidationResult> result = pool
+        .submit(new Callable<ValidationResult>() {
+
+          public ValidationResult call() throws Exception {
+
+            return validator.validate(chain);
+          }
+        });
+
+      validationStarted.await();
+
+      listener.loadingNotification("http://crl.example.org/ca.crl",
+        StoreUpdateListener.CRL, Severity.NOTIFICATION, null);
+
+      releaseValidation.countDown();
+      assertTrue(result.get(5, TimeUnit.SECONDS).isValid());
+
+    } finally {
+      pool.shutdownNow();
+    }
+
+    assertEquals(0, validator.getCacheSize());
+
+    validator.validate(chain);
+    verify(wrappedValidator, times(2)).validate(chain);
+  }
+
+  @Test
+  public void testEntryLifetimeIsCappedByChainExpiration() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.HOURS.toMillis(5));
+
+    X509Certificate[] chain = newChain(1);
+    when(chain[0].getNotAfter())
+      .thenReturn(new Date(System.currentTimeMillis() - 1));
+
+    validator.validate(chain);
+    validator.validate(chain);
+
+    verify(wrappedValidator, times(2)).validate(chain);
+  }
+
+  @Test
+  public void testStoreUpdateInvalidatesEntriesByIssuer() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.HOURS.toMillis(5));
+
+    X500Principal ca1 = new X500Principal("CN=CA 1,O=IGI,C=IT");
+    X500Principal ca2 = new X500Principal("CN=CA 2,O=IGI,C=IT");
+
+    validator.validate(newChain(1, ca1));
+    validator.validate(newChain(2, ca2));
+    assertEquals(2, validator.getCacheSize());
+
+    StoreUpdateListener listener = getStoreUpdateListener();
+
+    String ca1Hash = OpensslTruststoreHelper.getOpenSSLCAHash(ca1, true);
+
+    listener.loadingNotification(
+      "file:/etc/grid-security/certificates/" + ca1Hash + ".r0",
+      StoreUpdateListener.CRL, Severity.NOTIFICATION, null);
+
+    assertEquals(1, validator.getCacheSize());
+
+    listener.loadingNotification("file:/etc/grid-security/certificates/ca.pem",
+      StoreUpdateListener.CA_CERT, Severity.NOTIFICATION, null);
+
+    assertEquals(0, validator.getCacheSize());
+  }
+
+  @Test
+  public void testUnchangedStoreReloadKeepsEntries() throws Exception {
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      wrappedValidator, TimeUnit.HOURS.toMillis(5));
+
+    X500Principal ca = new X500Principal("CN=CA 1,O=IGI,C=IT");
+    String caHash = OpensslTruststoreHelper.getOpenSSLCAHash(ca, true);
+
+    File crl = trustAnchorsDir.newFile(caHash + ".r0");
+    Files.write(crl.toPath(), new byte[] { 1 });
+
+    String location = crl.toURI().toString();
+    StoreUpdateListener listener = getStoreUpdateListener();
+
+    listener.loadingNotification(location, StoreUpdateListener.CRL,
+      Severity.NOTIFICATION, null);
+
+    validator.validate(newChain(1, ca));
+    assertEquals(1, validator.getCacheSize());
+
+    listener.loadingNotification(location, StoreUpdateListener.CRL,
+      Severity.NOTIFICATION, null);
+    assertEquals(1, validator.getCacheSize());
+
+    listener.loadingNotification(location, StoreUpdateListener.CRL,
+      Severity.ERROR, null);
+    assertEquals(0, validator.getCacheSize());
+
+    validator.validate(newChain(1, ca));
+
+    listener.loadingNotification(location, StoreUpdateListener.CRL,
+      Severity.ERROR, null);
+    assertEquals(1, validator.getCacheSize());
+
+    Files.write(crl.toPath(), new byte[] { 2 });
+
+    listener.loadingNotification(location, StoreUpdateListener.CRL,
+      Severity.ERROR, null);
+    assertEquals(0, validator.getCacheSize());
+  }
+
+  @Test
+  public void testProxiesOfCachedEECReuseValidation() throws Exception {
+
+    X509CertChainValidatorExt realValidator = mock(
+      X509CertChainValidatorExt.class,
+      AdditionalAnswers.delegatesTo(Utils.getCertificateValidator()));
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      realValidator, TimeUnit.MINUTES.toMillis(5));
+
+    try {
+
+      PEMCredential cred = Utils.getTestUserCredential();
+      Date now = new Date();
+      Date inOneHour = new Date(now.getTime() + TimeUnit.HOURS.toMillis(1));
+
+      X509Certificate[] proxy1 = newProxyChain(cred, now, inOneHour);
+      X509Certificate[] proxy2 = newProxyChain(cred, now, inOneHour);
+
+      assertTrue(validator.validate(proxy1).isValid());
+
+      ValidationResult res = validator.validate(proxy2);
+      assertTrue(res.isValid());
+      assertEquals(proxy2[0], res.getValidChain().get(0));
+
+      verify(realValidator, times(1)).validate(any(X509Certificate[].class));
+
+      X509Certificate[] expiredProxy = newProxyChain(cred,
+        new Date(now.getTime() - TimeUnit.HOURS.toMillis(2)),
+        new Date(now.getTime() - TimeUnit.HOURS.toMillis(1)));
+
+      assertFalse(validator.validate(expiredProxy).isValid());
+      verify(realValidator, times(1)).validate(expiredProxy);
+
+    } finally {
+      validator.dispose();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeMaxEntriesFailure() {
+
+    new CachingCertificateValidator(wrappedValidator, 10, -1);
+  }
+
+  @Test
+  public void testProxiesOfCachedEECAreRejectedWhenProxiesAreDenied()
+    throws Exception {
+
+    X509CertChainValidatorExt denyingValidator = mock(
+      X509CertChainValidatorExt.class,
+      AdditionalAnswers.delegatesTo(new OpensslCertChainValidator(
+        Fixture.trustAnchorsDir, false, NamespaceCheckingMode.IGNORE, -1,
+        new ValidatorParamsExt(RevocationParametersExt.IGNORE,
+          ProxySupport.DENY))));
+
+    CachingCertificateValidator validator = new CachingCertificateValidator(
+      denyingValidator, TimeUnit.MINUTES.toMillis(5));
+
+    try {
+
+      PEMCredential cred = Utils.getTestUserCredential();
+      Date now = new Date();
+
+      assertTrue(validator.validate(cred.getCertificateChain()).isValid());
+
+      X509Certificate[] proxy = newProxyChain(cred, now,
+        new Date(now.getTime() + TimeUnit.HOURS.toMillis(1)));
+
+      assertFalse(validator.validate(proxy).isValid());
+      verify(denyingValidator, times(1)).validate(proxy);
+
+    } finally {
+      validator.dispose();
+    }
+  }
+}
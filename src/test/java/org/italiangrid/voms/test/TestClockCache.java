@@ -0,0 +1,127 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.italiangrid.voms.util.ClockCache;
+import org.junit.Test;
+
+public class TestClockCache {
+
+  @Test
+  public void testCacheIsBounded() {
+
+    ClockCache<Integer, String> cache = new ClockCache<Integer, String>(10);
+
+    for (int i = 0; i < 1000; i++)
+      cache.put(i, Integer.toString(i));
+
+    assertEquals(10, cache.size());
+    assertEquals("999", cache.get(999));
+  }
+
+  @Test
+  public void testReferencedEntriesGetASecondChance() {
+
+    ClockCache<Integer, String> cache = new ClockCache<Integer, String>(2);
+
+    cache.put(1, "1");
+    cache.put(2, "2");
+
+    cache.get(1);
+    cache.put(3, "3");
+
+    assertEquals("1", cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals("3", cache.get(3));
+  }
+
+  @Test
+  public void testRemoveChecksValue() {
+
+    ClockCache<Integer, String> cache = new ClockCache<Integer, String>(2);
+
+    String value = "1";
+    cache.put(1, value);
+
+    assertFalse(cache.remove(1, new String("1")));
+    assertTrue(cache.remove(1, value));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testPutIfAbsentKeepsCachedValue() {
+
+    ClockCache<Integer, String> cache = new ClockCache<Integer, String>(2);
+
+    String value = "1";
+
+    assertNull(cache.putIfAbsent(1, value));
+    assertSame(value, cache.putIfAbsent(1, new String("1")));
+    assertSame(value, cache.get(1));
+  }
+
+  @Test
+  public void testConcurrentPutIfAbsentAgreesOnValue() throws Exception {
+
+    final ClockCache<Integer, Object> cache = new ClockCache<Integer, Object>(
+      10);
+
+    final int numThreads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+
+    try {
+
+      for (int i = 0; i < numThreads; i++) {
+        results.add(pool.submit(new Callable<Object>() {
+
+          public Object call() throws Exception {
+
+            Object value = new Object();
+            start.await();
+
+            Object cachedValue = cache.putIfAbsent(1, value);
+            return cachedValue != null ? cachedValue : value;
+          }
+        }));
+      }
+
+      start.countDown();
+
+      Object winner = results.get(0).get();
+
+      for (Future<Object> r : results) {
+        assertSame(winner, r.get());
+      }
+
+      assertSame(winner, cache.get(1));
+
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+
+    new ClockCache<Integer, String>(0);
+  }
+}
@@ -7,14 +7,18 @@
  */
 package org.italiangrid.voms.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collections;
@@ -22,8 +26,11 @@ import java.util.List;
 
 import org.italiangrid.voms.VOMSError;
 import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.util.KeyIdentifierHelper;
 import org.italiangrid.voms.util.NullListener;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import eu.emi.security.authn.x509.impl.CertificateUtils;
 import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
@@ -34,6 +41,9 @@ import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
  */
 public class TestDefaultVOMSTrustStore {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test(expected = VOMSError.class)
   public void testEmptyTrustDirsFailure() {
 
@@ -121,6 +131,85 @@ public class TestDefaultVOMSTrustStore {
 
   }
 
+  @Test
+  public void testCertificatesSharingSubjectAreIndexedByKeyIdentifier() throws Exception {
+
+    String[] certFileNames = {"src/test/resources/certs/test_host_cnaf_infn_it.cert.pem",
+        "src/test/resources/certs/test_host_2_cnaf_infn_it.cert.pem"};
+
+    for (String certFileName : certFileNames) {
+      File certFile = new File(certFileName);
+      Files.copy(certFile.toPath(), new File(folder.getRoot(), certFile.getName()).toPath());
+    }
+
+    DefaultVOMSTrustStore store =
+        new DefaultVOMSTrustStore(Arrays.asList(folder.getRoot().getAbsolutePath()));
+
+    assertEquals(2, store.getLocalAACertificates().size());
+
+    for (String certFileName : certFileNames) {
+
+      X509Certificate cert =
+          CertificateUtils.loadCertificate(new FileInputStream(certFileName), Encoding.PEM);
+
+      byte[] skid = KeyIdentifierHelper.getSubjectKeyIdentifier(cert).getBytes();
+      List<X509Certificate> certs = store.getAACertificatesByKeyIdentifier(skid);
+
+      assertEquals(1, certs.size());
+      assertArrayEquals(cert.getEncoded(), certs.get(0).getEncoded());
+    }
+
+    assertTrue(store.getAACertificatesByKeyIdentifier(new byte[] {1, 2, 3}).isEmpty());
+  }
+
+  @Test
+  public void testMostRecentlyIssuedCertificateIsReturnedBySubject() throws Exception {
+
+    String[] certFileNames = {"src/test/resources/certs/test_host_cnaf_infn_it.cert.pem",
+        "src/test/resources/certs/test_host_2_cnaf_infn_it.cert.pem"};
+
+    for (String certFileName : certFileNames) {
+      File certFile = new File(certFileName);
+      Files.copy(certFile.toPath(), new File(folder.getRoot(), certFile.getName()).toPath());
+    }
+
+    // Both certificates have the same validity period, so the one with the highest serial
+    // number is the most recently issued
+    X509Certificate mostRecent =
+        CertificateUtils.loadCertificate(new FileInputStream(certFileNames[1]), Encoding.PEM);
+
+    DefaultVOMSTrustStore store =
+        new DefaultVOMSTrustStore(Arrays.asList(folder.getRoot().getAbsolutePath()));
+
+    X509Certificate cert = store.getAACertificateBySubject(mostRecent.getSubjectX500Principal());
+
+    assertArrayEquals(mostRecent.getEncoded(), cert.getEncoded());
+
+    byte[] skid = KeyIdentifierHelper.getSubjectKeyIdentifier(mostRecent).getBytes();
+    assertSame(store.getAACertificatesByKeyIdentifier(skid),
+        store.getAACertificatesByKeyIdentifier(skid));
+  }
+
+  @Test
+  public void testVerifierProvidersAreHeldByTheStore() throws Exception {
+
+    String certFileName = "src/test/resources/vomsdir/test-host.cnaf.infn.it.pem";
+
+    DefaultVOMSTrustStore store =
+        new DefaultVOMSTrustStore(Arrays.asList("src/test/resources/vomsdir"));
+
+    X509Certificate aaCert = store.getLocalAACertificates().get(0);
+
+    assertNotNull(store.getAAVerifierProvider(aaCert));
+    assertSame(store.getAAVerifierProvider(aaCert),
+        store.getSnapshot().getAAVerifierProvider(aaCert));
+
+    X509Certificate otherInstance =
+        CertificateUtils.loadCertificate(new FileInputStream(certFileName), Encoding.PEM);
+
+    assertNull(store.getAAVerifierProvider(otherInstance));
+  }
+
   public void testUpdatingVOMSTrustStore() {
 
   }
@@ -4,6 +4,10 @@
 
 package org.italiangrid.voms.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -11,6 +15,7 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 
+import org.italiangrid.voms.util.Fingerprint;
 import org.italiangrid.voms.util.FingerprintHelper;
 import org.junit.Test;
 
@@ -38,4 +43,34 @@ public class TestFingerprint {
 
   }
 
+  @Test
+  public void testCertificateFingerprintIsMemoized() throws Exception {
+
+    PEMCredential cred = new PEMCredential(new FileInputStream(pemKey),
+      new FileInputStream(pemCert), keyPassword.toCharArray());
+
+    Fingerprint fingerprint = FingerprintHelper
+      .getCertificateFingerprint(cred.getCertificate());
+
+    assertSame(fingerprint,
+      FingerprintHelper.getCertificateFingerprint(cred.getCertificate()));
+    assertEquals(FingerprintHelper.getFingerprint(cred.getCertificate()),
+      fingerprint.toString());
+    assertEquals(40, fingerprint.toString().length());
+  }
+
+  @Test
+  public void testFingerprintEquality() {
+
+    Fingerprint f1 = new Fingerprint(new byte[] { 0x0a, (byte) 0xff });
+    Fingerprint f2 = new Fingerprint(new byte[] { 0x0a, (byte) 0xff });
+    Fingerprint f3 = new Fingerprint(new byte[] { 0x0a });
+
+    assertEquals(f1, f2);
+    assertEquals(f1.hashCode(), f2.hashCode());
+    assertNotEquals(f1, f3);
+    assertEquals("0aff", f1.toString());
+    assertEquals(f1, f3.append(new Fingerprint(new byte[] { (byte) 0xff })));
+  }
+
 }
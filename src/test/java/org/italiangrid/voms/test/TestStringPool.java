@@ -0,0 +1,84 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.italiangrid.voms.util.StringPool;
+import org.junit.Test;
+
+public class TestStringPool {
+
+  @Test
+  public void testBytesAreInterned() {
+
+    StringPool pool = new StringPool();
+
+    byte[] bytes = "xx/test.vo/Role=NULL".getBytes();
+
+    String fqan = pool.intern(bytes, 2, bytes.length - 2);
+
+    assertEquals("/test.vo/Role=NULL", fqan);
+    assertSame(fqan, pool.intern("/test.vo/Role=NULL".getBytes()));
+    assertSame(fqan, pool.intern(new String("/test.vo/Role=NULL")));
+  }
+
+  @Test
+  public void testSubstringsAreInterned() {
+
+    StringPool pool = new StringPool();
+
+    String host = pool.intern("test.vo://test-host.cnaf.infn.it:15000", 10,
+      32);
+
+    assertEquals("test-host.cnaf.infn.it", host);
+    assertSame(host, pool.intern("test-host.cnaf.infn.it".getBytes()));
+  }
+
+  @Test
+  public void testPoolIsBounded() {
+
+    StringPool pool = new StringPool(1);
+
+    String vo = pool.intern("test.vo");
+    String otherVo = pool.intern("test.vo.2");
+
+    assertSame(otherVo, pool.intern(new String("test.vo.2")));
+    assertNotSame(vo, pool.intern(new String("test.vo")));
+  }
+
+  @Test
+  public void testStringsMappingToTheSameSetAreKept() {
+
+    StringPool pool = new StringPool(StringPool.WAYS);
+
+    String[] fqans = new String[StringPool.WAYS];
+
+    for (int i = 0; i < fqans.length; i++)
+      fqans[i] = pool.intern("/test.vo/G" + i);
+
+    for (int i = 0; i < fqans.length; i++)
+      assertSame(fqans[i], pool.intern(("/test.vo/G" + i).getBytes()));
+  }
+
+  @Test
+  public void testNonASCIIBytes() {
+
+    StringPool pool = new StringPool();
+
+    byte[] bytes = new byte[] { '/', (byte) 0xe8 };
+
+    assertEquals(new String(bytes), pool.intern(bytes));
+    assertSame(pool.intern(bytes), pool.intern(bytes));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+
+    new StringPool(0);
+  }
+}
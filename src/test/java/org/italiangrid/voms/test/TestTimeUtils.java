@@ -86,4 +86,25 @@ public class TestTimeUtils {
 
   }
 
+  @Test
+  public void testEpochMillisBounds() {
+
+    long start = 1000000000000L;
+    long end = start + 60000;
+
+    Assert.assertTrue(TimeUtils.checkTimeInRangeWithSkew(start, start, end, 1));
+    Assert.assertTrue(TimeUtils.checkTimeInRangeWithSkew(end + 59999, start,
+      end, 1));
+    Assert.assertFalse(TimeUtils.checkTimeInRangeWithSkew(end + 60000, start,
+      end, 1));
+    Assert.assertFalse(TimeUtils.checkTimeInRangeWithSkew(start - 60000, start,
+      end, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEpochMillisSameArgumentFailure() {
+
+    TimeUtils.checkTimeInRangeWithSkew(0L, 0L, 0L, 1);
+  }
+
 }
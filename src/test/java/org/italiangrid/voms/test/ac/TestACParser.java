@@ -7,17 +7,41 @@ package org.italiangrid.voms.test.ac;
 import java.io.IOException;
 import java.security.KeyStoreException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.BERSequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.AttributeCertificate;
+import org.bouncycastle.asn1.x509.AttributeCertificateInfo;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.junit.Assert;
 
 import org.italiangrid.voms.VOMSAttribute;
 import org.italiangrid.voms.VOMSError;
+import org.italiangrid.voms.VOMSFQANInfo;
+import org.italiangrid.voms.ac.VOMSACParser;
 import org.italiangrid.voms.ac.impl.DefaultVOMSACParser;
+import org.italiangrid.voms.ac.impl.LeafACLookupStrategy;
+import org.italiangrid.voms.ac.impl.VOMSAttributesImpl;
+import org.italiangrid.voms.asn1.VOMSACUtils;
+import org.italiangrid.voms.asn1.VOMSConstants;
 import org.italiangrid.voms.test.utils.Fixture;
 import org.italiangrid.voms.test.utils.Utils;
 import org.italiangrid.voms.test.utils.VOMSAA;
+import org.italiangrid.voms.util.NullListener;
+import org.italiangrid.voms.util.StringPool;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -50,6 +74,312 @@ public class TestACParser implements Fixture {
     Assert.assertEquals(defaultVOFqans, attrs.get(0).getFQANs());
   }
 
+  @Test
+  public void testLazilyDecodedFields() throws Exception {
+
+    PEMCredential holder = Utils.getTestUserCredential();
+    ProxyCertificate proxy = aa.createVOMSProxy(holder, defaultVOFqans, null,
+      Arrays.asList("test-host.cnaf.infn.it"));
+
+    VOMSAttribute attrs = new DefaultVOMSACParser()
+      .parse(proxy.getCertificateChain()).get(0);
+
+    Assert.assertEquals(Arrays.asList("test-host.cnaf.infn.it"),
+      attrs.getTargets());
+    Assert.assertTrue(attrs.getGenericAttributes().isEmpty());
+
+    X509Certificate[] aaCerts = attrs.getAACertificates();
+    Assert.assertEquals(1, aaCerts.length);
+    Assert.assertEquals(Utils.getAACredential().getCertificate(), aaCerts[0]);
+
+    // Decoded fields are memoized
+    Assert.assertSame(aaCerts, attrs.getAACertificates());
+    Assert.assertSame(attrs.getTargets(), attrs.getTargets());
+  }
+
+  @Test
+  public void testAACertificatesAreShared() throws Exception {
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser();
+
+    VOMSAttribute attrs = parser.parse(
+      aa.createVOMSProxy(Utils.getTestUserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    VOMSAttribute otherAttrs = parser.parse(
+      aa.createVOMSProxy(Utils.getTest1UserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    Assert.assertSame(attrs.getAACertificates()[0],
+      otherAttrs.getAACertificates()[0]);
+  }
+
+  @Test
+  public void testCachedParsing() throws Exception {
+
+    X509Certificate[] chain = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans).getCertificateChain();
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser(10);
+
+    List<VOMSAttribute> attrs = parser.parse(chain);
+
+    Assert.assertEquals(1, attrs.size());
+    Assert.assertEquals(defaultVOFqans, attrs.get(0).getFQANs());
+    Assert.assertSame(attrs, parser.parse(chain.clone()));
+
+    List<VOMSAttribute> otherAttrs = parser.parse(aa.createVOMSProxy(
+      Utils.getTestUserCredential(), defaultVOFqans).getCertificateChain());
+
+    Assert.assertNotSame(attrs, otherAttrs);
+    Assert.assertEquals(defaultVOFqans, otherAttrs.get(0).getFQANs());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testCachedAttributesAreUnmodifiable() throws Exception {
+
+    X509Certificate[] chain = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans).getCertificateChain();
+
+    new DefaultVOMSACParser(10).parse(chain).clear();
+  }
+
+  @Test
+  public void testCachedAttributesAreImmutable() throws Exception {
+
+    X509Certificate[] chain = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans).getCertificateChain();
+
+    VOMSAttribute attrs = new DefaultVOMSACParser(10).parse(chain).get(0);
+
+    try {
+      attrs.getFQANs().clear();
+      Assert.fail("Cached FQANs were modified");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    try {
+      ((VOMSAttributesImpl) attrs).setVO("another.vo");
+      Assert.fail("Cached attributes were modified");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    attrs.getNotAfter().setTime(0);
+    attrs.getSignature()[0]++;
+
+    VOMSAttribute parsedAttrs = new DefaultVOMSACParser().parse(chain).get(0);
+
+    Assert.assertEquals(parsedAttrs.getNotAfter(), attrs.getNotAfter());
+    Assert.assertArrayEquals(parsedAttrs.getSignature(), attrs.getSignature());
+    Assert.assertTrue(attrs.isValid());
+  }
+
+  @Test
+  public void testFullCacheKeepsCachingRecentAttributes() throws Exception {
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser(1);
+
+    X509Certificate[] chain = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans).getCertificateChain();
+
+    X509Certificate[] otherChain = aa.createVOMSProxy(
+      Utils.getTest1UserCredential(), defaultVOFqans).getCertificateChain();
+
+    parser.parse(chain);
+
+    List<VOMSAttribute> otherAttrs = parser.parse(otherChain);
+    Assert.assertSame(otherAttrs, parser.parse(otherChain));
+  }
+
+  @Test
+  public void testCachedAttributesExpire() throws Exception {
+
+    X509Certificate[] chain = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans).getCertificateChain();
+
+    List<VOMSAttribute> attrs = new DefaultVOMSACParser(10).parse(chain);
+
+    Clock afterExpiration = Clock.fixed(attrs.get(0).getNotAfter()
+      .toInstant(), ZoneOffset.UTC);
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser(10, afterExpiration);
+
+    Assert.assertNotSame(parser.parse(chain), parser.parse(chain));
+  }
+
+  @Test
+  public void testCachedParsingWithoutACs() throws Exception {
+
+    Assert.assertTrue(new DefaultVOMSACParser(10)
+      .parse(Utils.getTestUserCredential().getCertificateChain()).isEmpty());
+  }
+
+  @Test
+  public void testFQANParsing() throws Exception {
+
+    List<String> fqans = Arrays.asList("/test.vo", "/test.vo/sgm",
+      "/test.vo/Role=VO-Admin");
+
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      fqans);
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser();
+
+    VOMSAttribute attrs = parser.parse(proxy.getCertificateChain()).get(0);
+    List<VOMSFQANInfo> infos = parser.parseFQANs(proxy.getCertificateChain());
+
+    Assert.assertEquals(1, infos.size());
+    Assert.assertEquals(attrs.getVO(), infos.get(0).getVO());
+    Assert.assertEquals(attrs.getHost(), infos.get(0).getHost());
+    Assert.assertEquals(attrs.getPort(), infos.get(0).getPort());
+    Assert.assertEquals(fqans, infos.get(0).getFQANs());
+    Assert.assertEquals("/test.vo", infos.get(0).getPrimaryFQAN());
+  }
+
+  @Test
+  public void testDefaultFQANParsing() throws Exception {
+
+    final DefaultVOMSACParser parser = new DefaultVOMSACParser();
+
+    // A parser implementing only parse()
+    VOMSACParser simpleParser = new VOMSACParser() {
+
+      public List<VOMSAttribute> parse(X509Certificate[] validatedChain) {
+
+        return parser.parse(validatedChain);
+      }
+    };
+
+    X509Certificate[] chain = aa.createVOMSProxy(
+      Utils.getTestUserCredential(), defaultVOFqans).getCertificateChain();
+
+    VOMSFQANInfo expected = parser.parseFQANs(chain).get(0);
+    List<VOMSFQANInfo> infos = simpleParser.parseFQANs(chain);
+
+    Assert.assertEquals(1, infos.size());
+    Assert.assertEquals(expected.getVO(), infos.get(0).getVO());
+    Assert.assertEquals(expected.getHost(), infos.get(0).getHost());
+    Assert.assertEquals(expected.getPort(), infos.get(0).getPort());
+    Assert.assertEquals(expected.getFQANs(), infos.get(0).getFQANs());
+  }
+
+  @Test
+  public void testPooledStrings() throws Exception {
+
+    DefaultVOMSACParser parser = new DefaultVOMSACParser(
+      new LeafACLookupStrategy(NullListener.INSTANCE), new StringPool());
+
+    VOMSAttribute attrs = parser.parse(
+      aa.createVOMSProxy(Utils.getTestUserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    VOMSAttribute otherAttrs = parser.parse(
+      aa.createVOMSProxy(Utils.getTest1UserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    VOMSFQANInfo info = parser.parseFQANs(
+      aa.createVOMSProxy(Utils.getTestUserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    Assert.assertEquals(defaultVOFqans, attrs.getFQANs());
+    Assert.assertSame(attrs.getVO(), otherAttrs.getVO());
+    Assert.assertSame(attrs.getHost(), otherAttrs.getHost());
+    Assert.assertSame(attrs.getFQANs().get(0), otherAttrs.getFQANs().get(0));
+    Assert.assertSame(attrs.getVO(), info.getVO());
+    Assert.assertSame(attrs.getFQANs().get(0), info.getFQANs().get(0));
+
+    // The pool is only used by the parser it is configured on
+    VOMSAttribute unpooledAttrs = new DefaultVOMSACParser().parse(
+      aa.createVOMSProxy(Utils.getTestUserCredential(), defaultVOFqans)
+        .getCertificateChain()).get(0);
+
+    Assert.assertNotSame(attrs.getVO(), unpooledAttrs.getVO());
+  }
+
+  @Test
+  public void testFQANParsingWithoutACs() throws Exception {
+
+    PEMCredential holder = Utils.getTestUserCredential();
+
+    Assert.assertTrue(new DefaultVOMSACParser()
+      .parseFQANs(holder.getCertificateChain()).isEmpty());
+  }
+
+  @Test
+  public void testEmptyFqansFQANParsing() throws Exception {
+
+    List<String> fqans = Collections.emptyList();
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      fqans);
+
+    try {
+      new DefaultVOMSACParser().parseFQANs(proxy.getCertificateChain());
+    } catch (VOMSError e) {
+      Assert.assertEquals(
+        "Non conformant VOMS Attribute certificate: unsupported attribute values encoding.",
+        e.getMessage());
+      return;
+    }
+
+    Assert.fail("No exception raised when parsing invalid VOMS AC!");
+  }
+
+  @Test
+  public void testACsFromVOMSExtension() throws Exception {
+
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans);
+
+    byte[] extension = VOMSACUtils.getVOMSExtensionFromCertificate(proxy
+      .getCertificateChain()[0]);
+
+    List<AttributeCertificate> acs = VOMSACUtils
+      .getACsFromVOMSExtension(extension);
+
+    Assert.assertEquals(1, acs.size());
+    Assert.assertEquals(defaultVOFqans, VOMSACUtils
+      .deserializeVOMSAttributes(acs.get(0)).getFQANs());
+  }
+
+  @Test
+  public void testLazyVOMSAttributesFromVOMSExtension() throws Exception {
+
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans);
+
+    byte[] extension = VOMSACUtils.getVOMSExtensionFromCertificate(proxy
+      .getCertificateChain()[0]);
+
+    VOMSAttribute attrs = new DefaultVOMSACParser()
+      .parse(proxy.getCertificateChain()).get(0);
+
+    List<VOMSAttribute> lazyAttrs = VOMSACUtils
+      .getLazyVOMSAttributesFromVOMSExtension(extension);
+
+    Assert.assertEquals(1, lazyAttrs.size());
+    Assert.assertEquals(attrs.getNotBefore(), lazyAttrs.get(0).getNotBefore());
+    Assert.assertEquals(attrs.getNotAfter(), lazyAttrs.get(0).getNotAfter());
+    Assert.assertTrue(lazyAttrs.get(0).isValid());
+    Assert.assertEquals(attrs.getFQANs(), lazyAttrs.get(0).getFQANs());
+    Assert.assertArrayEquals(attrs.getSignature(), lazyAttrs.get(0)
+      .getSignature());
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedVOMSExtensionFailure() throws Exception {
+
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans);
+
+    byte[] extension = VOMSACUtils.getVOMSExtensionFromCertificate(proxy
+      .getCertificateChain()[0]);
+
+    VOMSACUtils.getACsFromVOMSExtension(Arrays.copyOf(extension,
+      extension.length / 2));
+  }
+
   @Test(expected = NullPointerException.class)
   public void testParseNullChainFailure() {
 
@@ -78,4 +408,81 @@ public class TestACParser implements Fixture {
 
     Assert.fail("No exception raised when parsing invalid VOMS AC!");
   }
+
+  @Test
+  public void testMalformedGenericAttributesFailParsing() throws Exception {
+
+    AttributeCertificate ac = aa.getAC(Utils.getTestUserCredential(),
+      defaultVOFqans, null, null, new Date(),
+      new Date(System.currentTimeMillis() + 3600000));
+
+    // A tag with a name and a value, but no context
+    DERSequence tag = new DERSequence(new DEROctetString[] {
+      new DEROctetString("name".getBytes()),
+      new DEROctetString("value".getBytes()) });
+
+    DERSequence tagList = new DERSequence(new DERSequence(new DERSequence[] {
+      new DERSequence(), new DERSequence(tag) }));
+
+    Extension gas = new Extension(VOMSConstants.VOMS_GENERIC_ATTRS_OID, false,
+      new DERSequence(tagList).getEncoded());
+
+    // Replace the AC extensions, which come last in the AC info
+    ASN1Sequence acInfo = ASN1Sequence.getInstance(ac.getAcinfo());
+    ASN1EncodableVector v = new ASN1EncodableVector();
+
+    for (int i = 0; i < acInfo.size() - 1; i++)
+      v.add(acInfo.getObjectAt(i));
+
+    v.add(new Extensions(gas));
+
+    AttributeCertificate malformedAC = new AttributeCertificate(
+      AttributeCertificateInfo.getInstance(new DERSequence(v)),
+      ac.getSignatureAlgorithm(), ac.getSignatureValue());
+
+    try {
+      VOMSACUtils.deserializeVOMSAttributes(malformedAC);
+      Assert.fail("Malformed generic attributes were not rejected");
+    } catch (VOMSError e) {
+      Assert.assertTrue(e.getMessage().contains("unsupported tag format"));
+    }
+  }
+
+  @Test
+  public void testIndefiniteLengthVOMSExtension() throws Exception {
+
+    ProxyCertificate proxy = aa.createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans);
+
+    byte[] extension = VOMSACUtils.getVOMSExtensionFromCertificate(proxy
+      .getCertificateChain()[0]);
+
+    // Re-encode the AC containers with indefinite lengths, which is valid BER
+    ASN1Sequence containers = ASN1Sequence.getInstance(ASN1OctetString
+      .getInstance(ASN1Primitive.fromByteArray(extension)).getOctets());
+
+    ASN1EncodableVector v = new ASN1EncodableVector();
+
+    for (int i = 0; i < containers.size(); i++)
+      v.add(new BERSequence(ASN1Sequence.getInstance(containers.getObjectAt(i))
+        .toArray()));
+
+    byte[] berExtension = new DEROctetString(new BERSequence(v).getEncoded())
+      .getEncoded();
+
+    List<AttributeCertificate> acs = VOMSACUtils
+      .getACsFromVOMSExtension(berExtension);
+
+    Assert.assertEquals(VOMSACUtils.getACsFromVOMSExtension(extension), acs);
+
+    Assert.assertEquals(defaultVOFqans, VOMSACUtils
+      .getFQANInfoFromVOMSExtension(berExtension).get(0).getFQANs());
+
+    List<VOMSAttribute> lazyAttrs = VOMSACUtils
+      .getLazyVOMSAttributesFromVOMSExtension(berExtension);
+
+    Assert.assertEquals(1, lazyAttrs.size());
+    Assert.assertTrue(lazyAttrs.get(0).isValid());
+    Assert.assertEquals(defaultVOFqans, lazyAttrs.get(0).getFQANs());
+  }
 }
@@ -12,16 +12,23 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.KeyStoreException;
 import java.security.cert.CertificateException;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
 
+import org.italiangrid.voms.VOMSAttribute;
 import org.italiangrid.voms.VOMSError;
 import org.italiangrid.voms.VOMSValidators;
 import org.italiangrid.voms.ac.VOMSACValidator;
 import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidator;
+import org.italiangrid.voms.ac.impl.LeafACLookupStrategy;
 import org.italiangrid.voms.ac.impl.LocalHostnameResolver;
+import org.italiangrid.voms.ac.impl.VOMSAttributesImpl;
 import org.italiangrid.voms.asn1.VOMSACGenerator.ACGenerationProperties;
 import org.italiangrid.voms.error.VOMSValidationErrorCode;
 import org.italiangrid.voms.error.VOMSValidationErrorMessage;
@@ -29,12 +36,14 @@ import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
 import org.italiangrid.voms.test.utils.Fixture;
 import org.italiangrid.voms.test.utils.Utils;
 import org.italiangrid.voms.test.utils.VOMSAA;
+import org.italiangrid.voms.util.StringPool;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.impl.PEMCredential;
+import eu.emi.security.authn.x509.impl.X500NameUtils;
 import eu.emi.security.authn.x509.proxy.ProxyCertificate;
 
 public class TestACValidator implements Fixture {
@@ -60,6 +69,34 @@ public class TestACValidator implements Fixture {
     assertTrue(results.get(0).isValid());
     assertEquals(defaultVOFqans, results.get(0).getAttributes().getFQANs());
 
+    // ACs that pass the validity pre-check are decoded in full
+    assertTrue(results.get(0).getAttributes() instanceof VOMSAttributesImpl);
+  }
+
+  @Test
+  public void testStringPoolIsUsed() throws Exception {
+
+    VOMSACValidator pooledValidator = new DefaultVOMSValidator.Builder()
+      .trustStore(new DefaultVOMSTrustStore(Arrays.asList(vomsdir)))
+      .certChainValidator(Utils.getCertificateValidator())
+      .stringPool(new StringPool()).build();
+
+    try {
+
+      VOMSAttribute attrs = pooledValidator.validate(
+        Utils.getVOMSAA().createVOMSProxy(holder, defaultVOFqans)
+          .getCertificateChain()).get(0);
+
+      VOMSAttribute otherAttrs = pooledValidator.validate(
+        Utils.getVOMSAA().createVOMSProxy(holder2, defaultVOFqans)
+          .getCertificateChain()).get(0);
+
+      Assert.assertSame(attrs.getVO(), otherAttrs.getVO());
+      Assert.assertSame(attrs.getFQANs().get(0), otherAttrs.getFQANs().get(0));
+
+    } finally {
+      pooledValidator.shutdown();
+    }
   }
 
   @Test
@@ -85,6 +122,72 @@ public class TestACValidator implements Fixture {
     Assert.assertEquals(VOMSValidationErrorCode.acNotValidAtCurrentTime, m.getErrorCode());
   }
 
+  @Test
+  public void testEarlyTimeValidityFailure() throws Exception {
+
+    Date start = Utils.getDate(1975, 12, 1);
+    Date end = Utils.getDate(1975, 12, 2);
+
+    ProxyCertificate proxy = Utils.getVOMSAA()
+      .setAcNotBefore(start)
+      .setAcNotAfter(end)
+      .createVOMSProxy(holder, defaultVOFqans);
+
+    // A custom lookup strategy disables the early rejection
+    VOMSACValidator fullValidator = new DefaultVOMSValidator.Builder()
+      .trustStore(new DefaultVOMSTrustStore(Arrays.asList(vomsdir)))
+      .certChainValidator(Utils.getCertificateValidator())
+      .acLookupStrategy(new LeafACLookupStrategy())
+      .build();
+
+    VOMSValidationResult result = validator
+      .validateWithResult(proxy.getCertificateChain()).get(0);
+
+    VOMSValidationResult fullResult = fullValidator
+      .validateWithResult(proxy.getCertificateChain()).get(0);
+
+    // Only the full validation decodes the whole AC up front
+    Assert.assertFalse(result.getAttributes() instanceof VOMSAttributesImpl);
+    Assert.assertTrue(fullResult.getAttributes() instanceof VOMSAttributesImpl);
+
+    Assert.assertFalse(result.isValid());
+    Assert.assertEquals(fullResult.getValidationErrors().get(0).getErrorCode(),
+      result.getValidationErrors().get(0).getErrorCode());
+    Assert.assertEquals(fullResult.getAttributes().getNotBefore(),
+      result.getAttributes().getNotBefore());
+    Assert.assertEquals(fullResult.getAttributes().getNotAfter(),
+      result.getAttributes().getNotAfter());
+    Assert.assertEquals(defaultVOFqans, result.getAttributes().getFQANs());
+    Assert.assertEquals(fullResult.getAttributes().getHolder(),
+      result.getAttributes().getHolder());
+
+    fullValidator.shutdown();
+  }
+
+  @Test
+  public void testTimeValidityWithPinnedClock() throws Exception {
+
+    Date start = Utils.getDate(1975, 12, 1);
+    Date end = Utils.getDate(1975, 12, 2);
+
+    ProxyCertificate proxy = Utils.getVOMSAA()
+      .setAcNotBefore(start)
+      .setAcNotAfter(end)
+      .createVOMSProxy(holder, defaultVOFqans);
+
+    VOMSACValidator pinnedValidator = new DefaultVOMSValidator.Builder()
+      .trustStore(new DefaultVOMSTrustStore(Arrays.asList(vomsdir)))
+      .certChainValidator(Utils.getCertificateValidator())
+      .clock(Clock.fixed(start.toInstant().plus(1, ChronoUnit.HOURS), ZoneOffset.UTC))
+      .build();
+
+    List<VOMSValidationResult> results =
+        pinnedValidator.validateWithResult(proxy.getCertificateChain());
+
+    assertTrue(results.size() == 1);
+    assertTrue(results.get(0).isValid());
+  }
+
   @Test
   public void testHolderCheckFailure() throws Exception {
 
@@ -98,6 +201,24 @@ public class TestACValidator implements Fixture {
     Assert.assertTrue(result.getValidationErrors().size() == 1);
     VOMSValidationErrorMessage m = result.getValidationErrors().get(0);
     Assert.assertEquals(VOMSValidationErrorCode.acHolderDoesntMatchCertChain, m.getErrorCode());
+
+    String expectedMessage = String.format(
+        "AC holder check failed: AC holder %s does not match certificate chain subject %s.",
+        X500NameUtils.getReadableForm(holder.getCertificate().getSubjectX500Principal()),
+        X500NameUtils.getReadableForm(holder2.getCertificate().getSubjectX500Principal()));
+
+    Assert.assertEquals(expectedMessage, m.getMessage());
+
+    Assert.assertArrayEquals(
+        new Object[] {
+            X500NameUtils.getReadableForm(holder.getCertificate().getSubjectX500Principal()),
+            X500NameUtils.getReadableForm(holder2.getCertificate().getSubjectX500Principal())},
+        m.getParameters());
+
+    Assert.assertEquals(m,
+        VOMSValidationErrorMessage.newErrorMessage(VOMSValidationErrorCode.acHolderDoesntMatchCertChain,
+            holder.getCertificate().getSubjectX500Principal(),
+            holder2.getCertificate().getSubjectX500Principal()));
   }
 
   @Test
@@ -0,0 +1,134 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.ac.VOMSACValidationStrategy;
+import org.italiangrid.voms.ac.VOMSACValidator;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidator;
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestAsyncValidation implements Fixture {
+
+  VOMSACValidator validator;
+
+  @After
+  public void teardown() {
+
+    if (validator != null)
+      validator.shutdown();
+  }
+
+  X509Certificate[] newChain() throws Exception {
+
+    return Utils.getVOMSAA()
+      .createVOMSProxy(Utils.getTestUserCredential(), defaultVOFqans)
+      .getCertificateChain();
+  }
+
+  @Test
+  public void testAsyncValidation() throws Exception {
+
+    validator = Utils.getVOMSValidator();
+
+    List<VOMSValidationResult> results = validator
+      .validateWithResultAsync(newChain()).get(30, TimeUnit.SECONDS);
+
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).isValid());
+    assertEquals(defaultVOFqans, results.get(0).getAttributes().getFQANs());
+  }
+
+  @Test
+  public void testOverloadIsRejected() throws Exception {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    VOMSACValidationStrategy blockingStrategy = new VOMSACValidationStrategy() {
+
+      public VOMSValidationResult validateAC(VOMSAttribute attributes,
+        X509Certificate[] theChain) {
+
+        started.countDown();
+
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        return new VOMSValidationResult(attributes, true);
+      }
+
+      public VOMSValidationResult validateAC(VOMSAttribute attributes) {
+
+        return validateAC(attributes, null);
+      }
+    };
+
+    validator = new DefaultVOMSValidator.Builder()
+      .validationStrategy(blockingStrategy).asyncValidation(1, 1).build();
+
+    X509Certificate[] chain = newChain();
+
+    CompletableFuture<List<VOMSValidationResult>> running = validator
+      .validateWithResultAsync(chain);
+
+    assertTrue(started.await(30, TimeUnit.SECONDS));
+
+    CompletableFuture<List<VOMSValidationResult>> queued = validator
+      .validateWithResultAsync(chain);
+
+    CompletableFuture<List<VOMSValidationResult>> rejected = validator
+      .validateWithResultAsync(chain);
+
+    assertTrue(rejected.isCompletedExceptionally());
+
+    try {
+      rejected.get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    release.countDown();
+
+    assertTrue(running.get(30, TimeUnit.SECONDS).get(0).isValid());
+    assertTrue(queued.get(30, TimeUnit.SECONDS).get(0).isValid());
+  }
+
+  @Test
+  public void testValidationIsRejectedAfterShutdown() throws Exception {
+
+    validator = Utils.getVOMSValidator();
+    validator.shutdown();
+
+    CompletableFuture<List<VOMSValidationResult>> rejected = validator
+      .validateWithResultAsync(newChain());
+
+    assertTrue(rejected.isCompletedExceptionally());
+
+    try {
+      rejected.get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+  }
+}
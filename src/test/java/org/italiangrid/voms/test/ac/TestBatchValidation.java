@@ -0,0 +1,206 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.asn1.x509.AttributeCertificate;
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.ac.VOMSACValidator;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.ValidationResultListener;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidationStrategy;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidator;
+import org.italiangrid.voms.ac.impl.LocalHostnameResolver;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBatchValidation implements Fixture {
+
+  static final String localhost = "test-host.cnaf.infn.it";
+
+  LocalHostnameResolver resolver;
+  ValidationResultListener listener;
+  VOMSACValidator validator;
+  ExecutorService executor;
+
+  @Before
+  public void setup() throws Exception {
+
+    resolver = mock(LocalHostnameResolver.class);
+    when(resolver.resolveLocalHostname()).thenReturn(localhost);
+
+    listener = mock(ValidationResultListener.class);
+
+    validator = new DefaultVOMSValidator.Builder()
+      .validationStrategy(new DefaultVOMSValidationStrategy(
+        new DefaultVOMSTrustStore(Arrays.asList(vomsdir)),
+        Utils.getCertificateValidator(), resolver))
+      .validationListener(listener).build();
+
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void teardown() {
+
+    executor.shutdown();
+    validator.shutdown();
+  }
+
+  X509Certificate[] newChain(List<String> fqans, List<String> targets)
+    throws Exception {
+
+    return Utils.getVOMSAA()
+      .createVOMSProxy(Utils.getTestUserCredential(), fqans, null, targets)
+      .getCertificateChain();
+  }
+
+  @Test
+  public void testResultsAreInInputOrder() throws Exception {
+
+    List<List<String>> fqans = new ArrayList<List<String>>();
+    List<X509Certificate[]> chains = new ArrayList<X509Certificate[]>();
+
+    for (int i = 0; i < 10; i++) {
+      fqans.add(Arrays.asList("/test.vo", "/test.vo/group-" + i));
+      chains.add(newChain(fqans.get(i), null));
+    }
+
+    List<List<VOMSValidationResult>> results = validator
+      .validateAllWithResult(chains, executor);
+
+    assertEquals(chains.size(), results.size());
+
+    for (int i = 0; i < chains.size(); i++) {
+      assertEquals(1, results.get(i).size());
+      assertTrue(results.get(i).get(0).isValid());
+      assertEquals(fqans.get(i), results.get(i).get(0).getAttributes()
+        .getFQANs());
+    }
+  }
+
+  @Test
+  public void testLocalHostnameIsResolvedOncePerBatch() throws Exception {
+
+    List<X509Certificate[]> chains = new ArrayList<X509Certificate[]>();
+
+    for (int i = 0; i < 5; i++)
+      chains.add(newChain(defaultVOFqans, Arrays.asList(localhost)));
+
+    chains.add(newChain(defaultVOFqans, Arrays.asList("another-host")));
+
+    List<List<VOMSValidationResult>> results = validator
+      .validateAllWithResult(chains, executor);
+
+    for (int i = 0; i < 5; i++)
+      assertTrue(results.get(i).get(0).isValid());
+
+    assertFalse(results.get(5).get(0).isValid());
+
+    verify(resolver, times(1)).resolveLocalHostname();
+  }
+
+  @Test
+  public void testIdenticalChainsAreValidatedOnce() throws Exception {
+
+    X509Certificate[] chain = newChain(defaultVOFqans, null);
+
+    List<List<VOMSValidationResult>> results = validator
+      .validateAllWithResult(Arrays.asList(chain, chain.clone(), chain));
+
+    assertEquals(3, results.size());
+
+    for (List<VOMSValidationResult> r : results) {
+      assertEquals(1, r.size());
+      assertTrue(r.get(0).isValid());
+    }
+
+    // The results of identical chains are the same, and are notified once
+    // per chain
+    assertTrue(results.get(0).get(0) == results.get(1).get(0));
+    verify(listener, times(3)).notifyValidationResult(
+      any(VOMSValidationResult.class));
+  }
+
+  @Test
+  public void testValidatorsCanRelyOnDefaultBatchValidation()
+    throws Exception {
+
+    // A validator implementing only the per-chain methods
+    VOMSACValidator simpleValidator = new VOMSACValidator() {
+
+      public List<VOMSAttribute> parse(X509Certificate[] validatedChain) {
+
+        return validator.parse(validatedChain);
+      }
+
+      public List<VOMSValidationResult> validateWithResult(
+        X509Certificate[] validatedChain) {
+
+        return validator.validateWithResult(validatedChain);
+      }
+
+      public List<VOMSAttribute> validate(X509Certificate[] validatedChain) {
+
+        return validator.validate(validatedChain);
+      }
+
+      public List<AttributeCertificate> validateACs(
+        List<AttributeCertificate> acs) {
+
+        return validator.validateACs(acs);
+      }
+
+      public void setValidationResultListener(
+        ValidationResultListener listener) {
+
+        validator.setValidationResultListener(listener);
+      }
+
+      public void shutdown() {
+
+        validator.shutdown();
+      }
+    };
+
+    X509Certificate[] chain = newChain(defaultVOFqans, null);
+    X509Certificate[] otherChain = newChain(Arrays.asList("/test.vo",
+      "/test.vo/G1"), null);
+
+    List<List<VOMSValidationResult>> results = simpleValidator
+      .validateAllWithResult(Arrays.asList(chain, otherChain), executor);
+
+    assertEquals(2, results.size());
+    assertEquals(defaultVOFqans, results.get(0).get(0).getAttributes()
+      .getFQANs());
+    assertEquals(Arrays.asList("/test.vo", "/test.vo/G1"), results.get(1)
+      .get(0).getAttributes().getFQANs());
+
+    List<VOMSValidationResult> asyncResults = simpleValidator
+      .validateWithResultAsync(chain).get();
+
+    assertEquals(1, asyncResults.size());
+    assertTrue(asyncResults.get(0).isValid());
+  }
+}
@@ -0,0 +1,101 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.UnknownHostException;
+
+import org.italiangrid.voms.ac.impl.CachingLocalHostnameResolver;
+import org.italiangrid.voms.ac.impl.LocalHostnameResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCachingLocalHostnameResolver {
+
+  LocalHostnameResolver resolver;
+
+  @Before
+  public void setup() {
+
+    resolver = mock(LocalHostnameResolver.class);
+  }
+
+  void waitForRefresh(CachingLocalHostnameResolver cachingResolver,
+    String expectedHostname) throws Exception {
+
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (!expectedHostname.equals(cachingResolver.resolveLocalHostname())
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testHostnameIsCached() throws Exception {
+
+    when(resolver.resolveLocalHostname()).thenReturn("host.example.org");
+
+    CachingLocalHostnameResolver cachingResolver = new CachingLocalHostnameResolver(
+      resolver, 60000);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals("host.example.org", cachingResolver.resolveLocalHostname());
+    }
+
+    verify(resolver, times(1)).resolveLocalHostname();
+  }
+
+  @Test
+  public void testStaleHostnameIsRefreshed() throws Exception {
+
+    when(resolver.resolveLocalHostname()).thenReturn("old.example.org",
+      "new.example.org");
+
+    CachingLocalHostnameResolver cachingResolver = new CachingLocalHostnameResolver(
+      resolver, 1);
+
+    assertEquals("old.example.org", cachingResolver.resolveLocalHostname());
+    Thread.sleep(5);
+
+    // The stale hostname is returned while the refresh happens
+    assertEquals("old.example.org", cachingResolver.resolveLocalHostname());
+
+    waitForRefresh(cachingResolver, "new.example.org");
+    assertEquals("new.example.org", cachingResolver.resolveLocalHostname());
+  }
+
+  @Test
+  public void testStaleHostnameIsKeptOnError() throws Exception {
+
+    when(resolver.resolveLocalHostname()).thenReturn("host.example.org")
+      .thenThrow(new UnknownHostException("error"))
+      .thenReturn("host.example.org");
+
+    CachingLocalHostnameResolver cachingResolver = new CachingLocalHostnameResolver(
+      resolver, 1);
+
+    assertEquals("host.example.org", cachingResolver.resolveLocalHostname());
+
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(5);
+      assertEquals("host.example.org", cachingResolver.resolveLocalHostname());
+    }
+  }
+
+  @Test(expected = UnknownHostException.class)
+  public void testFirstResolutionErrorIsPropagated() throws Exception {
+
+    when(resolver.resolveLocalHostname())
+      .thenThrow(new UnknownHostException("error"));
+
+    new CachingLocalHostnameResolver(resolver).resolveLocalHostname();
+  }
+}
@@ -0,0 +1,324 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.AttributeCertificate;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.ac.VOMSACValidationStrategy;
+import org.italiangrid.voms.ac.VOMSACValidator;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.impl.DefaultVOMSACParser;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidationStrategy;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidator;
+import org.italiangrid.voms.ac.impl.LocalHostnameResolver;
+import org.italiangrid.voms.ac.impl.VOMSACValidationStage;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.italiangrid.voms.test.utils.VOMSAA;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.StoreUpdateListener.Severity;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.impl.CertificateUtils;
+import eu.emi.security.authn.x509.impl.CertificateUtils.Encoding;
+import eu.emi.security.authn.x509.impl.PEMCredential;
+import eu.emi.security.authn.x509.proxy.ProxyCertificate;
+
+public class TestLocalAACertificateValidation implements Fixture {
+
+  static final String aaCert2Rollover = "src/test/resources/certs/test_host_2_cnaf_infn_it.cert.pem";
+  static final String aaKey2Rollover = "src/test/resources/certs/test_host_2_cnaf_infn_it.key.pem";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  X509CertChainValidatorExt certChainValidator;
+  DefaultVOMSTrustStore trustStore;
+  VOMSACValidationStrategy strategy;
+
+  @Before
+  public void setup() throws Exception {
+
+    // No LSC files, so that ACs are checked against the local AA certificate
+    Files.copy(new File(aaCert).toPath(),
+      new File(folder.getRoot(), "aa.pem").toPath());
+
+    certChainValidator = mock(X509CertChainValidatorExt.class,
+      AdditionalAnswers.delegatesTo(Utils.getCertificateValidator()));
+
+    trustStore = new DefaultVOMSTrustStore(
+      Arrays.asList(folder.getRoot().getAbsolutePath()));
+    trustStore.setAACertificateValidator(certChainValidator);
+
+    strategy = new DefaultVOMSValidationStrategy(trustStore,
+      certChainValidator);
+  }
+
+  VOMSAttribute newAttributes() throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(
+      Utils.getTestUserCredential(), defaultVOFqans);
+
+    return new DefaultVOMSACParser().parse(proxy.getCertificateChain())
+      .get(0);
+  }
+
+  VOMSAttribute parse(AttributeCertificate ac) throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(
+      Utils.getTestUserCredential(), new AttributeCertificate[] { ac });
+
+    return new DefaultVOMSACParser().parse(proxy.getCertificateChain())
+      .get(0);
+  }
+
+  AttributeCertificate newAC() throws Exception {
+
+    Date now = new Date();
+
+    return Utils.getVOMSAA().getAC(Utils.getTestUserCredential(),
+      defaultVOFqans, null, null, now,
+      new Date(now.getTime() + TimeUnit.HOURS.toMillis(12)));
+  }
+
+  /**
+   * Wraps the attributes so that the signature verifications run on their AC
+   * can be checked.
+   */
+  VOMSAttribute withSpiedAC(VOMSAttribute attributes) {
+
+    VOMSAttribute spiedAttributes = mock(VOMSAttribute.class,
+      AdditionalAnswers.delegatesTo(attributes));
+
+    doReturn(spy(attributes.getVOMSAC())).when(spiedAttributes).getVOMSAC();
+
+    return spiedAttributes;
+  }
+
+  @Test
+  public void testRepeatedACSignatureIsVerifiedOnce() throws Exception {
+
+    AttributeCertificate ac = newAC();
+
+    VOMSAttribute attributes = withSpiedAC(parse(ac));
+    VOMSAttribute sameAttributes = withSpiedAC(parse(ac));
+
+    assertTrue(strategy.validateAC(attributes).isValid());
+    assertTrue(strategy.validateAC(sameAttributes).isValid());
+
+    verify(attributes.getVOMSAC(), times(1))
+      .isSignatureValid(any(ContentVerifierProvider.class));
+    verify(sameAttributes.getVOMSAC(), never())
+      .isSignatureValid(any(ContentVerifierProvider.class));
+  }
+
+  @Test
+  public void testTamperedACFailsAfterSignatureVerification()
+    throws Exception {
+
+    AttributeCertificate ac = newAC();
+    AttributeCertificate otherAC = Utils.getVOMSAA().getAC(
+      Utils.getTestUserCredential(), Arrays.asList("/test.vo", "/test.vo/G1"),
+      null, null, new Date(),
+      new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(12)));
+
+    AttributeCertificate tamperedAC = new AttributeCertificate(
+      otherAC.getAcinfo(), ac.getSignatureAlgorithm(), ac.getSignatureValue());
+
+    assertTrue(strategy.validateAC(parse(ac)).isValid());
+    assertFalse(strategy.validateAC(parse(tamperedAC)).isValid());
+  }
+
+  @Test
+  public void testVerifiedACFailsWithAnotherAAKey() throws Exception {
+
+    AttributeCertificate ac = newAC();
+
+    assertTrue(strategy.validateAC(parse(ac)).isValid());
+
+    // Same AA subject, different key pair
+    Files.copy(new File(aaCert2Rollover).toPath(),
+      new File(folder.getRoot(), "aa.pem").toPath(),
+      StandardCopyOption.REPLACE_EXISTING);
+    trustStore.loadTrustInformation();
+
+    assertFalse(strategy.validateAC(parse(ac)).isValid());
+  }
+
+  @Test
+  public void testLocalAACertificateIsValidatedOnce() throws Exception {
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(strategy.validateAC(newAttributes()).isValid());
+    }
+
+    verify(certChainValidator, times(1))
+      .validate(any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testSuccessfulVerificationPathIsTriedFirst() throws Exception {
+
+    // The LSC path is tried first and fails, since there are no LSC files
+    VOMSValidationResult result = strategy.validateAC(newAttributes());
+    assertTrue(result.isValid());
+    assertFalse(result.getValidationErrors().isEmpty());
+
+    // The local AA path is now tried first, and the LSC path is skipped
+    result = strategy.validateAC(newAttributes());
+    assertTrue(result.isValid());
+    assertTrue(result.getValidationErrors().isEmpty());
+  }
+
+  @Test
+  public void testCAUpdateTriggersNewValidation() throws Exception {
+
+    assertTrue(strategy.validateAC(newAttributes()).isValid());
+
+    ArgumentCaptor<StoreUpdateListener> captor = ArgumentCaptor
+      .forClass(StoreUpdateListener.class);
+    verify(certChainValidator).addUpdateListener(captor.capture());
+
+    captor.getValue().loadingNotification("file:/tmp/ca.pem",
+      StoreUpdateListener.CA_CERT, Severity.NOTIFICATION, null);
+
+    // The notification only marks the validation result as stale
+    verify(certChainValidator, times(1))
+      .validate(any(X509Certificate[].class));
+
+    assertTrue(strategy.validateAC(newAttributes()).isValid());
+
+    verify(certChainValidator, times(2))
+      .validate(any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testAACertificateIsValidatedAgainPastValidationLifetime()
+    throws Exception {
+
+    trustStore.setAACertificateValidationLifetime(1);
+
+    assertTrue(strategy.validateAC(newAttributes()).isValid());
+    Thread.sleep(10);
+    assertTrue(strategy.validateAC(newAttributes()).isValid());
+
+    verify(certChainValidator, times(2))
+      .validate(any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testValidatorShutdownUnsetsAACertificateValidator()
+    throws Exception {
+
+    DefaultVOMSTrustStore store = new DefaultVOMSTrustStore(
+      Arrays.asList(folder.getRoot().getAbsolutePath()));
+
+    VOMSACValidator validator = new DefaultVOMSValidator.Builder()
+      .trustStore(store).certChainValidator(certChainValidator).build();
+
+    VOMSACValidator otherValidator = new DefaultVOMSValidator.Builder()
+      .trustStore(store).certChainValidator(Utils.getCertificateValidator())
+      .build();
+
+    assertSame(certChainValidator, store.getAACertificateValidator());
+
+    otherValidator.shutdown();
+    assertSame(certChainValidator, store.getAACertificateValidator());
+
+    validator.shutdown();
+    assertNull(store.getAACertificateValidator());
+
+    // One listener for the setup store, one for the store of the validator
+    verify(certChainValidator, times(2))
+      .addUpdateListener(any(StoreUpdateListener.class));
+    verify(certChainValidator, times(1))
+      .removeUpdateListener(any(StoreUpdateListener.class));
+  }
+
+  @Test
+  public void testLoadTimeValidationIsNotUsedPastAACertificateExpiration()
+    throws Exception {
+
+    X509Certificate localAACert = CertificateUtils
+      .loadCertificate(new FileInputStream(aaCert), Encoding.PEM);
+
+    Clock afterAACertExpiration = Clock.fixed(
+      Instant.ofEpochMilli(localAACert.getNotAfter().getTime()
+        + TimeUnit.DAYS.toMillis(1)), ZoneOffset.UTC);
+
+    strategy = new DefaultVOMSValidationStrategy(trustStore,
+      certChainValidator, mock(LocalHostnameResolver.class),
+      Arrays.asList(VOMSACValidationStage.SIGNATURE), afterAACertExpiration);
+
+    clearInvocations(certChainValidator);
+
+    strategy.validateAC(newAttributes());
+
+    verify(certChainValidator, times(1))
+      .validate(any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testACsSignedByRolledOverAACertificatesAreValid()
+    throws Exception {
+
+    Files.copy(new File(aaCert2Rollover).toPath(),
+      new File(folder.getRoot(), "aa-rollover.pem").toPath());
+
+    strategy = new DefaultVOMSValidationStrategy(
+      new DefaultVOMSTrustStore(
+        Arrays.asList(folder.getRoot().getAbsolutePath())),
+      certChainValidator);
+
+    PEMCredential rolloverAACredential = new PEMCredential(aaKey2Rollover,
+      aaCert2Rollover, keyPassword.toCharArray());
+
+    VOMSAA[] aas = { Utils.getVOMSAA(),
+        Utils.getVOMSAA().setCredential(rolloverAACredential) };
+
+    for (VOMSAA aa : aas) {
+
+      ProxyCertificate proxy = aa.createVOMSProxy(
+        Utils.getTestUserCredential(), defaultVOFqans);
+
+      assertTrue(strategy.validateAC(
+        new DefaultVOMSACParser().parse(proxy.getCertificateChain()).get(0))
+        .isValid());
+    }
+  }
+}
@@ -0,0 +1,257 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.italiangrid.voms.error.VOMSValidationErrorCode.lscFileNotFound;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.AttributeCertificate;
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.ac.VOMSACValidationStrategy;
+import org.italiangrid.voms.ac.VOMSACValidator;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidationStrategy;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidator;
+import org.italiangrid.voms.error.VOMSValidationErrorMessage;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.AdditionalAnswers;
+
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.impl.PEMCredential;
+import eu.emi.security.authn.x509.proxy.ProxyCertificate;
+
+public class TestValidationResultCache implements Fixture {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  PEMCredential holder;
+  DefaultVOMSTrustStore trustStore;
+  VOMSACValidationStrategy strategy;
+  VOMSACValidator validator;
+
+  @Before
+  public void setup() throws Exception {
+
+    holder = Utils.getTestUserCredential();
+
+    Files.copy(new File(aaCert).toPath(),
+      new File(folder.getRoot(), "aa.pem").toPath());
+
+    trustStore = new DefaultVOMSTrustStore(
+      Arrays.asList(folder.getRoot().getAbsolutePath()));
+
+    X509CertChainValidatorExt certChainValidator = Utils
+      .getCertificateValidator();
+
+    strategy = mock(VOMSACValidationStrategy.class, AdditionalAnswers
+      .delegatesTo(new DefaultVOMSValidationStrategy(trustStore,
+        certChainValidator)));
+
+    validator = new DefaultVOMSValidator.Builder().validationStrategy(strategy)
+      .trustStore(trustStore).certChainValidator(certChainValidator)
+      .validationResultCache(TimeUnit.MINUTES.toMillis(5), 10).build();
+  }
+
+  @After
+  public void teardown() {
+
+    validator.shutdown();
+  }
+
+  @Test
+  public void testValidResultIsCached() throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      defaultVOFqans);
+
+    for (int i = 0; i < 3; i++) {
+      List<VOMSValidationResult> results = validator
+        .validateWithResult(proxy.getCertificateChain());
+
+      assertEquals(1, results.size());
+      assertTrue(results.get(0).isValid());
+      assertEquals(defaultVOFqans, results.get(0).getAttributes().getFQANs());
+    }
+
+    verify(strategy, times(1)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testCachedResultKeepsValidationMessages() throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      defaultVOFqans);
+
+    // No LSC file is in the store, so the validation reports a warning
+    VOMSValidationResult result = validator
+      .validateWithResult(proxy.getCertificateChain()).get(0);
+
+    assertTrue(result.isValid());
+    assertEquals(
+      Arrays.asList(VOMSValidationErrorMessage.newErrorMessage(lscFileNotFound)),
+      result.getValidationErrors());
+
+    VOMSValidationResult cachedResult = validator
+      .validateWithResult(proxy.getCertificateChain()).get(0);
+
+    assertTrue(cachedResult.isValid());
+    assertEquals(result.getValidationErrors(),
+      cachedResult.getValidationErrors());
+
+    verify(strategy, times(1)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testACOfAnotherHolderIsNotServedFromCache() throws Exception {
+
+    PEMCredential otherHolder = Utils.getTest1UserCredential();
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      defaultVOFqans);
+
+    AttributeCertificate ac = Utils.getVOMSAA().getAC(holder, defaultVOFqans,
+      null, null, new Date(),
+      new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(12)));
+
+    ProxyCertificate otherProxy = Utils.getVOMSAA().createVOMSProxy(
+      otherHolder, new AttributeCertificate[] { ac });
+
+    assertTrue(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+
+    assertFalse(
+      validator.validateWithResult(otherProxy.getCertificateChain()).get(0)
+        .isValid());
+
+    verify(strategy, times(2)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testInvalidResultIsNotCached() throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA()
+      .setAcNotBefore(Utils.getDate(1975, 12, 1))
+      .setAcNotAfter(Utils.getDate(1975, 12, 2))
+      .createVOMSProxy(holder, defaultVOFqans);
+
+    assertFalse(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+    assertFalse(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+
+    verify(strategy, times(2)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testExpiredACIsValidatedAgain() throws Exception {
+
+    Date now = new Date();
+
+    ProxyCertificate proxy = Utils.getVOMSAA().setAcNotBefore(now)
+      .setAcNotAfter(new Date(now.getTime() + 1000))
+      .createVOMSProxy(holder, defaultVOFqans);
+
+    assertTrue(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+
+    Thread.sleep(1500);
+
+    validator.validateWithResult(proxy.getCertificateChain());
+
+    verify(strategy, times(2)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testTrustStoreUpdateFlushesCache() throws Exception {
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      defaultVOFqans);
+
+    validator.validateWithResult(proxy.getCertificateChain());
+
+    // Reloading unchanged trust information keeps cached results
+    trustStore.loadTrustInformation();
+    validator.validateWithResult(proxy.getCertificateChain());
+
+    verify(strategy, times(1)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+
+    Files.copy(new File(aaCert2).toPath(),
+      new File(folder.getRoot(), "aa2.pem").toPath());
+
+    trustStore.loadTrustInformation();
+
+    assertTrue(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+
+    verify(strategy, times(2)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testTamperedACWithCopiedSignatureIsRejected() throws Exception {
+
+    Date now = new Date();
+    Date notAfter = new Date(now.getTime() + TimeUnit.HOURS.toMillis(12));
+
+    AttributeCertificate ac = Utils.getVOMSAA().getAC(holder, defaultVOFqans,
+      null, null, now, notAfter);
+
+    AttributeCertificate otherAC = Utils.getVOMSAA().getAC(holder,
+      Arrays.asList("/test.vo", "/test.vo/G1"), null, null, now, notAfter);
+
+    AttributeCertificate tamperedAC = new AttributeCertificate(
+      otherAC.getAcinfo(), ac.getSignatureAlgorithm(), ac.getSignatureValue());
+
+    ProxyCertificate proxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      new AttributeCertificate[] { ac });
+
+    ProxyCertificate tamperedProxy = Utils.getVOMSAA().createVOMSProxy(holder,
+      new AttributeCertificate[] { tamperedAC });
+
+    assertTrue(
+      validator.validateWithResult(proxy.getCertificateChain()).get(0)
+        .isValid());
+
+    assertFalse(
+      validator.validateWithResult(tamperedProxy.getCertificateChain()).get(0)
+        .isValid());
+
+    verify(strategy, times(2)).validateAC(any(VOMSAttribute.class),
+      any(X509Certificate[].class));
+  }
+}
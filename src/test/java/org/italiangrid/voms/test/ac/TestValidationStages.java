@@ -0,0 +1,117 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.ac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.italiangrid.voms.VOMSAttribute;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.impl.DefaultVOMSACParser;
+import org.italiangrid.voms.ac.impl.DefaultVOMSValidationStrategy;
+import org.italiangrid.voms.ac.impl.LocalHostnameResolver;
+import org.italiangrid.voms.ac.impl.VOMSACValidationStage;
+import org.italiangrid.voms.error.VOMSValidationErrorCode;
+import org.italiangrid.voms.store.impl.DefaultVOMSTrustStore;
+import org.italiangrid.voms.test.utils.Fixture;
+import org.italiangrid.voms.test.utils.Utils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.proxy.ProxyCertificate;
+
+public class TestValidationStages implements Fixture {
+
+  static final LocalHostnameResolver RESOLVER = new LocalHostnameResolver() {
+
+    public String resolveLocalHostname() {
+
+      return "localhost.example.org";
+    }
+  };
+
+  X509CertChainValidatorExt certChainValidator;
+  DefaultVOMSTrustStore trustStore;
+
+  @Before
+  public void setup() {
+
+    certChainValidator = mock(X509CertChainValidatorExt.class,
+      AdditionalAnswers.delegatesTo(Utils.getCertificateValidator()));
+
+    trustStore = new DefaultVOMSTrustStore(Arrays.asList(vomsdir));
+  }
+
+  ProxyCertificate newProxy(String target) throws Exception {
+
+    return Utils.getVOMSAA().createVOMSProxy(Utils.getTestUserCredential(),
+      defaultVOFqans, null, Arrays.asList(target));
+  }
+
+  VOMSAttribute getAttributes(ProxyCertificate proxy) {
+
+    return new DefaultVOMSACParser().parse(proxy.getCertificateChain()).get(0);
+  }
+
+  @Test
+  public void testMisTargetedACIsRejectedBeforeSignatureChecks()
+    throws Exception {
+
+    DefaultVOMSValidationStrategy strategy = new DefaultVOMSValidationStrategy(
+      trustStore, certChainValidator, RESOLVER);
+
+    // Local AA certificates are validated when the strategy is set up
+    clearInvocations(certChainValidator);
+
+    ProxyCertificate proxy = newProxy("other.example.org");
+
+    VOMSValidationResult result = strategy.validateAC(getAttributes(proxy),
+      proxy.getCertificateChain());
+
+    assertFalse(result.isValid());
+    assertEquals(1, result.getValidationErrors().size());
+    assertEquals(VOMSValidationErrorCode.localhostDoesntMatchAcTarget,
+      result.getValidationErrors().get(0).getErrorCode());
+
+    verify(certChainValidator, never()).validate(any(X509Certificate[].class));
+  }
+
+  @Test
+  public void testStagesCanBeReorderedAndDisabled() throws Exception {
+
+    List<VOMSACValidationStage> stages = Arrays.asList(
+      VOMSACValidationStage.SIGNATURE, VOMSACValidationStage.TIME_VALIDITY);
+
+    DefaultVOMSValidationStrategy strategy = new DefaultVOMSValidationStrategy(
+      trustStore, certChainValidator, RESOLVER, stages);
+
+    assertEquals(stages, strategy.getValidationStages());
+
+    // Targets are not checked
+    ProxyCertificate proxy = newProxy("other.example.org");
+
+    assertTrue(strategy.validateAC(getAttributes(proxy),
+      proxy.getCertificateChain()).isValid());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullStagesFailure() {
+
+    new DefaultVOMSValidationStrategy(trustStore, certChainValidator,
+      RESOLVER, null);
+  }
+}
@@ -0,0 +1,97 @@
+// SPDX-FileCopyrightText: 2006 Istituto Nazionale di Fisica Nucleare
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package org.italiangrid.voms.test.bench;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.italiangrid.voms.ac.VOMSACParser;
+import org.italiangrid.voms.ac.impl.DefaultVOMSACParser;
+import org.italiangrid.voms.test.utils.Utils;
+
+/**
+ * Compares the throughput of {@link VOMSACParser#parse(X509Certificate[])}
+ * and {@link VOMSACParser#parseFQANs(X509Certificate[])} on a VOMS proxy
+ * chain.
+ * 
+ * Run from the project directory, with the test classpath, as:
+ * 
+ * <pre>
+ * java org.italiangrid.voms.test.bench.FQANParsingBenchmark [iterations]
+ * </pre>
+ *
+ */
+public class FQANParsingBenchmark {
+
+  private static final int DEFAULT_ITERATIONS = 200000;
+
+  private static final List<String> FQANS = Arrays.asList("/test.vo",
+    "/test.vo/sgm", "/test.vo/prod", "/test.vo/Role=VO-Admin",
+    "/test.vo/Role=pilot");
+
+  interface ParsingTask {
+
+    int run(X509Certificate[] chain);
+  }
+
+  static long measure(ParsingTask task, X509Certificate[] chain, int iterations) {
+
+    int sink = 0;
+
+    // Warm up
+    for (int i = 0; i < iterations; i++)
+      sink += task.run(chain);
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++)
+      sink += task.run(chain);
+
+    long elapsed = System.nanoTime() - start;
+
+    if (sink == 42)
+      System.out.println();
+
+    return elapsed;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    int iterations = DEFAULT_ITERATIONS;
+
+    if (args.length > 0)
+      iterations = Integer.parseInt(args[0]);
+
+    X509Certificate[] chain = Utils.getVOMSAA()
+      .createVOMSProxy(Utils.getTestUserCredential(), FQANS)
+      .getCertificateChain();
+
+    final VOMSACParser parser = new DefaultVOMSACParser();
+
+    long parseTime = measure(new ParsingTask() {
+
+      public int run(X509Certificate[] chain) {
+
+        return parser.parse(chain).get(0).getFQANs().size();
+      }
+    }, chain, iterations);
+
+    long parseFQANsTime = measure(new ParsingTask() {
+
+      public int run(X509Certificate[] chain) {
+
+        return parser.parseFQANs(chain).get(0).getFQANs().size();
+      }
+    }, chain, iterations);
+
+    System.out.printf("parse:      %8.2f us/op%n", parseTime / 1000.0
+      / iterations);
+    System.out.printf("parseFQANs: %8.2f us/op%n", parseFQANsTime / 1000.0
+      / iterations);
+    System.out.printf("speedup:    %8.2fx%n", (double) parseTime
+      / parseFQANsTime);
+  }
+}